@@ -0,0 +1,83 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+// Inventário das partes armazenadas por um DataNode, enviado ao MasterServer para reconciliação.
+// Um relatório completo lista todas as partes; um relatório incremental lista apenas as partes gravadas
+// ou removidas desde o relatório anterior (tamanho REMOVED). Os dados são mantidos em vetores paralelos
+// para reduzir o tamanho serializado.
+public class BlockReport implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Tamanho usado para indicar uma parte removida em relatórios incrementais
+    public static final long REMOVED = -1;
+
+    private final boolean full;
+    private final String[] imageNames;
+    private final int[] partNumbers;
+    private final long[] partLengths;
+
+    private BlockReport(boolean full, String[] imageNames, int[] partNumbers, long[] partLengths) {
+        this.full = full;
+        this.imageNames = imageNames;
+        this.partNumbers = partNumbers;
+        this.partLengths = partLengths;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public int size() {
+        return imageNames.length;
+    }
+
+    public String getImageName(int index) {
+        return imageNames[index];
+    }
+
+    public int getPartNumber(int index) {
+        return partNumbers[index];
+    }
+
+    public long getPartLength(int index) {
+        return partLengths[index];
+    }
+
+    public boolean isRemoved(int index) {
+        return partLengths[index] == REMOVED;
+    }
+
+    // Acumula as entradas de um relatório antes de enviá-lo
+    public static class Builder {
+        private final boolean full;
+        private final List<String> imageNames = new ArrayList<>();
+        private final List<Integer> partNumbers = new ArrayList<>();
+        private final List<Long> partLengths = new ArrayList<>();
+
+        public Builder(boolean full) {
+            this.full = full;
+        }
+
+        public Builder add(String imageName, int partNumber, long partLength) {
+            imageNames.add(imageName);
+            partNumbers.add(partNumber);
+            partLengths.add(partLength);
+            return this;
+        }
+
+        public int size() {
+            return imageNames.size();
+        }
+
+        public BlockReport build() {
+            int[] parts = new int[partNumbers.size()];
+            long[] lengths = new long[partLengths.size()];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = partNumbers.get(i);
+                lengths[i] = partLengths.get(i);
+            }
+            return new BlockReport(full, imageNames.toArray(new String[0]), parts, lengths);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+// Estratégia de divisão de uma imagem em partes. O tamanho das partes segue um valor alvo, e não o número de partes,
+// para que elas fiquem na faixa eficiente para as chamadas RMI e para os arquivos dos DataNodes qualquer que seja o
+// tamanho da imagem, e para que imagens grandes tenham partes suficientes para transferências paralelas.
+interface Chunker {
+
+    // Tamanho alvo padrão das partes: amortiza o custo de cada chamada e de cada arquivo sem limitar o paralelismo
+    long DEFAULT_TARGET_SIZE = 4L * 1024 * 1024;
+
+    // Calcula o tamanho de cada parte dos 'size' bytes lidos do fluxo
+    long[] split(InputStream data, long size) throws IOException;
+
+    default long[] split(byte[] data) {
+        try {
+            return split(new ByteArrayInputStream(data), data.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Estratégia correspondente ao nome: "fixed" (partes de tamanho fixo) ou "cdc" (definidas pelo conteúdo)
+    static Chunker forName(String name, long targetSize) {
+        if ("fixed".equalsIgnoreCase(name)) {
+            return new FixedSizeChunker(targetSize);
+        }
+        if ("cdc".equalsIgnoreCase(name)) {
+            return new ContentDefinedChunker(targetSize);
+        }
+        throw new IllegalArgumentException("Estratégia de divisão desconhecida: " + name);
+    }
+}
@@ -1,15 +1,48 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // Classe Cliente para interagir com o servidor MasterServer
 public class Client {
     // Diretório onde as imagens baixadas serão salvas
     private static final String DOWNLOAD_DIR = "client_downloads/";
 
+    // Número máximo de partes transferidas simultaneamente
+    private static final int MAX_PARALLEL_TRANSFERS = 8;
+
+    // Tamanho máximo de uma imagem baixada com uma única chamada em lote por DataNode
+    private static final long BATCH_DOWNLOAD_LIMIT = 4 * 1024 * 1024;
+
+    // Divisão das imagens em partes quando o usuário não informa o número de partes
+    private static final Chunker CHUNKER = new ContentDefinedChunker(Chunker.DEFAULT_TARGET_SIZE);
+
+    // Transferências em andamento por DataNode, usadas para balancear leituras entre réplicas
+    private static final Map<DataNodeInterface, AtomicInteger> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    // Executor compartilhado pelas transferências paralelas de partes
+    private static final ExecutorService TRANSFER_POOL = Executors.newFixedThreadPool(MAX_PARALLEL_TRANSFERS, r -> {
+        Thread thread = new Thread(r, "Client-transfer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public static void main(String[] args) {
         try {
             // Cria o diretório de downloads, se ainda não existir
@@ -34,7 +67,10 @@ public class Client {
                 System.out.println("3. Baixar imagem");
                 System.out.println("4. Deletar imagem");
                 System.out.println("5. Teste de desempenho");
-                System.out.println("6. Sair");
+                System.out.println("6. Baixar trecho de imagem");
+                System.out.println("7. Baixar miniatura");
+                System.out.println("8. Métricas dos serviços");
+                System.out.println("9. Sair");
                 System.out.print("Opção: ");
                 option = scanner.nextLine();
 
@@ -56,12 +92,21 @@ public class Client {
                         testPerformance(master, scanner);
                         break;
                     case "6":
+                        downloadImageRange(master, scanner);
+                        break;
+                    case "7":
+                        downloadThumbnail(master, scanner);
+                        break;
+                    case "8":
+                        showMetrics(master, registry);
+                        break;
+                    case "9":
                         System.out.println("Encerrando o cliente.");
                         break;
                     default:
                         System.out.println("Opção inválida.");
                 }
-            } while (!option.equals("6"));
+            } while (!option.equals("9"));
 
         } catch (Exception e) {
             // Tratamento de erros gerais do cliente
@@ -83,20 +128,61 @@ public class Client {
                 return;
             }
 
-            // Lê os dados da imagem do arquivo
-            FileInputStream fis = new FileInputStream(file);
-            byte[] imageData = new byte[(int) file.length()];
-            fis.read(imageData);
-            fis.close();
+            // Solicita o modo de armazenamento: replicação ou erasure coding (k partes de dados + m de paridade)
+            System.out.print("Usar erasure coding? (s/N): ");
+            boolean erasureCoded = scanner.nextLine().trim().equalsIgnoreCase("s");
 
-            // Solicita o número de partes para dividir a imagem
-            System.out.print("Digite o número de partes para dividir a imagem: ");
-            int numParts = Integer.parseInt(scanner.nextLine());
+            WritePlan plan;
+            if (erasureCoded) {
+                System.out.print("Digite o número de partes de dados (k): ");
+                int dataShards = Integer.parseInt(scanner.nextLine());
+                System.out.print("Digite o número de partes de paridade (m): ");
+                int parityShards = Integer.parseInt(scanner.nextLine());
+                plan = master.planErasureCodedUpload(file.getName(), file.length(), dataShards, parityShards);
+            } else {
+                // Solicita o número de partes; sem ele, as fronteiras das partes são definidas pelo conteúdo, o que
+                // mantém deduplicáveis as partes de imagens que diferem apenas em alguns trechos
+                System.out.print("Digite o número de partes para dividir a imagem (Enter para divisão automática): ");
+                String answer = scanner.nextLine().trim();
+                int numParts = answer.isEmpty() ? 0 : Integer.parseInt(answer);
+                if (numParts < 0 || file.length() == 0 || file.length() < numParts) {
+                    System.out.println("Número de partes inválido.");
+                    return;
+                }
+                // O hash de cada parte é calculado antes do envio; partes já armazenadas no sistema não são enviadas
+                long[] partLengths;
+                String[] partHashes;
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    partLengths = numParts > 0 ? partLengths(file.length(), numParts)
+                            : CHUNKER.split(new BufferedInputStream(Channels.newInputStream(channel)), file.length());
+                    partHashes = ContentHash.ofParts(channel, partLengths);
+                }
+                numParts = partLengths.length;
+                plan = master.planDeduplicatedUpload(file.getName(), partLengths, Arrays.asList(partHashes));
+                if (plan != null) {
+                    int skipped = 0;
+                    for (int i = 0; i < plan.getNumParts(); i++) {
+                        skipped += plan.getTargets(i).length == 0 ? 1 : 0;
+                    }
+                    System.out.println(skipped + " de " + numParts + " partes já armazenadas; enviando apenas as demais.");
+                }
+            }
+
+            // O plano de escrita indica para quais DataNodes as partes devem ser enviadas diretamente
+            if (plan == null) {
+                System.out.println("Falha ao enviar a imagem.");
+                return;
+            }
 
-            // Envia a imagem ao servidor
-            if (master.storeImage(file.getName(), imageData, numParts)) {
+            if (uploadParts(file, plan) && master.commitImageUpload(plan.getToken())) {
                 System.out.println("Imagem enviada com sucesso.");
+                // As partes não passam pelo MasterServer, então a miniatura é gerada aqui e enviada em seguida
+                byte[] thumbnail = Thumbnail.create(file);
+                if (thumbnail != null && master.storeThumbnail(file.getName(), thumbnail)) {
+                    System.out.println("Miniatura armazenada (" + thumbnail.length + " bytes).");
+                }
             } else {
+                master.cancelImageUpload(plan.getToken());
                 System.out.println("Falha ao enviar a imagem.");
             }
         } catch (Exception e) {
@@ -106,6 +192,96 @@ public class Client {
         }
     }
 
+    // Divide a imagem em partes iguais, com o restante na última parte (a mesma divisão do MasterServer)
+    private static long[] partLengths(long imageSize, int numParts) {
+        long[] lengths = new long[numParts];
+        Arrays.fill(lengths, imageSize / numParts);
+        lengths[numParts - 1] += imageSize % numParts;
+        return lengths;
+    }
+
+    // Envia em paralelo cada parte do arquivo a todas as réplicas indicadas no plano de escrita
+    private static boolean uploadParts(File file, WritePlan plan) throws IOException, InterruptedException {
+        if (plan.isErasureCoded()) {
+            // A paridade é calculada no cliente enquanto a imagem é lida, faixa a faixa
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return ErasureTransfer.upload(channel, plan, TRANSFER_POOL);
+            }
+        }
+
+        List<Future<Boolean>> results = new ArrayList<>();
+        List<Integer> resultParts = new ArrayList<>();
+        for (int i = 0; i < plan.getNumParts(); i++) {
+            int partNumber = i;
+            // A parte é codificada uma única vez, pela primeira tarefa que a enviar; as das demais réplicas aguardam
+            FutureTask<byte[]> encoding = new FutureTask<>(() -> encodePart(file, plan, partNumber));
+            for (DataNodeInterface dataNode : plan.getTargets(partNumber)) {
+                resultParts.add(partNumber);
+                results.add(TRANSFER_POOL.submit(() -> {
+                    encoding.run();
+                    byte[] encoded = encoding.get();
+                    PartKey key = plan.getPartKey(partNumber);
+                    if (encoded != null) {
+                        return PartTransfer.upload(dataNode, key.getImageName(), key.getPartNumber(),
+                                new ByteArrayInputStream(encoded), encoded.length);
+                    }
+                    // Cada tarefa lê somente o trecho do arquivo que corresponde à sua parte
+                    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        channel.position(plan.getPartOffset(partNumber));
+                        InputStream in = Channels.newInputStream(channel);
+                        long length = plan.getPartLength(partNumber);
+                        if (startsWithMagic(channel, plan.getPartOffset(partNumber))) {
+                            // Sem o quadro, a parte seria confundida com uma parte comprimida na leitura
+                            in = new SequenceInputStream(new ByteArrayInputStream(PartCodec.header(PartCodec.NONE, length)), in);
+                            length += PartCodec.HEADER_SIZE;
+                        }
+                        return PartTransfer.upload(dataNode, key.getImageName(), key.getPartNumber(), in, length);
+                    }
+                }));
+            }
+        }
+
+        boolean success = true;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                if (!results.get(i).get()) {
+                    System.out.println("Falha ao enviar a parte " + resultParts.get(i) + " da imagem.");
+                    success = false;
+                }
+            } catch (ExecutionException e) {
+                System.err.println("Erro ao enviar a parte " + resultParts.get(i) + " da imagem: " + e.getCause().getMessage());
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    // Lê e codifica a parte com o codec indicado no plano (PartCodec); null se ela deve ser enviada diretamente do
+    // arquivo, sem compressão (plano sem codec ou parte grande demais para ser mantida em memória)
+    private static byte[] encodePart(File file, WritePlan plan, int partNumber) throws IOException {
+        long length = plan.getPartLength(partNumber);
+        if (plan.getCodec() == PartCodec.NONE || length > PartCodec.MAX_ENCODED_LENGTH) {
+            return null;
+        }
+        byte[] data = new byte[(int) length];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, plan.getPartOffset(partNumber) + buffer.position()) < 0) {
+                    throw new IOException("Fim inesperado do arquivo ao ler a parte " + partNumber + ".");
+                }
+            }
+        }
+        return PartCodec.encode(data, plan.getCodec());
+    }
+
+    // Verifica se o trecho do arquivo na posição informada começa com o cabeçalho dos quadros do PartCodec
+    private static boolean startsWithMagic(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        channel.read(buffer, position);
+        return PartCodec.startsWithMagic(buffer.array());
+    }
+
     // Método para listar as imagens disponíveis no servidor
     private static void listImages(MasterServerInterface master) {
         try {
@@ -121,55 +297,331 @@ public class Client {
         }
     }
 
+    // Exibe as métricas do MasterServer, dos DataNodes registrados no registro RMI e do MonitorService
+    private static void showMetrics(MasterServerInterface master, Registry registry) {
+        try {
+            System.out.print(master.getMetrics());
+            for (String name : registry.list()) {
+                if (name.startsWith("DataNode_")) {
+                    try {
+                        System.out.print(((DataNodeInterface) registry.lookup(name)).getMetrics());
+                    } catch (Exception e) {
+                        System.err.println("Erro ao obter as métricas de " + name + ": " + e.getMessage());
+                    }
+                }
+            }
+            MonitorServiceInterface monitor = (MonitorServiceInterface) LocateRegistry.getRegistry("localhost", 2000).lookup("MonitorService");
+            System.out.print(monitor.getMetrics());
+        } catch (Exception e) {
+            System.err.println("Erro ao obter as métricas: " + e.getMessage());
+        }
+    }
+
     // Método para baixar uma imagem do servidor
     private static void downloadImage(MasterServerInterface master, Scanner scanner) {
         try {
             System.out.print("Digite o nome da imagem a ser baixada: ");
             String imageName = scanner.nextLine();
 
-            // Obtém as partes da imagem armazenadas nos DataNodes
-            Map<Integer, DataNodeInterface> partsMap = master.getImageParts(imageName);
+            // Obtém a disposição das partes da imagem nos DataNodes
+            ImageLayout layout = master.getImageLayout(imageName);
 
-            if (partsMap == null || partsMap.isEmpty()) {
+            if (layout == null || layout.getNumParts() == 0) {
                 System.out.println("Imagem não encontrada ou indisponível.");
                 return;
             }
 
-            // Baixa todas as partes da imagem
-            List<byte[]> imageParts = new ArrayList<>();
-            for (int i = 0; i < partsMap.size(); i++) {
-                DataNodeInterface dataNode = partsMap.get(i);
-                byte[] partData = dataNode.downloadPart(imageName, i);
-                if (partData != null) {
-                    imageParts.add(partData);
-                } else {
-                    System.out.println("Falha ao baixar a parte " + i + " da imagem.");
-                    return;
+            if (!downloadParts(layout, new File(DOWNLOAD_DIR + imageName))) {
+                return;
+            }
+
+            System.out.println("Imagem '" + imageName + "' baixada com sucesso.");
+        } catch (Exception e) {
+            // Tratamento de erros no download de imagens
+            System.err.println("Erro ao baixar a imagem: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Baixa as partes em paralelo, gravando cada uma diretamente em sua posição no arquivo de destino
+    private static boolean downloadParts(ImageLayout layout, File target) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (layout.isErasureCoded()) {
+                if (!ErasureTransfer.download(layout, channel, TRANSFER_POOL)) {
+                    System.out.println("Falha ao reconstruir a imagem.");
+                    return false;
+                }
+                return true;
+            }
+
+            // Imagens pequenas: todas as partes de um mesmo DataNode em uma única chamada
+            if (layout.getSize() <= BATCH_DOWNLOAD_LIMIT) {
+                byte[][] parts = fetchParts(List.of(layout))[0];
+                for (int i = 0; i < parts.length; i++) {
+                    if (parts[i] == null) {
+                        System.out.println("Falha ao baixar a parte " + i + " da imagem.");
+                        return false;
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(parts[i]);
+                    long written = 0;
+                    while (buffer.hasRemaining()) {
+                        written += channel.write(buffer, layout.getPartOffset(i) + written);
+                    }
                 }
+                return true;
             }
 
-            // Reconstrói a imagem a partir das partes baixadas
-            int totalSize = imageParts.stream().mapToInt(part -> part.length).sum();
-            byte[] imageData = new byte[totalSize];
-            int currentIndex = 0;
-            for (byte[] part : imageParts) {
-                System.arraycopy(part, 0, imageData, currentIndex, part.length);
-                currentIndex += part.length;
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < layout.getNumParts(); i++) {
+                int partNumber = i;
+                results.add(TRANSFER_POOL.submit(() -> downloadPart(layout, partNumber, channel)));
             }
 
-            // Salva a imagem reconstruída no diretório de downloads
-            FileOutputStream fos = new FileOutputStream(DOWNLOAD_DIR + imageName);
-            fos.write(imageData);
-            fos.close();
+            boolean success = true;
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    if (!results.get(i).get()) {
+                        System.out.println("Falha ao baixar a parte " + i + " da imagem.");
+                        success = false;
+                    }
+                } catch (ExecutionException e) {
+                    System.err.println("Erro ao baixar a parte " + i + " da imagem: " + e.getCause().getMessage());
+                    success = false;
+                }
+            }
+            return success;
+        }
+    }
 
-            System.out.println("Imagem '" + imageName + "' baixada com sucesso.");
+    // Baixa uma parte da réplica menos ocupada, recorrendo às demais réplicas em caso de falha
+    private static boolean downloadPart(ImageLayout layout, int partNumber, FileChannel channel) {
+        List<DataNodeInterface> replicas = new ArrayList<>(Arrays.asList(layout.getSources(partNumber)));
+        replicas.sort(Comparator.comparingInt(dataNode -> inFlight(dataNode).get()));
+
+        for (DataNodeInterface dataNode : replicas) {
+            AtomicInteger counter = inFlight(dataNode);
+            counter.incrementAndGet();
+            try {
+                if (downloadFrom(dataNode, layout, partNumber, channel)) {
+                    return true;
+                }
+            } catch (IOException e) {
+                System.err.println("Réplica inacessível para a parte " + partNumber + "; tentando outra réplica.");
+            } finally {
+                counter.decrementAndGet();
+            }
+        }
+        return false;
+    }
+
+    // Baixa a parte de uma réplica; se a sessão expirar, o DataNode respondeu e a parte é pedida de novo a ele uma vez
+    private static boolean downloadFrom(DataNodeInterface dataNode, ImageLayout layout, int partNumber, FileChannel channel)
+            throws IOException {
+        PartKey key = layout.getPartKey(partNumber);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                // Uma nova tentativa sobrescreve a mesma região do arquivo, então falhas parciais não corrompem o resultado
+                long read = PartTransfer.download(dataNode, key.getImageName(), key.getPartNumber(), channel,
+                        layout.getPartOffset(partNumber));
+                return read == layout.getPartLength(partNumber);
+            } catch (UnknownSessionException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+                System.err.println("Sessão expirada para a parte " + partNumber + "; tentando novamente.");
+            }
+        }
+    }
+
+    // Método para baixar somente um trecho de uma imagem, por exemplo a região exibida por um visualizador
+    private static void downloadImageRange(MasterServerInterface master, Scanner scanner) {
+        try {
+            System.out.print("Digite o nome da imagem: ");
+            String imageName = scanner.nextLine();
+            System.out.print("Digite a posição inicial do trecho (em bytes): ");
+            long offset = Long.parseLong(scanner.nextLine().trim());
+            System.out.print("Digite o tamanho do trecho (em bytes): ");
+            long length = Long.parseLong(scanner.nextLine().trim());
+
+            // O MasterServer indica quais partes contêm o trecho e a posição dele dentro de cada uma
+            ImageRange range = master.getImageRange(imageName, offset, length);
+            if (range == null) {
+                System.out.println("Imagem não encontrada ou trecho indisponível.");
+                return;
+            }
+
+            File target = new File(DOWNLOAD_DIR + imageName + "_" + range.getOffset() + "-" + (range.getOffset() + range.getLength()));
+            if (!downloadRange(range, target)) {
+                return;
+            }
+            System.out.println("Trecho de " + range.getLength() + " bytes da imagem '" + imageName + "' salvo em " + target.getPath() + ".");
         } catch (Exception e) {
-            // Tratamento de erros no download de imagens
-            System.err.println("Erro ao baixar a imagem: " + e.getMessage());
+            System.err.println("Erro ao baixar o trecho da imagem: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Lê em paralelo os pedaços do trecho em cada parte, gravando cada um em sua posição no arquivo de destino
+    private static boolean downloadRange(ImageRange range, File target) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Future<Boolean>> results = new ArrayList<>();
+            long position = 0;
+            for (int s = 0; s < range.getNumSegments(); s++) {
+                int segment = s;
+                long segmentPosition = position;
+                results.add(TRANSFER_POOL.submit(() -> readSegment(range, segment, channel, segmentPosition)));
+                position += range.getLength(s);
+            }
+
+            boolean success = true;
+            for (int s = 0; s < results.size(); s++) {
+                try {
+                    if (!results.get(s).get()) {
+                        System.out.println("Falha ao ler a parte " + range.getPartKey(s).getPartNumber() + " da imagem.");
+                        success = false;
+                    }
+                } catch (ExecutionException e) {
+                    System.err.println("Erro ao ler a parte " + range.getPartKey(s).getPartNumber() + " da imagem: " + e.getCause().getMessage());
+                    success = false;
+                }
+            }
+            return success;
+        }
+    }
+
+    // Lê um pedaço do trecho da réplica menos ocupada, com leituras posicionais de até PartTransfer.CHUNK_SIZE bytes,
+    // recorrendo às demais réplicas em caso de falha
+    private static boolean readSegment(ImageRange range, int segment, FileChannel channel, long position) {
+        List<DataNodeInterface> replicas = new ArrayList<>(Arrays.asList(range.getSources(segment)));
+        replicas.sort(Comparator.comparingInt(dataNode -> inFlight(dataNode).get()));
+
+        PartKey key = range.getPartKey(segment);
+        long length = range.getLength(segment);
+        for (DataNodeInterface dataNode : replicas) {
+            AtomicInteger counter = inFlight(dataNode);
+            counter.incrementAndGet();
+            try {
+                long read = 0;
+                while (read < length) {
+                    int size = (int) Math.min(PartTransfer.CHUNK_SIZE, length - read);
+                    byte[] chunk = dataNode.readPartRange(key.getImageName(), key.getPartNumber(), range.getOffsetInPart(segment) + read, size);
+                    if (chunk == null || chunk.length == 0) {
+                        break;
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer, position + read + buffer.position());
+                    }
+                    read += chunk.length;
+                }
+                if (read == length) {
+                    return true;
+                }
+            } catch (IOException e) {
+                System.err.println("Réplica inacessível para a parte " + key.getPartNumber() + "; tentando outra réplica.");
+            } finally {
+                counter.decrementAndGet();
+            }
+        }
+        return false;
+    }
+
+    // Método para baixar a miniatura de uma imagem, gerada no upload, para pré-visualizá-la sem baixar a imagem inteira
+    private static void downloadThumbnail(MasterServerInterface master, Scanner scanner) {
+        try {
+            System.out.print("Digite o nome da imagem: ");
+            String imageName = scanner.nextLine();
+
+            ImageLayout layout = master.getThumbnailLayout(imageName);
+            if (layout == null) {
+                System.out.println("Miniatura não encontrada ou indisponível.");
+                return;
+            }
+
+            File target = new File(DOWNLOAD_DIR + imageName + "_thumbnail.jpg");
+            if (!downloadParts(layout, target)) {
+                return;
+            }
+            System.out.println("Miniatura da imagem '" + imageName + "' salva em " + target.getPath() + " (" + layout.getSize() + " bytes).");
+        } catch (Exception e) {
+            System.err.println("Erro ao baixar a miniatura: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    // Baixa as partes de várias imagens replicadas com uma chamada por DataNode, em paralelo. Retorna os dados
+    // por imagem e parte; partes que falharam em todas as réplicas ficam null
+    private static byte[][][] fetchParts(List<ImageLayout> layouts) throws InterruptedException {
+        byte[][][] parts = new byte[layouts.size()][][];
+        Map<DataNodeInterface, List<PartKey>> batches = new HashMap<>();
+        Map<DataNodeInterface, List<int[]>> positions = new HashMap<>();
+        for (int j = 0; j < layouts.size(); j++) {
+            ImageLayout layout = layouts.get(j);
+            if (layout == null || layout.isErasureCoded()) {
+                continue;
+            }
+            parts[j] = new byte[layout.getNumParts()][];
+            for (int i = 0; i < layout.getNumParts(); i++) {
+                DataNodeInterface[] sources = layout.getSources(i);
+                if (sources.length > 0) {
+                    // O MasterServer já embaralha as réplicas; a primeira recebe o pedido em lote
+                    batches.computeIfAbsent(sources[0], node -> new ArrayList<>()).add(layout.getPartKey(i));
+                    positions.computeIfAbsent(sources[0], node -> new ArrayList<>()).add(new int[]{j, i});
+                }
+            }
+        }
+
+        List<Future<?>> requests = new ArrayList<>();
+        for (Map.Entry<DataNodeInterface, List<PartKey>> batch : batches.entrySet()) {
+            requests.add(TRANSFER_POOL.submit(() -> {
+                List<byte[]> data = batch.getKey().downloadParts(batch.getValue());
+                List<int[]> targets = positions.get(batch.getKey());
+                for (int k = 0; k < targets.size(); k++) {
+                    int[] position = targets.get(k);
+                    byte[] part = data.get(k) == null ? null : PartCodec.decode(data.get(k));
+                    if (part != null && part.length == layouts.get(position[0]).getPartLength(position[1])) {
+                        parts[position[0]][position[1]] = part;
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> request : requests) {
+            try {
+                request.get();
+            } catch (ExecutionException e) {
+                System.err.println("DataNode inacessível durante o download em lote; tentando outras réplicas.");
+            }
+        }
+
+        // Partes que falharam no lote são buscadas individualmente nas demais réplicas
+        for (int j = 0; j < layouts.size(); j++) {
+            for (int i = 0; parts[j] != null && i < parts[j].length; i++) {
+                DataNodeInterface[] sources = layouts.get(j).getSources(i);
+                for (int r = 1; parts[j][i] == null && r < sources.length; r++) {
+                    try {
+                        PartKey key = layouts.get(j).getPartKey(i);
+                        byte[] part = sources[r].downloadPart(key.getImageName(), key.getPartNumber());
+                        part = part == null ? null : PartCodec.decode(part);
+                        if (part != null && part.length == layouts.get(j).getPartLength(i)) {
+                            parts[j][i] = part;
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Réplica inacessível para a parte " + i + "; tentando outra réplica.");
+                    }
+                }
+            }
+        }
+        return parts;
+    }
+
+    // Contador de transferências em andamento por DataNode, usado para escolher a réplica menos ocupada
+    private static AtomicInteger inFlight(DataNodeInterface dataNode) {
+        return IN_FLIGHT.computeIfAbsent(dataNode, key -> new AtomicInteger());
+    }
+
     // Método para deletar uma imagem no servidor
     private static void deleteImage(MasterServerInterface master, Scanner scanner) {
         try {
@@ -189,42 +641,25 @@ public class Client {
         }
     }
 
-    // Método para testar o desempenho do sistema
+    // Método para testar o desempenho do sistema com o gerador de carga: vários clientes simultâneos gravando e lendo
+    // imagens, com a vazão e os percentis de latência de cada operação
     private static void testPerformance(MasterServerInterface master, Scanner scanner) {
         try {
-            System.out.print("Digite o número de imagens para o teste (10, 50, 200): ");
-            int numImages = Integer.parseInt(scanner.nextLine());
-
-            // Cria uma lista de nomes de imagens para o teste
-            List<String> imageNames = new ArrayList<>();
-            for (int i = 1; i <= numImages; i++) {
-                imageNames.add("imagem_teste_" + i + ".jpg");
-            }
-
-            // Teste de inserção de imagens
-            long startInsertion = System.currentTimeMillis();
-            for (String imageName : imageNames) {
-                byte[] imageData = new byte[1024 * 50]; // Imagem de 50KB
-                new Random().nextBytes(imageData); // Preenche com dados aleatórios
-                master.storeImage(imageName, imageData, 5);
-            }
-            long endInsertion = System.currentTimeMillis();
-            System.out.println("Tempo de inserção de " + numImages + " imagens: " + (endInsertion - startInsertion) + " ms");
-
-            // Teste de recuperação de imagens
-            long startRetrieval = System.currentTimeMillis();
-            for (String imageName : imageNames) {
-                Map<Integer, DataNodeInterface> partsMap = master.getImageParts(imageName);
-                if (partsMap != null) {
-                    for (int i = 0; i < partsMap.size(); i++) {
-                        DataNodeInterface dataNode = partsMap.get(i);
-                        dataNode.downloadPart(imageName, i);
-                    }
-                }
-            }
-            long endRetrieval = System.currentTimeMillis();
-            System.out.println("Tempo de recuperação de " + numImages + " imagens: " + (endRetrieval - startRetrieval) + " ms");
+            System.out.print("Digite o número de clientes simultâneos (Enter para 16): ");
+            String clients = scanner.nextLine().trim();
+            System.out.print("Digite a duração do teste em segundos (Enter para 30): ");
+            String duration = scanner.nextLine().trim();
+            System.out.print("Digite a fração de leituras, entre 0 e 1 (Enter para 0.8): ");
+            String readFraction = scanner.nextLine().trim();
+            System.out.print("Digite os tamanhos das imagens como tamanho:peso (Enter para " + LoadGenerator.Workload.DEFAULT_SIZES + "): ");
+            String sizes = scanner.nextLine().trim();
 
+            LoadGenerator.Workload workload = new LoadGenerator.Workload(
+                    clients.isEmpty() ? 16 : Integer.parseInt(clients),
+                    duration.isEmpty() ? 30 : Integer.parseInt(duration),
+                    readFraction.isEmpty() ? 0.8 : Double.parseDouble(readFraction),
+                    sizes.isEmpty() ? LoadGenerator.Workload.DEFAULT_SIZES : sizes);
+            new LoadGenerator(workload).run(master, System.out);
         } catch (Exception e) {
             // Tratamento de erros no teste de desempenho
             System.err.println("Erro no teste de desempenho: " + e.getMessage());
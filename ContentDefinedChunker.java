@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Partes definidas pelo conteúdo (FastCDC): um hash rolante (gear hash) percorre os bytes e uma fronteira é
+// marcada onde os bits mais altos do hash são zero. Como as fronteiras dependem só dos bytes próximos, inserir ou
+// remover dados no meio de uma imagem altera apenas as partes vizinhas, e as demais continuam deduplicáveis. Abaixo
+// do tamanho alvo a condição é mais rígida e acima dela mais branda (normalização), concentrando os tamanhos perto
+// do alvo; as partes ficam entre um quarto e quatro vezes o tamanho alvo.
+class ContentDefinedChunker implements Chunker {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // Valores aleatórios de cada byte no gear hash; a semente fixa mantém as fronteiras iguais em todos os processos
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x6d79676565L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final long minSize;
+    private final long targetSize;
+    private final long maxSize;
+    private final long strictMask; // Usada antes do tamanho alvo: dois bits a mais que o alvo
+    private final long looseMask; // Usada depois do tamanho alvo: dois bits a menos
+
+    ContentDefinedChunker(long targetSize) {
+        if (targetSize < 64) {
+            throw new IllegalArgumentException("Tamanho de parte inválido: " + targetSize);
+        }
+        this.targetSize = targetSize;
+        this.minSize = targetSize / 4;
+        this.maxSize = targetSize * 4;
+        int bits = 63 - Long.numberOfLeadingZeros(targetSize);
+        this.strictMask = highBits(bits + 2);
+        this.looseMask = highBits(bits - 2);
+    }
+
+    @Override
+    public long[] split(InputStream data, long size) throws IOException {
+        List<Long> lengths = new ArrayList<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long current = 0;
+        long hash = 0;
+        long remaining = size;
+        while (remaining > 0) {
+            int read = data.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Fim inesperado dos dados ao dividir a imagem em partes");
+            }
+            remaining -= read;
+            for (int i = 0; i < read; i++) {
+                current++;
+                // O início de cada parte não é examinado: nenhuma fronteira pode ficar abaixo do tamanho mínimo
+                if (current <= minSize) {
+                    continue;
+                }
+                hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+                long mask = current < targetSize ? strictMask : looseMask;
+                if ((hash & mask) == 0 || current >= maxSize) {
+                    lengths.add(current);
+                    current = 0;
+                    hash = 0;
+                }
+            }
+        }
+        if (current > 0) {
+            lengths.add(current);
+        }
+
+        long[] result = new long[lengths.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = lengths.get(i);
+        }
+        return result;
+    }
+
+    // Máscara com os 'count' bits mais altos ligados; os bits baixos do gear hash dependem de poucos bytes
+    private static long highBits(int count) {
+        return count <= 0 ? 0 : -1L << (64 - Math.min(count, 63));
+    }
+}
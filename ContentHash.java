@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Hash do conteúdo das partes (SHA-256 em hexadecimal), usado na deduplicação: partes com o mesmo conteúdo, em
+// qualquer imagem, são armazenadas uma única vez, como um bloco de nome "#<hash>" no catálogo do MasterServer
+public final class ContentHash {
+    // Prefixo reservado aos nomes dos blocos; não pode iniciar o nome de uma imagem
+    public static final String BLOCK_PREFIX = "#";
+
+    // Primeiro nome após o intervalo ocupado pelos blocos na ordem alfabética
+    static final String BLOCKS_END = "$";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentHash() {
+    }
+
+    // Calcula o hash de cada parte do arquivo, lendo-o uma única vez do início ao fim
+    public static String[] ofParts(FileChannel channel, long[] partLengths) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        String[] hashes = new String[partLengths.length];
+        long position = 0;
+        for (int i = 0; i < partLengths.length; i++) {
+            long remaining = partLengths[i];
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, remaining));
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Fim inesperado do arquivo ao calcular o hash da parte " + i);
+                }
+                buffer.flip();
+                digest.update(buffer);
+                position += read;
+                remaining -= read;
+            }
+            hashes[i] = toHex(digest.digest());
+        }
+        return hashes;
+    }
+
+    // Nome do bloco que guarda o conteúdo com o hash informado
+    static String blockName(String hash) {
+        return BLOCK_PREFIX + hash;
+    }
+
+    static boolean isBlockName(String name) {
+        return name.startsWith(BLOCK_PREFIX);
+    }
+
+    // Verifica se o texto tem o formato de um hash SHA-256 em hexadecimal (minúsculas)
+    static boolean isValid(String hash) {
+        if (hash == null || hash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponível", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -1,86 +1,759 @@
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.OutputStream;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 // Classe que representa um nó de dados (DataNode)
 public class DataNode extends UnicastRemoteObject implements DataNodeInterface {
+    private static final long serialVersionUID = 1L;
+
     // Diretório base onde as partes das imagens serão armazenadas
     private static final String STORAGE_DIR = "data_node_storage/";
+    // Intervalo entre heartbeats enviados ao MasterServer para renovar a concessão deste DataNode
+    public static final long HEARTBEAT_INTERVAL_MS = 3000;
+    // Tempo máximo que uma sessão de transferência pode ficar ociosa antes de ser descartada
+    private static final long SESSION_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+    // Intervalo entre relatórios incrementais (somente as partes alteradas) enviados ao MasterServer
+    private static final long BLOCK_REPORT_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+    // Intervalo entre relatórios completos, que permitem ao MasterServer detectar divergências acumuladas
+    private static final long FULL_REPORT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+    // Separador entre o nome da imagem e o número da parte nas chaves do armazenamento
+    private static final String PART_SEPARATOR = "_part";
+    // Separador entre a chave de uma parte comprimida e o número de um bloco seu já descomprimido, guardado no cache
+    // de leitura; as chaves das partes terminam em dígitos precedidos de PART_SEPARATOR e não colidem com essas
+    private static final String DECODED_SEPARATOR = "@";
+    // Tamanho dos blocos descomprimidos no cache, menor que o limite de uma entrada no cache padrão
+    private static final int DECODED_BLOCK_SIZE = 256 * 1024;
+    // Tamanho padrão do cache de leitura das partes
+    static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+    // Intervalo entre as execuções da manutenção do armazenamento (compactação de segmentos)
+    private static final long STORE_MAINTENANCE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
     private String dataNodeId; // Identificador único para este DataNode
+    private final PartStore store; // Mecanismo de armazenamento das partes (um arquivo por parte ou segmentos)
+    private final PartCache cache; // Cache de leitura das partes mais acessadas
+    private final File storageDir; // Diretório do armazenamento, usado para informar o espaço livre
+    private volatile MasterServerInterface master; // Referência ao MasterServer, obtida ao iniciar
+
+    // Sessões de upload e download em andamento, indexadas pelo identificador da sessão
+    private final Map<String, UploadSession> uploadSessions = new ConcurrentHashMap<>();
+    private final Map<String, DownloadSession> downloadSessions = new ConcurrentHashMap<>();
+
+    // Índice em memória das partes armazenadas (chave -> tamanho), mantido a cada gravação e exclusão
+    // para que os relatórios não precisem percorrer o armazenamento
+    private final Map<String, Long> storedParts = new ConcurrentHashMap<>();
+    // Tamanho original das partes gravadas comprimidas (PartCodec), relatado ao MasterServer no lugar do armazenado
+    private final Map<String, Long> decodedLengths = new ConcurrentHashMap<>();
+    // Partes gravadas ou removidas (BlockReport.REMOVED) desde o último relatório incremental
+    private final Map<String, Long> changedParts = new ConcurrentHashMap<>();
+
+    // Requisições de dados em andamento e tempo de atendimento desde o último heartbeat, informados ao MasterServer
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder requestNanos = new LongAdder();
+
+    // Latência de cada operação, bytes recebidos e enviados e medidores do armazenamento, das sessões e do cache
+    private final Metrics metrics;
 
-    // Construtor que inicializa o DataNode com um identificador único
+    // Executor para tarefas periódicas de manutenção do DataNode
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "DataNode-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Construtor que inicializa o DataNode com um identificador único, armazenando um arquivo por parte
     protected DataNode(String dataNodeId) throws RemoteException {
+        this(dataNodeId, "file", DEFAULT_CACHE_BYTES, false);
+    }
+
+    // Construtor que permite escolher o armazenamento ("file" ou "segment") e o tamanho do cache de leitura
+    protected DataNode(String dataNodeId, String storeType, long cacheBytes, boolean offHeapCache) throws RemoteException {
+        this(dataNodeId, new File(STORAGE_DIR), storeType, cacheBytes, offHeapCache);
+    }
+
+    // Construtor que permite também escolher o diretório base do armazenamento, como o diretório temporário do LoadGenerator
+    DataNode(String dataNodeId, File storageRoot, String storeType, long cacheBytes, boolean offHeapCache) throws RemoteException {
         this.dataNodeId = dataNodeId;
+        this.cache = new PartCache(cacheBytes, offHeapCache);
         // Cria um diretório específico para armazenar os dados deste DataNode
-        File dir = new File(STORAGE_DIR + dataNodeId + "/");
-        if (!dir.exists()) {
-            dir.mkdirs();
+        File dir = new File(storageRoot, dataNodeId);
+        this.storageDir = dir;
+        this.store = openStore(storeType, dir);
+        storedParts.putAll(store.inventory());
+        // As partes comprimidas são relatadas pelo tamanho original, lido do cabeçalho de cada uma
+        for (String key : storedParts.keySet()) {
+            PartKey part = partKey(key);
+            long decodedLength = part == null ? -1 : storedDecodedLength(part.getImageName(), part.getPartNumber());
+            if (decodedLength >= 0) {
+                decodedLengths.put(key, decodedLength);
+            }
+        }
+        Log.info("DataNode " + dataNodeId + ": " + storedParts.size() + " partes encontradas no armazenamento (" + storeType + ").");
+
+        this.metrics = new Metrics("DataNode", dataNodeId);
+        metrics.gauge("storedParts", storedParts::size);
+        metrics.gauge("storedBytes", this::storedBytes);
+        metrics.gauge("inFlight", inFlight::get);
+        metrics.gauge("uploadSessions", uploadSessions::size);
+        metrics.gauge("downloadSessions", downloadSessions::size);
+        metrics.gauge("pendingReportedParts", changedParts::size);
+        metrics.gauge("cacheHits", cache::getHits);
+        metrics.gauge("cacheMisses", cache::getMisses);
+        metrics.gauge("cacheEvictions", cache::getEvictions);
+        metrics.gauge("cacheBytes", cache::getUsedBytes);
+        scheduler.scheduleWithFixedDelay(store::maintain, STORE_MAINTENANCE_INTERVAL_MS, STORE_MAINTENANCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::logCacheStats, STORE_MAINTENANCE_INTERVAL_MS, STORE_MAINTENANCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        // Remove periodicamente sessões abandonadas por clientes que falharam
+        scheduler.scheduleAtFixedRate(this::expireIdleSessions, 1, 1, TimeUnit.MINUTES);
+    }
+
+    // Cria o mecanismo de armazenamento escolhido no diretório do DataNode
+    private static PartStore openStore(String storeType, File dir) throws RemoteException {
+        try {
+            if ("segment".equals(storeType)) {
+                return new SegmentPartStore(dir);
+            }
+            return new FilePartStore(dir);
+        } catch (IOException e) {
+            throw new RemoteException("Erro ao abrir o armazenamento do DataNode", e);
+        }
+    }
+
+    // Atualiza o índice e invalida o cache após gravar uma parte
+    private void partStored(String imageName, int partNumber, long length) {
+        partStored(imageName, partNumber, length, storedDecodedLength(imageName, partNumber));
+    }
+
+    // Atualiza o índice e invalida o cache após gravar uma parte com o tamanho original informado (-1 se a parte não
+    // está comprimida)
+    private void partStored(String imageName, int partNumber, long length, long decodedLength) {
+        String key = PartStore.key(imageName, partNumber);
+        cache.invalidate(key);
+        invalidateDecoded(key);
+        storedParts.put(key, length);
+        if (decodedLength >= 0) {
+            decodedLengths.put(key, decodedLength);
+        } else {
+            decodedLengths.remove(key);
+        }
+        changedParts.put(key, decodedLength >= 0 ? decodedLength : length);
+    }
+
+    // Atualiza o índice e invalida o cache após remover uma parte
+    private void partRemoved(String imageName, int partNumber) {
+        String key = PartStore.key(imageName, partNumber);
+        cache.invalidate(key);
+        invalidateDecoded(key);
+        storedParts.remove(key);
+        decodedLengths.remove(key);
+        changedParts.put(key, BlockReport.REMOVED);
+    }
+
+    // Tamanho original de uma parte armazenada comprimida, lido do cabeçalho do quadro; -1 se ela não está comprimida
+    private long storedDecodedLength(String imageName, int partNumber) {
+        try {
+            PartStore.Reader reader = store.openReader(imageName, partNumber);
+            if (reader == null) {
+                return -1;
+            }
+            try {
+                return PartCodec.decodedLength(reader.read(0L, PartCodec.HEADER_SIZE));
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.error("Erro ao ler o cabeçalho da parte " + PartStore.key(imageName, partNumber) + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    // Identifica a parte pelo nome usado no armazenamento (<imagem>_part<n>); null se o nome não segue esse padrão
+    private static PartKey partKey(String key) {
+        int separator = key.lastIndexOf(PART_SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            return new PartKey(key.substring(0, separator), Integer.parseInt(key.substring(separator + PART_SEPARATOR.length())));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Lê a parte inteira do cache ou, em caso de falta, do armazenamento (inserindo-a no cache); null se não existir
+    private byte[] readCached(String imageName, int partNumber) throws IOException {
+        String key = PartStore.key(imageName, partNumber);
+        byte[] data = cache.get(key);
+        if (data != null) {
+            return data;
+        }
+        long stamp = cache.stamp(key);
+        PartStore.Reader reader = store.openReader(imageName, partNumber);
+        if (reader == null) {
+            return null;
+        }
+        try {
+            data = reader.read((int) Math.min(reader.length(), Integer.MAX_VALUE - 8));
+            data = data == null ? new byte[0] : data;
+        } finally {
+            reader.close();
+        }
+        cache.put(key, data, stamp);
+        return data;
+    }
+
+    // Remove do cache os blocos descomprimidos da versão anterior de uma parte; chamado antes de atualizar
+    // decodedLengths
+    private void invalidateDecoded(String key) {
+        Long decodedLength = decodedLengths.get(key);
+        if (decodedLength != null) {
+            for (int block = 0; block < decodedBlocks(decodedLength); block++) {
+                cache.invalidate(decodedKey(key, block));
+            }
+        }
+    }
+
+    private static String decodedKey(String key, int block) {
+        return key + DECODED_SEPARATOR + block;
+    }
+
+    private static int decodedBlocks(long decodedLength) {
+        return (int) ((decodedLength + DECODED_BLOCK_SIZE - 1) / DECODED_BLOCK_SIZE);
+    }
+
+    // Lê um trecho de uma parte comprimida a partir dos seus blocos descomprimidos no cache. Em caso de falta, a parte
+    // é descomprimida uma vez e todos os seus blocos são inseridos no cache, de modo que os trechos seguintes não a
+    // descomprimem de novo; null se a parte não existir
+    private byte[] readDecodedRange(String imageName, int partNumber, long decodedLength, long offset, int length)
+            throws IOException {
+        if (offset >= decodedLength) {
+            return new byte[0];
+        }
+        String key = PartStore.key(imageName, partNumber);
+        int end = (int) Math.min(decodedLength, offset + length);
+        int first = (int) (offset / DECODED_BLOCK_SIZE);
+        int last = (end - 1) / DECODED_BLOCK_SIZE;
+        byte[] range = new byte[end - (int) offset];
+        for (int block = first; block <= last; block++) {
+            byte[] data = cache.get(decodedKey(key, block));
+            int blockStart = block * DECODED_BLOCK_SIZE;
+            int from = Math.max((int) offset, blockStart);
+            int to = Math.min(end, blockStart + DECODED_BLOCK_SIZE);
+            if (data == null || data.length < to - blockStart) {
+                return decodeIntoCache(imageName, partNumber, decodedLength, offset, length);
+            }
+            System.arraycopy(data, from - blockStart, range, from - (int) offset, to - from);
+        }
+        return range;
+    }
+
+    // Descomprime a parte inteira, insere os seus blocos no cache e retorna o trecho solicitado
+    private byte[] decodeIntoCache(String imageName, int partNumber, long decodedLength, long offset, int length)
+            throws IOException {
+        String key = PartStore.key(imageName, partNumber);
+        // Uma gravação ou exclusão concluída durante a leitura altera os stamps, e os blocos não são inseridos
+        long[] stamps = new long[decodedBlocks(decodedLength)];
+        for (int block = 0; block < stamps.length; block++) {
+            stamps[block] = cache.stamp(decodedKey(key, block));
+        }
+        byte[] data = readCached(imageName, partNumber);
+        if (data == null) {
+            return null;
+        }
+        byte[] decoded = PartCodec.decode(data);
+        for (int block = 0; block < stamps.length && block * DECODED_BLOCK_SIZE < decoded.length; block++) {
+            int blockStart = block * DECODED_BLOCK_SIZE;
+            byte[] blockData = Arrays.copyOfRange(decoded, blockStart, Math.min(decoded.length, blockStart + DECODED_BLOCK_SIZE));
+            cache.put(decodedKey(key, block), blockData, stamps[block]);
+        }
+        if (offset >= decoded.length) {
+            return new byte[0];
+        }
+        return Arrays.copyOfRange(decoded, (int) offset, (int) Math.min(decoded.length, offset + length));
+    }
+
+    // Marca o início de uma requisição de dados, para as estatísticas de carga enviadas no heartbeat
+    private long beginRequest() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    // Conclui a requisição, registrando a sua latência nas métricas da operação
+    private void endRequest(String operation, long start) {
+        long elapsed = System.nanoTime() - start;
+        inFlight.decrementAndGet();
+        requestCount.increment();
+        requestNanos.add(elapsed);
+        metrics.latency(operation).record(elapsed);
+    }
+
+    // Ocupação e carga atuais; a latência é a média das requisições desde a chamada anterior
+    private NodeStats collectStats() {
+        long used = storedBytes();
+        long count = requestCount.sumThenReset();
+        long nanos = requestNanos.sumThenReset();
+        return new NodeStats(used, storageDir.getUsableSpace(), storedParts.size(), inFlight.get(),
+                count == 0 ? 0 : nanos / count / 1000);
+    }
+
+    // Espaço ocupado pelas partes armazenadas
+    private long storedBytes() {
+        long used = 0;
+        for (long length : storedParts.values()) {
+            used += length;
         }
+        return used;
+    }
+
+    // Métricas deste DataNode
+    @Override
+    public MetricsSnapshot getMetrics() throws RemoteException {
+        return metrics.snapshot();
+    }
+
+    // Registra periodicamente os contadores do cache de leitura
+    private void logCacheStats() {
+        if (cache.getHits() + cache.getMisses() > 0) {
+            Log.info("DataNode " + dataNodeId + ": " + cache);
+        }
+    }
+
+    // Contadores do cache de leitura (acertos, falhas e remoções)
+    public PartCache getCache() {
+        return cache;
     }
 
     // Método para armazenar uma parte de uma imagem no DataNode
     @Override
     public boolean uploadPart(String imageName, int partNumber, byte[] data) throws RemoteException {
+        long start = beginRequest();
         try {
-            // Cria um arquivo para armazenar a parte da imagem
-            FileOutputStream fos = new FileOutputStream(STORAGE_DIR + dataNodeId + "/" + imageName + "_part" + partNumber);
-            fos.write(data);
-            fos.close();
-            System.out.println("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' armazenada.");
+            // Grava a parte da imagem no armazenamento
+            store.write(imageName, partNumber, data);
+            partStored(imageName, partNumber, data.length, PartCodec.decodedLength(data));
+            metrics.add("bytesIn", data.length);
+            Log.debug("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' armazenada.");
             return true; // Retorna true se o upload for bem-sucedido
         } catch (IOException e) {
             // Captura erros ao armazenar a parte da imagem
-            System.err.println("Erro ao armazenar a parte da imagem: " + e.getMessage());
+            Log.error("Erro ao armazenar a parte da imagem: " + e.getMessage());
             return false; // Retorna false em caso de erro
+        } finally {
+            endRequest("uploadPart", start);
         }
     }
 
     // Método para baixar uma parte de uma imagem armazenada no DataNode
     @Override
     public byte[] downloadPart(String imageName, int partNumber) throws RemoteException {
+        long start = beginRequest();
         try {
-            // Localiza o arquivo que contém a parte solicitada
-            File file = new File(STORAGE_DIR + dataNodeId + "/" + imageName + "_part" + partNumber);
-            if (file.exists()) {
-                // Lê os dados do arquivo e os retorna como um array de bytes
-                byte[] data = Files.readAllBytes(file.toPath());
-                System.out.println("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' enviada.");
+            // Localiza a parte solicitada no cache ou no armazenamento
+            byte[] data = readCached(imageName, partNumber);
+            if (data != null) {
+                metrics.add("bytesOut", data.length);
+                Log.debug("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' enviada.");
                 return data; // Retorna os dados lidos
             } else {
-                System.out.println("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' não encontrada.");
-                return null; // Retorna null se o arquivo não existir
+                Log.debug("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' não encontrada.");
+                return null; // Retorna null se a parte não existir
             }
         } catch (IOException e) {
             // Captura erros ao ler a parte da imagem
-            System.err.println("Erro ao ler a parte da imagem: " + e.getMessage());
+            Log.error("Erro ao ler a parte da imagem: " + e.getMessage());
             return null; // Retorna null em caso de erro
+        } finally {
+            endRequest("downloadPart", start);
+        }
+    }
+
+    // Lê um trecho de até PartTransfer.CHUNK_SIZE bytes de uma parte com uma leitura posicional, sem transferir a
+    // parte inteira; retorna null se a parte não existir
+    @Override
+    public byte[] readPartRange(String imageName, int partNumber, long offset, int length) throws RemoteException {
+        if (offset < 0 || length < 0) {
+            Log.warn("Trecho inválido da parte " + partNumber + " da imagem '" + imageName + "'.");
+            return null;
+        }
+        long start = beginRequest();
+        try {
+            String key = PartStore.key(imageName, partNumber);
+            Long decodedLength = decodedLengths.get(key);
+            if (decodedLength != null) {
+                // Parte comprimida: o trecho é recortado dos blocos descomprimidos
+                byte[] chunk = readDecodedRange(imageName, partNumber, decodedLength, offset, Math.min(length, PartTransfer.CHUNK_SIZE));
+                if (chunk == null) {
+                    Log.debug("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' não encontrada.");
+                    return null;
+                }
+                metrics.add("bytesOut", chunk.length);
+                return chunk;
+            }
+            // Uma parte presente no cache é recortada da memória; as demais não são trazidas ao cache por um trecho
+            byte[] cached = cache.get(key);
+            PartStore.Reader reader = cached != null ? new BytesReader(cached) : store.openReader(imageName, partNumber);
+            if (reader == null) {
+                Log.debug("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' não encontrada.");
+                return null;
+            }
+            try {
+                byte[] chunk = reader.read(offset, Math.min(length, PartTransfer.CHUNK_SIZE));
+                metrics.add("bytesOut", chunk == null ? 0 : chunk.length);
+                return chunk == null ? new byte[0] : chunk;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.error("Erro ao ler o trecho da parte da imagem: " + e.getMessage());
+            return null;
+        } finally {
+            endRequest("readPartRange", start);
         }
     }
 
     // Método para deletar uma parte de uma imagem do DataNode
     @Override
     public boolean deletePart(String imageName, int partNumber) throws RemoteException {
-        // Localiza o arquivo que contém a parte a ser deletada
-        File file = new File(STORAGE_DIR + dataNodeId + "/" + imageName + "_part" + partNumber);
-        if (file.exists() && file.delete()) {
-            // Retorna true se o arquivo for encontrado e deletado com sucesso
-            System.out.println("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' deletada.");
+        long start = System.nanoTime();
+        boolean deleted = false;
+        try {
+            deleted = store.delete(imageName, partNumber);
+            if (deleted) {
+                partRemoved(imageName, partNumber);
+                Log.debug("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' deletada.");
+            }
+        } catch (IOException e) {
+            Log.error("Erro ao deletar a parte da imagem: " + e.getMessage());
+        }
+        if (!deleted) {
+            // A parte não existe ou não pôde ser deletada
+            Log.debug("DataNode " + dataNodeId + ": Falha ao deletar a parte " + partNumber + " da imagem '" + imageName + "'.");
+        }
+        metrics.record("deletePart", start);
+        return deleted;
+    }
+
+    // Armazena várias partes em uma única chamada; retorna o resultado de cada parte
+    @Override
+    public boolean[] uploadParts(List<PartData> parts) throws RemoteException {
+        long start = beginRequest();
+        try {
+            boolean[] results = new boolean[parts.size()];
+            int stored = 0;
+            for (int i = 0; i < parts.size(); i++) {
+                PartKey key = parts.get(i).getKey();
+                byte[] data = parts.get(i).getData();
+                try {
+                    store.write(key.getImageName(), key.getPartNumber(), data);
+                    partStored(key.getImageName(), key.getPartNumber(), data.length, PartCodec.decodedLength(data));
+                    metrics.add("bytesIn", data.length);
+                    results[i] = true;
+                    stored++;
+                } catch (IOException e) {
+                    Log.error("Erro ao armazenar a parte " + key + ": " + e.getMessage());
+                }
+            }
+            Log.debug("DataNode " + dataNodeId + ": " + stored + " de " + parts.size() + " partes armazenadas em lote.");
+            return results;
+        } finally {
+            endRequest("uploadParts", start);
+        }
+    }
+
+    // Lê várias partes em uma única chamada; partes inexistentes ou ilegíveis são retornadas como null
+    @Override
+    public List<byte[]> downloadParts(List<PartKey> keys) throws RemoteException {
+        long start = beginRequest();
+        try {
+            List<byte[]> results = new ArrayList<>(keys.size());
+            for (PartKey key : keys) {
+                try {
+                    byte[] data = readCached(key.getImageName(), key.getPartNumber());
+                    metrics.add("bytesOut", data == null ? 0 : data.length);
+                    results.add(data);
+                } catch (IOException e) {
+                    Log.error("Erro ao ler a parte " + key + ": " + e.getMessage());
+                    results.add(null);
+                }
+            }
+            Log.debug("DataNode " + dataNodeId + ": " + keys.size() + " partes enviadas em lote.");
+            return results;
+        } finally {
+            endRequest("downloadParts", start);
+        }
+    }
+
+    // Remove várias partes em uma única chamada; retorna o resultado de cada parte
+    @Override
+    public boolean[] deleteParts(List<PartKey> keys) throws RemoteException {
+        long start = System.nanoTime();
+        boolean[] results = new boolean[keys.size()];
+        int deleted = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            PartKey key = keys.get(i);
+            try {
+                if (store.delete(key.getImageName(), key.getPartNumber())) {
+                    partRemoved(key.getImageName(), key.getPartNumber());
+                    results[i] = true;
+                    deleted++;
+                }
+            } catch (IOException e) {
+                Log.error("Erro ao deletar a parte " + key + ": " + e.getMessage());
+            }
+        }
+        Log.debug("DataNode " + dataNodeId + ": " + deleted + " de " + keys.size() + " partes deletadas em lote.");
+        metrics.record("deleteParts", start);
+        return results;
+    }
+
+    // Copia uma parte de outro DataNode, em blocos, para este DataNode; usado pelo rebalanceamento do MasterServer
+    @Override
+    public boolean copyPartFrom(String imageName, int partNumber, DataNodeInterface source) throws RemoteException {
+        long start = beginRequest();
+        PartStore.Writer writer = null;
+        try {
+            writer = store.openWriter(imageName, partNumber);
+            long length = PartTransfer.download(source, imageName, partNumber, outputStream(writer));
+            if (length < 0) {
+                Log.debug("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' não encontrada na origem.");
+                writer.abort();
+                return false;
+            }
+            writer.commit();
+            partStored(imageName, partNumber, length);
+            Log.info("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' copiada de outro DataNode.");
             return true;
-        } else {
-            // Retorna false se o arquivo não existir ou não puder ser deletado
-            System.out.println("DataNode " + dataNodeId + ": Falha ao deletar a parte " + partNumber + " da imagem '" + imageName + "'.");
+        } catch (IOException e) {
+            Log.error("Erro ao copiar a parte da imagem: " + e.getMessage());
+            if (writer != null) {
+                writer.abort();
+            }
+            return false;
+        } finally {
+            endRequest("copyPartFrom", start);
+        }
+    }
+
+    // Reconstrói uma parte de imagem com erasure coding a partir das demais partes, lidas diretamente dos DataNodes
+    // que as guardam (usado na recuperação de partes perdidas com a falha de um DataNode)
+    @Override
+    public boolean rebuildPart(String imageName, int partNumber, int dataShards, int parityShards, long partLength,
+                               DataNodeInterface[] sources) throws RemoteException {
+        long start = beginRequest();
+        PartStore.Writer writer = null;
+        try {
+            writer = store.openWriter(imageName, partNumber);
+            if (!ErasureTransfer.rebuild(imageName, partNumber, dataShards, parityShards, partLength, sources, outputStream(writer))) {
+                writer.abort();
+                return false;
+            }
+            writer.commit();
+            // A parte reconstruída ganha um quadro sem compressão se começar com MAGIC
+            long decodedLength = storedDecodedLength(imageName, partNumber);
+            partStored(imageName, partNumber, decodedLength >= 0 ? partLength + PartCodec.HEADER_SIZE : partLength, decodedLength);
+            Log.info("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' reconstruída.");
+            return true;
+        } catch (IOException e) {
+            Log.error("Erro ao reconstruir a parte da imagem: " + e.getMessage());
+            if (writer != null) {
+                writer.abort();
+            }
             return false;
+        } finally {
+            endRequest("rebuildPart", start);
         }
     }
 
+    // Adapta um gravador do PartStore para OutputStream
+    private static OutputStream outputStream(PartStore.Writer writer) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                writer.write(new byte[] {(byte) b});
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writer.write(off == 0 && len == b.length ? b : Arrays.copyOfRange(b, off, off + len));
+            }
+        };
+    }
+
+    // Abre uma sessão de upload; os blocos só se tornam visíveis no commit
+    @Override
+    public String openUpload(String imageName, int partNumber) throws RemoteException {
+        try {
+            String sessionId = UUID.randomUUID().toString();
+            uploadSessions.put(sessionId, new UploadSession(imageName, partNumber, store.openWriter(imageName, partNumber)));
+            return sessionId;
+        } catch (IOException e) {
+            Log.error("Erro ao abrir a sessão de upload: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Acrescenta um bloco de dados à sessão de upload
+    @Override
+    public boolean writeChunk(String sessionId, byte[] chunk) throws RemoteException {
+        UploadSession session = uploadSession(sessionId);
+        if (session == null) {
+            return false;
+        }
+        long start = beginRequest();
+        try {
+            session.write(chunk);
+            metrics.add("bytesIn", chunk.length);
+            return true;
+        } catch (IOException e) {
+            Log.error("Erro ao gravar bloco da parte da imagem: " + e.getMessage());
+            discard(uploadSessions.remove(sessionId));
+            return false;
+        } finally {
+            endRequest("writeChunk", start);
+        }
+    }
+
+    // Conclui a sessão de upload, tornando a parte visível de forma atômica
+    @Override
+    public boolean commitUpload(String sessionId) throws RemoteException {
+        UploadSession session = uploadSessions.remove(sessionId);
+        if (session == null) {
+            Log.warn("DataNode " + dataNodeId + ": Sessão de upload desconhecida ou expirada: " + sessionId);
+            return false;
+        }
+        try {
+            session.commit();
+            partStored(session.imageName, session.partNumber, session.length);
+            Log.debug("DataNode " + dataNodeId + ": Parte " + session.partNumber + " da imagem '" + session.imageName + "' armazenada.");
+            return true;
+        } catch (IOException e) {
+            Log.error("Erro ao armazenar a parte da imagem: " + e.getMessage());
+            discard(session);
+            return false;
+        }
+    }
+
+    // Cancela a sessão de upload e descarta os dados recebidos
+    @Override
+    public void abortUpload(String sessionId) throws RemoteException {
+        discard(uploadSessions.remove(sessionId));
+    }
+
+    // Abre uma sessão de download; retorna null se a parte não existir
+    @Override
+    public String openDownload(String imageName, int partNumber) throws RemoteException {
+        try {
+            // Partes que cabem no cache são servidas da memória; as maiores são lidas do armazenamento em blocos
+            Long length = storedParts.get(PartStore.key(imageName, partNumber));
+            PartStore.Reader reader;
+            if (length != null && cache.fits(length)) {
+                byte[] data = readCached(imageName, partNumber);
+                reader = data == null ? null : new BytesReader(data);
+            } else {
+                reader = store.openReader(imageName, partNumber);
+            }
+            if (reader == null) {
+                Log.debug("DataNode " + dataNodeId + ": Parte " + partNumber + " da imagem '" + imageName + "' não encontrada.");
+                return null;
+            }
+            String sessionId = UUID.randomUUID().toString();
+            downloadSessions.put(sessionId, new DownloadSession(reader));
+            return sessionId;
+        } catch (IOException e) {
+            Log.error("Erro ao abrir a parte da imagem: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Lê o próximo bloco da sessão de download; retorna null e encerra a sessão ao final da parte
+    @Override
+    public byte[] readChunk(String sessionId, int maxBytes) throws RemoteException, UnknownSessionException {
+        DownloadSession session = downloadSessions.get(sessionId);
+        if (session == null) {
+            Log.warn("DataNode " + dataNodeId + ": Sessão de download desconhecida ou expirada: " + sessionId);
+            throw new UnknownSessionException(sessionId);
+        }
+        long start = beginRequest();
+        try {
+            byte[] chunk = session.read(Math.min(maxBytes, PartTransfer.CHUNK_SIZE));
+            if (chunk == null) {
+                closeDownload(sessionId);
+            } else {
+                metrics.add("bytesOut", chunk.length);
+            }
+            return chunk;
+        } catch (IOException e) {
+            closeDownload(sessionId);
+            throw new RemoteException("Erro ao ler a parte da imagem", e);
+        } finally {
+            endRequest("readChunk", start);
+        }
+    }
+
+    // Encerra a sessão de download e libera o arquivo aberto
+    @Override
+    public void closeDownload(String sessionId) throws RemoteException {
+        DownloadSession session = downloadSessions.remove(sessionId);
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    // Obtém uma sessão de upload ativa; null se ela não existir ou tiver expirado. Uma sessão desconhecida é um erro
+    // da requisição, não do DataNode, e por isso não é sinalizada com RemoteException, que indica falha de comunicação.
+    private UploadSession uploadSession(String sessionId) {
+        UploadSession session = uploadSessions.get(sessionId);
+        if (session == null) {
+            Log.warn("DataNode " + dataNodeId + ": Sessão de upload desconhecida ou expirada: " + sessionId);
+        }
+        return session;
+    }
+
+    // Descarta uma sessão de upload, removendo seu arquivo temporário
+    private void discard(UploadSession session) {
+        if (session != null) {
+            session.abort();
+        }
+    }
+
+    // Remove sessões que ficaram ociosas por mais tempo que o limite configurado
+    private void expireIdleSessions() {
+        long deadline = System.currentTimeMillis() - SESSION_TIMEOUT_MS;
+        uploadSessions.entrySet().removeIf(entry -> {
+            if (entry.getValue().lastAccess < deadline) {
+                entry.getValue().abort();
+                return true;
+            }
+            return false;
+        });
+        downloadSessions.entrySet().removeIf(entry -> {
+            if (entry.getValue().lastAccess < deadline) {
+                entry.getValue().close();
+                return true;
+            }
+            return false;
+        });
+    }
+
     // Método para verificar a disponibilidade do DataNode (ping)
     @Override
     public boolean ping() throws RemoteException {
+        metrics.increment("pings");
         return true; // Retorna sempre true, indicando que o DataNode está ativo
     }
 
@@ -92,38 +765,207 @@ public class DataNode extends UnicastRemoteObject implements DataNodeInterface {
 
             // Registra o DataNode no RMI Registry
             registry.rebind("DataNode_" + dataNodeId, this);
-            System.out.println("DataNode " + dataNodeId + " registrado no RMI Registry.");
+            Log.info("DataNode " + dataNodeId + " registrado no RMI Registry.");
 
             // Registra o DataNode no MasterServer
-            MasterServerInterface master = (MasterServerInterface) registry.lookup("MasterServer");
+            master = (MasterServerInterface) registry.lookup("MasterServer");
             master.registerDataNode(dataNodeId, this);
-            System.out.println("DataNode " + dataNodeId + " registrado no MasterServer.");
+            Log.info("DataNode " + dataNodeId + " registrado no MasterServer.");
+
+            // Informa ao MasterServer as partes que já estão no disco, permitindo reconciliar o catálogo
+            sendBlockReport(true);
+
+            // Envia heartbeats periódicos para que o MasterServer detecte falhas sem consultar cada DataNode
+            scheduler.scheduleAtFixedRate(this::sendHeartbeat, HEARTBEAT_INTERVAL_MS, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            scheduler.scheduleAtFixedRate(() -> sendBlockReport(false), BLOCK_REPORT_INTERVAL_MS, BLOCK_REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            scheduler.scheduleAtFixedRate(() -> sendBlockReport(true), FULL_REPORT_INTERVAL_MS, FULL_REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
             // Captura erros no registro do DataNode
-            System.err.println("Erro ao iniciar o DataNode: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Erro ao iniciar o DataNode: " + e.getMessage(), e);
+        }
+    }
+
+    // Renova a concessão junto ao MasterServer, informando a ocupação e a carga, e registra-se novamente caso ele não reconheça este DataNode
+    private void sendHeartbeat() {
+        try {
+            if (!master.heartbeat(dataNodeId, collectStats())) {
+                reregister();
+            }
+        } catch (RemoteException e) {
+            Log.warn("DataNode " + dataNodeId + ": falha ao enviar heartbeat: " + e.getMessage());
+            reconnect();
+        }
+    }
+
+    // Procura novamente o MasterServer no RMI Registry, caso ele tenha sido reiniciado com uma nova referência
+    private void reconnect() {
+        try {
+            Registry registry = LocateRegistry.getRegistry();
+            master = (MasterServerInterface) registry.lookup("MasterServer");
+            registry.rebind("DataNode_" + dataNodeId, this);
+            reregister();
+        } catch (Exception e) {
+            // MasterServer ainda indisponível; nova tentativa no próximo heartbeat
+        }
+    }
+
+    // Registra-se novamente no MasterServer (por exemplo, após uma reinicialização dele) e reenvia o inventário completo
+    private void reregister() throws RemoteException {
+        master.registerDataNode(dataNodeId, this);
+        Log.info("DataNode " + dataNodeId + " registrado novamente no MasterServer.");
+        sendBlockReport(true);
+    }
+
+    // Envia ao MasterServer o inventário completo ou apenas as alterações desde o último relatório
+    private void sendBlockReport(boolean full) {
+        // As alterações pendentes são retiradas antes do envio; o relatório completo já as reflete
+        Map<String, Long> drained = new HashMap<>();
+        for (String fileName : changedParts.keySet()) {
+            Long length = changedParts.remove(fileName);
+            if (length != null) {
+                drained.put(fileName, length);
+            }
+        }
+        Map<String, Long> entries;
+        if (full) {
+            entries = new HashMap<>(storedParts);
+            decodedLengths.forEach(entries::replace);
+        } else {
+            if (drained.isEmpty()) {
+                return;
+            }
+            entries = drained;
+        }
+
+        BlockReport.Builder report = new BlockReport.Builder(full);
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+            // Arquivos que não seguem o padrão <imagem>_part<n> não são partes de imagens
+            PartKey part = partKey(entry.getKey());
+            if (part != null) {
+                report.add(part.getImageName(), part.getPartNumber(), entry.getValue());
+            }
+        }
+
+        try {
+            if (!master.reportBlocks(dataNodeId, report.build())) {
+                reregister();
+            }
+        } catch (RemoteException e) {
+            Log.warn("DataNode " + dataNodeId + ": falha ao enviar relatório de partes: " + e.getMessage());
+            // Devolve as alterações para o próximo relatório, sem sobrescrever alterações mais recentes
+            drained.forEach(changedParts::putIfAbsent);
         }
     }
 
     // Método para simular uma falha no DataNode
     public void fail() {
-        System.out.println("DataNode " + dataNodeId + " falhando...");
+        Log.info("DataNode " + dataNodeId + " falhando...");
         System.exit(1); // Encerra o processo do DataNode
     }
 
     // Método principal para inicializar o DataNode
     public static void main(String[] args) {
         try {
-            // Obtém o identificador do DataNode a partir dos argumentos
+            // Obtém o identificador do DataNode e, opcionalmente, o tipo de armazenamento ("file" ou "segment")
             String dataNodeId = args[0];
+            String storeType = args.length > 1 ? args[1] : "file";
+            // Tamanho do cache de leitura em MB (0 desativa) e, opcionalmente, "offheap" para mantê-lo fora do heap
+            long cacheBytes = args.length > 2 ? Long.parseLong(args[2]) * 1024 * 1024 : DEFAULT_CACHE_BYTES;
+            boolean offHeapCache = args.length > 3 && "offheap".equals(args[3]);
             // Cria uma instância do DataNode
-            DataNode dataNode = new DataNode(dataNodeId);
+            DataNode dataNode = new DataNode(dataNodeId, storeType, cacheBytes, offHeapCache);
             // Inicia o DataNode
             dataNode.start();
         } catch (Exception e) {
             // Captura erros na inicialização do DataNode
-            System.err.println("Erro no DataNode: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Erro no DataNode: " + e.getMessage(), e);
+        }
+    }
+
+    // Estado de uma sessão de upload em andamento
+    private static class UploadSession {
+        final String imageName;
+        final int partNumber;
+        final PartStore.Writer writer;
+        long length;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        UploadSession(String imageName, int partNumber, PartStore.Writer writer) {
+            this.imageName = imageName;
+            this.partNumber = partNumber;
+            this.writer = writer;
+        }
+
+        synchronized void write(byte[] chunk) throws IOException {
+            lastAccess = System.currentTimeMillis();
+            writer.write(chunk);
+            length += chunk.length;
+        }
+
+        synchronized void commit() throws IOException {
+            writer.commit();
+        }
+
+        synchronized void abort() {
+            writer.abort();
+        }
+    }
+
+    // Estado de uma sessão de download em andamento
+    private static class DownloadSession {
+        final PartStore.Reader reader;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        DownloadSession(PartStore.Reader reader) {
+            this.reader = reader;
+        }
+
+        synchronized byte[] read(int maxBytes) throws IOException {
+            lastAccess = System.currentTimeMillis();
+            return reader.read(maxBytes);
+        }
+
+        synchronized void close() {
+            reader.close();
+        }
+    }
+
+    // Leitura sequencial de uma parte mantida em memória (servida a partir do cache)
+    private static class BytesReader implements PartStore.Reader {
+        private final byte[] data;
+        private int position;
+
+        BytesReader(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public byte[] read(int maxBytes) {
+            if (position >= data.length) {
+                return null;
+            }
+            int size = Math.min(maxBytes, data.length - position);
+            byte[] chunk = (position == 0 && size == data.length) ? data : Arrays.copyOfRange(data, position, position + size);
+            position += size;
+            return chunk;
+        }
+
+        @Override
+        public byte[] read(long from, int maxBytes) {
+            if (from >= data.length) {
+                return null;
+            }
+            int start = (int) from;
+            return Arrays.copyOfRange(data, start, start + Math.min(maxBytes, data.length - start));
+        }
+
+        @Override
+        public long length() {
+            return data.length;
+        }
+
+        @Override
+        public void close() {
         }
     }
 }
@@ -1,10 +1,38 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 // Interface remota para os nós de dados (DataNodes)
 public interface DataNodeInterface extends Remote {
     boolean uploadPart(String imageName, int partNumber, byte[] data) throws RemoteException;
     byte[] downloadPart(String imageName, int partNumber) throws RemoteException;
+    byte[] readPartRange(String imageName, int partNumber, long offset, int length) throws RemoteException;
     boolean deletePart(String imageName, int partNumber) throws RemoteException;
     boolean ping() throws RemoteException;
+
+    // Sessões de transferência em blocos: a memória usada por transferência é limitada ao tamanho do bloco.
+    // writeChunk e commitUpload retornam false para uma sessão desconhecida ou expirada; readChunk lança
+    // UnknownSessionException.
+    String openUpload(String imageName, int partNumber) throws RemoteException;
+    boolean writeChunk(String sessionId, byte[] chunk) throws RemoteException;
+    boolean commitUpload(String sessionId) throws RemoteException;
+    void abortUpload(String sessionId) throws RemoteException;
+    String openDownload(String imageName, int partNumber) throws RemoteException;
+    byte[] readChunk(String sessionId, int maxBytes) throws RemoteException, UnknownSessionException;
+    void closeDownload(String sessionId) throws RemoteException;
+
+    // Operações em lote: várias partes em uma única chamada; os resultados seguem a ordem da lista recebida
+    boolean[] uploadParts(List<PartData> parts) throws RemoteException;
+    List<byte[]> downloadParts(List<PartKey> keys) throws RemoteException;
+    boolean[] deleteParts(List<PartKey> keys) throws RemoteException;
+
+    // Copia uma parte de outro DataNode diretamente, sem passar pelo MasterServer (usado no rebalanceamento)
+    boolean copyPartFrom(String imageName, int partNumber, DataNodeInterface source) throws RemoteException;
+
+    // Reconstrói uma parte com erasure coding a partir das demais partes (sources[s] null quando indisponível)
+    boolean rebuildPart(String imageName, int partNumber, int dataShards, int parityShards, long partLength,
+                        DataNodeInterface[] sources) throws RemoteException;
+
+    // Latência de cada operação, bytes transferidos, sessões abertas e contadores do cache deste DataNode
+    MetricsSnapshot getMetrics() throws RemoteException;
 }
@@ -0,0 +1,419 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Transferência de imagens com erasure coding: codifica e decodifica faixa a faixa (um bloco de cada parte por vez),
+// de modo que a memória usada é limitada a (k+m) blocos independentemente do tamanho da imagem
+public final class ErasureTransfer {
+    private static final int SUCCESS = -1;
+    private static final int FATAL = -2;
+    private static final int RETRY = -3; // Sessão expirada em um DataNode que respondeu: recomeça com as mesmas partes
+    private static final int MAX_RETRIES = 3;
+
+    private ErasureTransfer() {
+    }
+
+    // Lê a imagem do arquivo, calcula a paridade e envia as k+m partes aos DataNodes do plano
+    public static boolean upload(FileChannel source, WritePlan plan, ExecutorService pool) throws IOException, InterruptedException {
+        int dataShards = plan.getDataShards();
+        int totalShards = plan.getNumParts();
+        long shardLength = plan.getPartLength(0);
+        ReedSolomon codec = new ReedSolomon(dataShards, plan.getParityShards());
+
+        DataNodeInterface[] targets = new DataNodeInterface[totalShards];
+        String[] sessions = new String[totalShards];
+        try {
+            for (int s = 0; s < totalShards; s++) {
+                targets[s] = plan.getTargets(s)[0];
+                sessions[s] = targets[s].openUpload(plan.getPartKey(s).getImageName(), s);
+                if (sessions[s] == null) {
+                    abortAll(targets, sessions);
+                    return false;
+                }
+            }
+
+            int bufferSize = (int) Math.min(PartTransfer.CHUNK_SIZE, shardLength);
+            byte[][] shards = new byte[totalShards][bufferSize];
+            for (long position = 0; position < shardLength; position += bufferSize) {
+                int length = (int) Math.min(bufferSize, shardLength - position);
+
+                // Lê o bloco de cada parte de dados; o trecho além do fim da imagem é preenchido com zeros
+                for (int d = 0; d < dataShards; d++) {
+                    readFully(source, shards[d], length, d * shardLength + position);
+                }
+                codec.encodeParity(shards, length);
+
+                // Envia o bloco de todas as partes em paralelo e aguarda antes de reutilizar os buffers
+                List<Future<Boolean>> writes = new ArrayList<>();
+                for (int s = 0; s < totalShards; s++) {
+                    int shard = s;
+                    byte[] block = (length == bufferSize) ? shards[s] : Arrays.copyOf(shards[s], length);
+                    byte[] chunk = position == 0 ? framed(block, shardLength) : block;
+                    writes.add(pool.submit(() -> targets[shard].writeChunk(sessions[shard], chunk)));
+                }
+                if (!allTrue(writes)) {
+                    abortAll(targets, sessions);
+                    return false;
+                }
+            }
+
+            for (int s = 0; s < totalShards; s++) {
+                String sessionId = sessions[s];
+                sessions[s] = null;
+                if (!targets[s].commitUpload(sessionId)) {
+                    abortAll(targets, sessions);
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            abortAll(targets, sessions);
+            throw e;
+        }
+    }
+
+    // Baixa a imagem usando as k primeiras partes que responderem, reconstruindo as partes de dados ausentes.
+    // Se uma parte falhar no meio da leitura, recomeça sem ela enquanto ainda houver k partes disponíveis.
+    public static boolean download(ImageLayout layout, FileChannel target, ExecutorService pool) throws InterruptedException {
+        Set<Integer> excluded = new HashSet<>();
+        int retries = 0;
+        while (true) {
+            int failed = tryDownload(layout, target, pool, excluded);
+            if (failed == SUCCESS) {
+                return true;
+            }
+            if (failed == FATAL || (failed == RETRY && ++retries > MAX_RETRIES)) {
+                return false;
+            }
+            if (failed == RETRY) {
+                System.err.println("Sessão de leitura expirada na imagem '" + layout.getImageName() + "'; recomeçando.");
+                continue;
+            }
+            excluded.add(failed);
+            if (layout.getNumParts() - excluded.size() < layout.getDataShards()) {
+                return false;
+            }
+            System.err.println("Parte " + failed + " da imagem '" + layout.getImageName() + "' indisponível; reconstruindo sem ela.");
+        }
+    }
+
+    // Retorna SUCCESS, FATAL ou o número da parte que falhou durante a leitura
+    private static int tryDownload(ImageLayout layout, FileChannel target, ExecutorService pool, Set<Integer> excluded)
+            throws InterruptedException {
+        int dataShards = layout.getDataShards();
+        int totalShards = layout.getNumParts();
+        long shardLength = layout.getPartLength(0);
+        long imageSize = layout.getSize();
+        ReedSolomon codec = new ReedSolomon(dataShards, layout.getParityShards());
+
+        // Abre todas as partes disponíveis ao mesmo tempo e usa as k primeiras que entregarem o primeiro bloco
+        CompletionService<ShardReader> opened = new ExecutorCompletionService<>(pool);
+        int pending = 0;
+        for (int s = 0; s < totalShards; s++) {
+            DataNodeInterface[] sources = layout.getSources(s);
+            if (sources.length > 0 && !excluded.contains(s)) {
+                int shard = s;
+                opened.submit(() -> ShardReader.open(sources[0], layout.getPartKey(shard).getImageName(), shard, shardLength));
+                pending++;
+            }
+        }
+
+        ShardReader[] readers = new ShardReader[totalShards];
+        boolean[] present = new boolean[totalShards];
+        int selected = 0;
+        while (selected < dataShards && pending > 0) {
+            pending--;
+            try {
+                ShardReader reader = opened.take().get();
+                if (reader != null) {
+                    readers[reader.shard] = reader;
+                    present[reader.shard] = true;
+                    selected++;
+                }
+            } catch (ExecutionException e) {
+                // Parte inacessível: as demais partes ainda podem completar as k necessárias
+            }
+        }
+        // As partes mais lentas são descartadas assim que chegarem
+        closeLater(opened, pending, pool);
+        if (selected < dataShards) {
+            System.err.println("Partes insuficientes para reconstruir a imagem '" + layout.getImageName() + "'.");
+            closeAll(readers);
+            return FATAL;
+        }
+
+        int bufferSize = (int) Math.min(PartTransfer.CHUNK_SIZE, shardLength);
+        byte[][] shards = new byte[totalShards][];
+        for (int s = 0; s < totalShards; s++) {
+            if (!present[s]) {
+                shards[s] = new byte[bufferSize];
+            }
+        }
+
+        long position = 0;
+        while (position < shardLength) {
+            // Lê o próximo bloco de cada parte selecionada em paralelo (o primeiro bloco já veio na abertura)
+            int length = (int) Math.min(bufferSize, shardLength - position);
+            List<Future<byte[]>> reads = new ArrayList<>();
+            List<Integer> readShards = new ArrayList<>();
+            for (int s = 0; s < totalShards; s++) {
+                if (present[s]) {
+                    ShardReader reader = readers[s];
+                    readShards.add(s);
+                    reads.add(pool.submit(() -> reader.next(length)));
+                }
+            }
+
+            for (int i = 0; i < reads.size(); i++) {
+                int shard = readShards.get(i);
+                try {
+                    byte[] chunk = reads.get(i).get();
+                    if (chunk == null || chunk.length != length) {
+                        throw new ExecutionException(new IOException("Bloco inconsistente na parte " + shard));
+                    }
+                    shards[shard] = chunk;
+                } catch (ExecutionException e) {
+                    closeAll(readers);
+                    return e.getCause() instanceof UnknownSessionException ? RETRY : shard;
+                }
+            }
+
+            codec.decodeData(shards, present, length);
+
+            // Grava os bytes de cada parte de dados na sua posição da imagem, descartando o preenchimento final
+            try {
+                for (int d = 0; d < dataShards; d++) {
+                    long fileOffset = d * shardLength + position;
+                    int usable = (int) Math.max(0, Math.min(length, imageSize - fileOffset));
+                    if (usable > 0) {
+                        ByteBuffer buffer = ByteBuffer.wrap(shards[d], 0, usable);
+                        long written = 0;
+                        while (buffer.hasRemaining()) {
+                            written += target.write(buffer, fileOffset + written);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Erro ao gravar a imagem: " + e.getMessage());
+                closeAll(readers);
+                return FATAL;
+            }
+            position += length;
+        }
+        closeAll(readers);
+        return SUCCESS;
+    }
+
+    // Reconstrói a parte 'shard' de uma imagem codificada lendo, bloco a bloco, k das demais partes (sources[s] é
+    // null quando a parte s não está disponível) e entrega os bytes reconstruídos ao fluxo de saída.
+    // Retorna false se não houver k partes legíveis ou se elas forem inconsistentes.
+    public static boolean rebuild(String imageName, int shard, int dataShards, int parityShards, long shardLength,
+                                  DataNodeInterface[] sources, OutputStream out) throws IOException {
+        int totalShards = dataShards + parityShards;
+        ShardReader[] readers = new ShardReader[totalShards];
+        boolean[] present = new boolean[totalShards];
+        try {
+            int selected = 0;
+            for (int s = 0; s < totalShards && selected < dataShards; s++) {
+                if (s == shard || sources[s] == null) {
+                    continue;
+                }
+                try {
+                    readers[s] = ShardReader.open(sources[s], imageName, s, shardLength);
+                } catch (IOException e) {
+                    continue; // Parte inacessível ou sessão expirada: tenta a próxima
+                }
+                if (readers[s] != null) {
+                    present[s] = true;
+                    selected++;
+                }
+            }
+            if (selected < dataShards) {
+                Log.warn("Partes insuficientes para reconstruir a parte " + shard + " da imagem '" + imageName + "'.");
+                return false;
+            }
+
+            ReedSolomon codec = new ReedSolomon(dataShards, parityShards);
+            int bufferSize = (int) Math.min(PartTransfer.CHUNK_SIZE, shardLength);
+            byte[][] shards = new byte[totalShards][];
+            for (int s = 0; s < totalShards; s++) {
+                if (!present[s]) {
+                    shards[s] = new byte[bufferSize];
+                }
+            }
+
+            long position = 0;
+            while (position < shardLength) {
+                int length = (int) Math.min(bufferSize, shardLength - position);
+                for (int s = 0; s < totalShards; s++) {
+                    if (present[s]) {
+                        byte[] chunk = readers[s].next(length);
+                        if (chunk == null || chunk.length != length) {
+                            Log.warn("Bloco inconsistente na parte " + s + " da imagem '" + imageName + "'.");
+                            return false;
+                        }
+                        shards[s] = chunk;
+                    }
+                }
+                codec.reconstructShard(shards, present, shard, length);
+                if (position == 0 && PartCodec.startsWithMagic(shards[shard])) {
+                    out.write(PartCodec.header(PartCodec.NONE, shardLength));
+                }
+                out.write(shards[shard], 0, length);
+                position += length;
+            }
+            return true;
+        } finally {
+            closeAll(readers);
+        }
+    }
+
+    // Primeiro bloco de uma parte a enviar: uma parte que começa com MAGIC é gravada em um quadro sem compressão, como
+    // faz o cliente com as partes replicadas, para que o DataNode não a tome por uma parte comprimida
+    private static byte[] framed(byte[] firstChunk, long shardLength) {
+        if (!PartCodec.startsWithMagic(firstChunk)) {
+            return firstChunk;
+        }
+        byte[] header = PartCodec.header(PartCodec.NONE, shardLength);
+        byte[] chunk = Arrays.copyOf(header, header.length + firstChunk.length);
+        System.arraycopy(firstChunk, 0, chunk, header.length, firstChunk.length);
+        return chunk;
+    }
+
+    // Lê exatamente 'length' bytes do arquivo a partir da posição informada, completando com zeros após o fim
+    private static void readFully(FileChannel source, byte[] buffer, int length, long position) throws IOException {
+        ByteBuffer view = ByteBuffer.wrap(buffer, 0, length);
+        while (view.hasRemaining()) {
+            int read = source.read(view, position + view.position());
+            if (read < 0) {
+                Arrays.fill(buffer, view.position(), length, (byte) 0);
+                return;
+            }
+        }
+    }
+
+    private static boolean allTrue(List<Future<Boolean>> futures) throws InterruptedException, IOException {
+        boolean success = true;
+        for (Future<Boolean> future : futures) {
+            try {
+                success &= future.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Falha ao enviar bloco codificado", e.getCause());
+            }
+        }
+        return success;
+    }
+
+    private static void abortAll(DataNodeInterface[] targets, String[] sessions) {
+        for (int s = 0; s < sessions.length; s++) {
+            try {
+                if (sessions[s] != null && targets[s] != null) {
+                    targets[s].abortUpload(sessions[s]);
+                }
+            } catch (RemoteException ignored) {
+            }
+        }
+    }
+
+    private static void closeAll(ShardReader[] readers) {
+        for (ShardReader reader : readers) {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    // Fecha, em segundo plano, as sessões das partes que terminarem de abrir depois das k selecionadas
+    private static void closeLater(CompletionService<ShardReader> opened, int pending, ExecutorService pool) {
+        if (pending == 0) {
+            return;
+        }
+        pool.submit(() -> {
+            for (int i = 0; i < pending; i++) {
+                try {
+                    ShardReader reader = opened.take().get();
+                    if (reader != null) {
+                        reader.close();
+                    }
+                } catch (ExecutionException ignored) {
+                }
+            }
+            return null;
+        });
+    }
+
+    // Leitor sequencial de uma parte, sem o quadro das partes que começam com MAGIC; guarda os bytes lidos além do
+    // bloco entregue (a começar pelo primeiro bloco, lido durante a abertura), de modo que os blocos de todas as
+    // partes continuam alinhados
+    private static class ShardReader {
+        final DataNodeInterface dataNode;
+        final String sessionId;
+        final int shard;
+        private byte[] buffered;
+        private int bufferedOffset;
+        private boolean ended; // O DataNode encerra a sessão ao entregar o fim da parte
+
+        private ShardReader(DataNodeInterface dataNode, String sessionId, int shard, byte[] buffered, int bufferedOffset) {
+            this.dataNode = dataNode;
+            this.sessionId = sessionId;
+            this.shard = shard;
+            this.buffered = buffered;
+            this.bufferedOffset = bufferedOffset;
+        }
+
+        static ShardReader open(DataNodeInterface dataNode, String imageName, int shard, long shardLength) throws IOException {
+            String sessionId = dataNode.openDownload(imageName, shard);
+            if (sessionId == null) {
+                return null;
+            }
+            byte[] firstChunk = dataNode.readChunk(sessionId, PartTransfer.CHUNK_SIZE);
+            // O quadro indica o tamanho da parte; partes antigas gravadas sem quadro são lidas como estão
+            int skip = PartCodec.decodedLength(firstChunk) == shardLength ? PartCodec.HEADER_SIZE : 0;
+            return new ShardReader(dataNode, sessionId, shard, firstChunk, skip);
+        }
+
+        // Próximos 'length' bytes da parte; menos apenas no fim da parte e null se não houver mais bytes
+        byte[] next(int length) throws IOException {
+            byte[] chunk = new byte[length];
+            int filled = 0;
+            while (filled < length && !ended) {
+                if (buffered == null || bufferedOffset >= buffered.length) {
+                    buffered = dataNode.readChunk(sessionId, PartTransfer.CHUNK_SIZE);
+                    bufferedOffset = 0;
+                    if (buffered == null) {
+                        ended = true;
+                        break;
+                    }
+                    continue;
+                }
+                int count = Math.min(length - filled, buffered.length - bufferedOffset);
+                System.arraycopy(buffered, bufferedOffset, chunk, filled, count);
+                bufferedOffset += count;
+                filled += count;
+            }
+            if (filled == 0) {
+                return null;
+            }
+            return filled == length ? chunk : Arrays.copyOf(chunk, filled);
+        }
+
+        void close() {
+            try {
+                dataNode.closeDownload(sessionId);
+            } catch (RemoteException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// Armazenamento com um arquivo por parte (<imagem>_part<n>) no diretório do DataNode
+public class FilePartStore implements PartStore {
+    private final File directory;
+
+    public FilePartStore(File directory) {
+        this.directory = directory;
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+    }
+
+    // Retorna o arquivo que armazena uma parte de uma imagem
+    private File partFile(String imageName, int partNumber) {
+        return new File(directory, PartStore.key(imageName, partNumber));
+    }
+
+    @Override
+    public void write(String imageName, int partNumber, byte[] data) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(partFile(imageName, partNumber))) {
+            fos.write(data);
+        }
+    }
+
+    // Os blocos são gravados em um arquivo temporário, movido atomicamente para o nome final no commit
+    @Override
+    public Writer openWriter(String imageName, int partNumber) throws IOException {
+        File target = partFile(imageName, partNumber);
+        File temp = new File(target.getPath() + ".tmp-" + UUID.randomUUID());
+        FileOutputStream out = new FileOutputStream(temp);
+        return new Writer() {
+            @Override
+            public void write(byte[] chunk) throws IOException {
+                out.write(chunk);
+            }
+
+            @Override
+            public void commit() throws IOException {
+                out.close();
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            @Override
+            public void abort() {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+                temp.delete();
+            }
+        };
+    }
+
+    @Override
+    public Reader openReader(String imageName, int partNumber) throws IOException {
+        File file = partFile(imageName, partNumber);
+        if (!file.isFile()) {
+            return null;
+        }
+        FileInputStream in = new FileInputStream(file);
+        FileChannel channel = in.getChannel();
+        long length = file.length();
+        return new Reader() {
+            @Override
+            public byte[] read(int maxBytes) throws IOException {
+                byte[] chunk = in.readNBytes(maxBytes);
+                return chunk.length == 0 ? null : chunk;
+            }
+
+            @Override
+            public byte[] read(long position, int maxBytes) throws IOException {
+                int size = (int) Math.min(maxBytes, length - position);
+                if (size <= 0) {
+                    return null;
+                }
+                ByteBuffer target = ByteBuffer.allocate(size);
+                while (target.hasRemaining()) {
+                    if (channel.read(target, position + target.position()) < 0) {
+                        throw new IOException("Parte truncada: " + file.getName());
+                    }
+                }
+                return target.array();
+            }
+
+            @Override
+            public long length() {
+                return length;
+            }
+
+            @Override
+            public void close() {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean delete(String imageName, int partNumber) {
+        File file = partFile(imageName, partNumber);
+        return file.exists() && file.delete();
+    }
+
+    // Percorre o diretório, removendo arquivos temporários de uploads interrompidos
+    @Override
+    public Map<String, Long> inventory() {
+        Map<String, Long> parts = new HashMap<>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return parts;
+        }
+        for (File file : files) {
+            if (file.getName().contains(".tmp-")) {
+                file.delete();
+            } else if (file.isFile() && file.getName().contains("_part")) {
+                parts.put(file.getName(), file.length());
+            }
+        }
+        return parts;
+    }
+
+    @Override
+    public void close() {
+    }
+}
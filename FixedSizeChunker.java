@@ -0,0 +1,27 @@
+import java.io.InputStream;
+
+// Partes de tamanho fixo, com o restante na última. Não depende do conteúdo, por isso serve também quando só o
+// tamanho da imagem é conhecido (o fluxo pode ser null).
+class FixedSizeChunker implements Chunker {
+    private final long partSize;
+
+    FixedSizeChunker(long partSize) {
+        if (partSize <= 0) {
+            throw new IllegalArgumentException("Tamanho de parte inválido: " + partSize);
+        }
+        this.partSize = partSize;
+    }
+
+    @Override
+    public long[] split(InputStream data, long size) {
+        if (size <= 0) {
+            return new long[0];
+        }
+        int numParts = (int) ((size + partSize - 1) / partSize);
+        long[] lengths = new long[numParts];
+        for (int i = 0; i < numParts; i++) {
+            lengths[i] = Math.min(partSize, size - i * partSize);
+        }
+        return lengths;
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.Serializable;
+
+// Disposição de uma imagem para leitura: deslocamento, tamanho e réplicas disponíveis de cada parte.
+// Em imagens com erasure coding, as partes são k partes de dados seguidas de m partes de paridade.
+public class ImageLayout implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String imageName;
+    private final long[] partOffsets; // Posição inicial de cada parte dentro da imagem
+    private final long[] partLengths; // Tamanho de cada parte em bytes
+    private final DataNodeInterface[][] sources; // Réplicas de onde cada parte pode ser lida
+    private final int parityShards; // Número de partes de paridade (0 no modo de replicação)
+    private final long imageSize;
+    private final PartKey[] partKeys; // Nome sob o qual cada parte está gravada nos DataNodes (bloco ou versão da imagem)
+
+    public ImageLayout(String imageName, long[] partOffsets, long[] partLengths, DataNodeInterface[][] sources) {
+        this(imageName, partOffsets, partLengths, sources, 0, -1);
+    }
+
+    public ImageLayout(String imageName, long[] partOffsets, long[] partLengths, DataNodeInterface[][] sources,
+                       int parityShards, long imageSize) {
+        this(imageName, partOffsets, partLengths, sources, parityShards, imageSize, null);
+    }
+
+    public ImageLayout(String imageName, long[] partOffsets, long[] partLengths, DataNodeInterface[][] sources,
+                       int parityShards, long imageSize, PartKey[] partKeys) {
+        this.imageName = imageName;
+        this.partOffsets = partOffsets;
+        this.partLengths = partLengths;
+        this.sources = sources;
+        this.parityShards = parityShards;
+        this.imageSize = imageSize;
+        this.partKeys = partKeys;
+    }
+
+    public boolean isErasureCoded() {
+        return parityShards > 0;
+    }
+
+    public int getDataShards() {
+        return partLengths.length - parityShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public String getImageName() {
+        return imageName;
+    }
+
+    public int getNumParts() {
+        return partLengths.length;
+    }
+
+    public long getPartOffset(int partNumber) {
+        return partOffsets[partNumber];
+    }
+
+    public long getPartLength(int partNumber) {
+        return partLengths[partNumber];
+    }
+
+    // Nome e número sob os quais a parte está gravada nos DataNodes (um bloco, nas imagens deduplicadas)
+    public PartKey getPartKey(int partNumber) {
+        return partKeys != null ? partKeys[partNumber] : new PartKey(imageName, partNumber);
+    }
+
+    public DataNodeInterface[] getSources(int partNumber) {
+        return sources[partNumber];
+    }
+
+    // Tamanho total da imagem em bytes
+    public long getSize() {
+        if (imageSize >= 0) {
+            return imageSize;
+        }
+        int last = partLengths.length - 1;
+        return last < 0 ? 0 : partOffsets[last] + partLengths[last];
+    }
+}
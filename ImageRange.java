@@ -0,0 +1,59 @@
+import java.io.Serializable;
+
+// Trecho de uma imagem mapeado para as partes que o contêm: para cada parte, a posição e o tamanho do trecho dentro
+// dela e as réplicas de onde pode ser lido. Permite ao cliente buscar só os bytes de que precisa.
+public class ImageRange implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String imageName;
+    private final long offset; // Posição do trecho dentro da imagem
+    private final long length; // Tamanho do trecho, limitado ao final da imagem
+    private final PartKey[] partKeys; // Parte que contém cada pedaço do trecho
+    private final long[] offsetsInPart; // Posição de cada pedaço dentro da sua parte
+    private final long[] lengths; // Tamanho de cada pedaço
+    private final DataNodeInterface[][] sources; // Réplicas de onde cada pedaço pode ser lido
+
+    public ImageRange(String imageName, long offset, long length, PartKey[] partKeys, long[] offsetsInPart,
+                      long[] lengths, DataNodeInterface[][] sources) {
+        this.imageName = imageName;
+        this.offset = offset;
+        this.length = length;
+        this.partKeys = partKeys;
+        this.offsetsInPart = offsetsInPart;
+        this.lengths = lengths;
+        this.sources = sources;
+    }
+
+    public String getImageName() {
+        return imageName;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    // Número de partes em que o trecho está dividido
+    public int getNumSegments() {
+        return partKeys.length;
+    }
+
+    public PartKey getPartKey(int segment) {
+        return partKeys[segment];
+    }
+
+    public long getOffsetInPart(int segment) {
+        return offsetsInPart[segment];
+    }
+
+    public long getLength(int segment) {
+        return lengths[segment];
+    }
+
+    public DataNodeInterface[] getSources(int segment) {
+        return sources[segment];
+    }
+}
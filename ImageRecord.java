@@ -0,0 +1,237 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+// Metadados de uma imagem mantidos pelo MasterServer: réplicas e tamanho de cada parte.
+// No modo erasure coding as partes são k partes de dados seguidas de m partes de paridade, todas do mesmo tamanho.
+// Em imagens deduplicadas, cada parte aponta para um bloco do catálogo ("#<hash>") que guarda o seu conteúdo, e as
+// partes da própria imagem não têm réplicas. Cada versão gravada de uma imagem recebe uma geração, e as suas partes
+// ficam nos DataNodes sob o nome "<imagem>#v<geração>" (storedName), de modo que um novo upload nunca grava sobre as
+// partes da versão confirmada e uma parte antiga nunca é confundida com uma da versão atual. A representação é compacta: os DataNodes são guardados como inteiros (NodeTable) em um único vetor, e os
+// tamanhos das partes só são armazenados individualmente quando não são uniformes.
+class ImageRecord {
+    // Número que marca uma réplica ausente
+    static final int NO_NODE = -1;
+
+    private final NodeTable nodeTable;
+    private final int[] nodes; // Réplicas de cada parte, em sequência: nodes[parte * replicas + r]
+    private final int numParts;
+    private final int replicas;
+    private final int parityShards; // Número de partes de paridade (0 no modo de replicação)
+    private final long partLength; // Tamanho das partes quando uniforme
+    private final long[] partOffsets; // Deslocamentos acumulados (numParts + 1) quando os tamanhos variam; senão null
+    private final long imageSize; // Tamanho original da imagem, sem o preenchimento das partes codificadas
+    private final String[] blocks; // Bloco de cada parte nas imagens deduplicadas; senão null
+    private final long generation; // Geração da versão (0 nos registros anteriores às gerações e nos blocos)
+
+    // Separa o nome da imagem da geração no nome das partes gravadas nos DataNodes
+    static final String GENERATION_SEPARATOR = "#v";
+
+    private ImageRecord(NodeTable nodeTable, int[] nodes, int numParts, int replicas, int parityShards,
+                        long partLength, long[] partOffsets, long imageSize, String[] blocks, long generation) {
+        this.nodeTable = nodeTable;
+        this.nodes = nodes;
+        this.numParts = numParts;
+        this.replicas = replicas;
+        this.parityShards = parityShards;
+        this.partLength = partLength;
+        this.partOffsets = partOffsets;
+        this.imageSize = imageSize;
+        this.blocks = blocks;
+        this.generation = generation;
+    }
+
+    // Cria o registro a partir dos nomes dos DataNodes e dos tamanhos de cada parte
+    static ImageRecord create(NodeTable nodeTable, String[][] partNodes, long[] partLengths, int parityShards, long imageSize) {
+        return create(nodeTable, partNodes, partLengths, parityShards, imageSize, null);
+    }
+
+    // Cria o registro indicando, para imagens deduplicadas, o bloco de cada parte (null nas demais)
+    static ImageRecord create(NodeTable nodeTable, String[][] partNodes, long[] partLengths, int parityShards, long imageSize,
+                              String[] blocks) {
+        return create(nodeTable, partNodes, partLengths, parityShards, imageSize, blocks, 0);
+    }
+
+    // Cria o registro de uma versão cujas partes foram gravadas sob storedName(imagem, generation)
+    static ImageRecord create(NodeTable nodeTable, String[][] partNodes, long[] partLengths, int parityShards, long imageSize,
+                              String[] blocks, long generation) {
+        int numParts = partNodes.length;
+        int replicas = 0;
+        for (String[] partReplicas : partNodes) {
+            replicas = Math.max(replicas, partReplicas.length);
+        }
+
+        int[] nodes = new int[numParts * replicas];
+        for (int i = 0; i < numParts; i++) {
+            for (int r = 0; r < replicas; r++) {
+                String dataNodeId = r < partNodes[i].length ? partNodes[i][r] : null;
+                nodes[i * replicas + r] = dataNodeId == null ? NO_NODE : nodeTable.intern(dataNodeId);
+            }
+        }
+
+        // Partes iguais (com o restante na última, no modo de replicação) dispensam o vetor de deslocamentos
+        long uniform = numParts > 0 ? partLengths[0] : 0;
+        boolean isUniform = true;
+        for (int i = 0; i < numParts && isUniform; i++) {
+            long expected = (i == numParts - 1 && parityShards == 0) ? imageSize - uniform * (numParts - 1) : uniform;
+            isUniform = partLengths[i] == expected;
+        }
+
+        long[] partOffsets = null;
+        if (!isUniform) {
+            partOffsets = new long[numParts + 1];
+            for (int i = 0; i < numParts; i++) {
+                partOffsets[i + 1] = partOffsets[i] + partLengths[i];
+            }
+        }
+        return new ImageRecord(nodeTable, nodes, numParts, replicas, parityShards, uniform, partOffsets, imageSize, blocks, generation);
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    // Nome sob o qual as partes desta versão da imagem estão gravadas nos DataNodes
+    String storedName(String imageName) {
+        return storedName(imageName, generation);
+    }
+
+    static String storedName(String imageName, long generation) {
+        return generation == 0 ? imageName : imageName + GENERATION_SEPARATOR + generation;
+    }
+
+    // Geração indicada no nome de uma parte gravada (0 quando o nome não tem geração)
+    static long generationOf(String storedName) {
+        int index = generationIndex(storedName);
+        return index < 0 ? 0 : Long.parseLong(storedName.substring(index + GENERATION_SEPARATOR.length()));
+    }
+
+    // Nome da imagem a que pertence uma parte gravada
+    static String imageNameOf(String storedName) {
+        int index = generationIndex(storedName);
+        return index < 0 ? storedName : storedName.substring(0, index);
+    }
+
+    static boolean hasGeneration(String name) {
+        return generationIndex(name) >= 0;
+    }
+
+    // Posição do separador da geração, ou -1 se o nome não terminar em "#v<dígitos>"
+    private static int generationIndex(String name) {
+        int index = name.lastIndexOf(GENERATION_SEPARATOR);
+        int digits = name.length() - index - GENERATION_SEPARATOR.length();
+        if (index <= 0 || digits < 1 || digits > 18) {
+            return -1;
+        }
+        for (int i = index + GENERATION_SEPARATOR.length(); i < name.length(); i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        return index;
+    }
+
+    boolean isErasureCoded() {
+        return parityShards > 0;
+    }
+
+    boolean isDeduplicated() {
+        return blocks != null;
+    }
+
+    // Nome do bloco que guarda o conteúdo da parte (somente em imagens deduplicadas)
+    String getBlock(int partNumber) {
+        return blocks[partNumber];
+    }
+
+    String[] getBlocks() {
+        return blocks;
+    }
+
+    int getNumParts() {
+        return numParts;
+    }
+
+    int getDataShards() {
+        return numParts - parityShards;
+    }
+
+    int getParityShards() {
+        return parityShards;
+    }
+
+    // Nomes dos DataNodes que guardam as réplicas da parte (réplicas ausentes são omitidas)
+    String[] getNodes(int partNumber) {
+        int count = 0;
+        for (int r = 0; r < replicas; r++) {
+            if (nodes[partNumber * replicas + r] != NO_NODE) {
+                count++;
+            }
+        }
+        String[] names = new String[count];
+        int index = 0;
+        for (int r = 0; r < replicas; r++) {
+            int id = nodes[partNumber * replicas + r];
+            if (id != NO_NODE) {
+                names[index++] = nodeTable.name(id);
+            }
+        }
+        return names;
+    }
+
+    // DataNodes que guardam ao menos uma réplica de alguma parte
+    Set<String> getAllNodes() {
+        Set<String> names = new HashSet<>();
+        for (int id : nodes) {
+            if (id != NO_NODE) {
+                names.add(nodeTable.name(id));
+            }
+        }
+        return names;
+    }
+
+    // Menor número de réplicas entre as partes
+    int getMinReplicas() {
+        int min = numParts > 0 ? replicas : 0;
+        for (int i = 0; i < numParts; i++) {
+            int count = 0;
+            for (int r = 0; r < replicas; r++) {
+                if (nodes[i * replicas + r] != NO_NODE) {
+                    count++;
+                }
+            }
+            min = Math.min(min, count);
+        }
+        return min;
+    }
+
+    long getPartLength(int partNumber) {
+        if (partOffsets != null) {
+            return partOffsets[partNumber + 1] - partOffsets[partNumber];
+        }
+        if (partNumber == numParts - 1 && parityShards == 0) {
+            return imageSize - partLength * (numParts - 1);
+        }
+        return partLength;
+    }
+
+    // Posição inicial da parte dentro da imagem
+    long getPartOffset(int partNumber) {
+        return partOffsets != null ? partOffsets[partNumber] : partLength * partNumber;
+    }
+
+    // Parte de dados que contém o byte da imagem na posição informada
+    int partAt(long offset) {
+        int last = getDataShards() - 1;
+        if (partOffsets != null) {
+            int index = Arrays.binarySearch(partOffsets, 0, numParts, offset);
+            return Math.min(index >= 0 ? index : -index - 2, last);
+        }
+        return partLength == 0 ? 0 : (int) Math.min(offset / partLength, last);
+    }
+
+    // Tamanho total da imagem em bytes
+    long getSize() {
+        return imageSize;
+    }
+}
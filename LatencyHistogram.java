@@ -0,0 +1,116 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histograma de latências em nanossegundos, gravado sem locks por várias threads. Cada potência de dois é dividida
+// em SUB_BUCKETS faixas iguais (buckets log-lineares, como no HdrHistogram), de modo que os percentis têm erro
+// relativo de no máximo 1/SUB_BUCKETS (~3%) em qualquer escala, de microssegundos a minutos, com memória fixa.
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Valores abaixo de SUB_BUCKETS ocupam um bucket cada; acima deles, SUB_BUCKETS buckets por potência de dois
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    // Registra uma medição; valores negativos (relógio ajustado) contam como zero
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // Valor abaixo do qual está a fração 'quantile' (entre 0 e 1) das medições; 0 se não houver medições
+    long getPercentile(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    // Zera o histograma; medições concorrentes com a limpeza podem ser mantidas ou descartadas
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    // Contagem, média, percentis p50, p99 e p999 e máximo em um instante
+    MetricsSnapshot.Latency snapshot() {
+        return new MetricsSnapshot.Latency(getCount(), (long) getMean(), getPercentile(0.50), getPercentile(0.99),
+                getPercentile(0.999), getMax());
+    }
+
+    // Resumo no formato "n=..., média=..., p50=..., p99=..., p999=..., máx=..."
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    // Duração em nanossegundos na unidade mais legível
+    static String format(long nanos) {
+        if (nanos < 1_000) {
+            return nanos + " ns";
+        }
+        if (nanos < 1_000_000) {
+            return String.format("%.1f µs", nanos / 1e3);
+        }
+        if (nanos < 1_000_000_000) {
+            return String.format("%.1f ms", nanos / 1e6);
+        }
+        return String.format("%.1f s", nanos / 1e9);
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    // Maior valor que cai no bucket
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
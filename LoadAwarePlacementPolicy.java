@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Distribuição pelo método das duas escolhas (power of two choices): para cada réplica, sorteia dois DataNodes
+// candidatos e escolhe o menos carregado. Comparar só dois nós sorteados evita que todos os uploads de um mesmo
+// intervalo de heartbeat escolham o mesmo nó "mais vazio", e ainda assim a diferença de carga permanece pequena.
+class LoadAwarePlacementPolicy implements PlacementPolicy {
+    // Peso de cada requisição em andamento e de cada milissegundo de latência no custo de um DataNode
+    private static final double IN_FLIGHT_WEIGHT = 0.1;
+    private static final double LATENCY_WEIGHT_PER_MS = 0.02;
+
+    @Override
+    public String[][] chooseTargets(List<String> dataNodes, int numParts, int replicas, long partSize, Map<String, NodeStats> stats) {
+        // Bytes atribuídos a cada nó por esta chamada, ainda não refletidos nas estatísticas
+        Map<String, Long> assigned = new HashMap<>();
+        double average = averageUtilization(dataNodes, stats);
+        String[][] targets = new String[numParts][replicas];
+        for (int i = 0; i < numParts; i++) {
+            List<String> candidates = new ArrayList<>(dataNodes);
+            for (int r = 0; r < replicas; r++) {
+                String chosen = pickTwo(candidates, node -> writeCost(stats.get(node), assigned.getOrDefault(node, 0L), average));
+                candidates.remove(chosen);
+                assigned.merge(chosen, partSize, Long::sum);
+                targets[i][r] = chosen;
+            }
+        }
+        return targets;
+    }
+
+    @Override
+    public void orderReplicas(List<String> replicas, Map<String, NodeStats> stats) {
+        if (replicas.size() < 2) {
+            return;
+        }
+        // A réplica preferida vai para o início; as demais permanecem como alternativas em ordem aleatória
+        String preferred = pickTwo(replicas, node -> readCost(stats.get(node)));
+        replicas.remove(preferred);
+        Collections.shuffle(replicas);
+        replicas.add(0, preferred);
+    }
+
+    // Sorteia dois candidatos distintos e retorna o de menor custo
+    private static String pickTwo(List<String> candidates, Cost cost) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String first = candidates.get(random.nextInt(candidates.size()));
+        if (candidates.size() == 1) {
+            return first;
+        }
+        String second = candidates.get(random.nextInt(candidates.size() - 1));
+        if (second.equals(first)) {
+            second = candidates.get(candidates.size() - 1);
+        }
+        return cost.of(second) < cost.of(first) ? second : first;
+    }
+
+    // Ocupação média dos DataNodes (bytes usados sobre a capacidade total); 0 se ainda não houver estatísticas
+    private static double averageUtilization(List<String> dataNodes, Map<String, NodeStats> stats) {
+        long used = 0, capacity = 0;
+        for (String dataNodeId : dataNodes) {
+            NodeStats nodeStats = stats.get(dataNodeId);
+            if (nodeStats != null) {
+                used += nodeStats.getUsedBytes();
+                capacity += nodeStats.getCapacity();
+            }
+        }
+        return capacity == 0 ? 0 : (double) used / capacity;
+    }
+
+    // Custo de gravar no nó: ocupação relativa à média do cluster (incluindo o que esta chamada já atribuiu ao
+    // nó), agravada pelas requisições em andamento e pela latência recente. A ocupação relativa, e não a absoluta,
+    // distingue os nós mesmo quando as partes são pequenas diante do tamanho dos discos.
+    private static double writeCost(NodeStats stats, long assignedBytes, double averageUtilization) {
+        if (stats == null) {
+            return Double.MAX_VALUE; // Sem estatísticas ainda (nó recém-registrado): escolhido só se não houver outro
+        }
+        double utilization = stats.getCapacity() == 0 ? 1.0
+                : (double) (stats.getUsedBytes() + assignedBytes) / stats.getCapacity();
+        double relative = averageUtilization == 0 ? utilization : utilization / averageUtilization;
+        return (1 + relative) * readCost(stats);
+    }
+
+    // Custo de ler do nó: só a carga atual importa
+    private static double readCost(NodeStats stats) {
+        if (stats == null) {
+            return 1.0;
+        }
+        return (1 + IN_FLIGHT_WEIGHT * stats.getInFlight()) * (1 + LATENCY_WEIGHT_PER_MS * stats.getLatencyMicros() / 1000.0);
+    }
+
+    private interface Cost {
+        double of(String dataNodeId);
+    }
+}
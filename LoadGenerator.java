@@ -0,0 +1,348 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+// Gerador de carga: vários clientes simultâneos gravam imagens com storeImage e as leem de volta (layout no
+// MasterServer e partes nos DataNodes), em uma proporção configurável e com tamanhos sorteados de uma distribuição.
+// Cada operação é cronometrada com System.nanoTime em um LatencyHistogram; o relatório traz a vazão e os percentis
+// p50, p99 e p999 de cada tipo de operação, medidos após um período de aquecimento.
+// Executado diretamente, inicia no próprio processo o MonitorService, o MasterServer e os DataNodes, com o
+// armazenamento em um diretório temporário; pelo Client (opção 5), mede o cluster em execução.
+// Uso: java LoadGenerator [clientes] [duração em s] [fração de leituras] [tamanhos] [DataNodes] [fator de replicação]
+//   tamanhos: distribuição dos tamanhos das imagens no formato tamanho:peso, como "50K:80,1M:15,8M:5"
+public class LoadGenerator {
+    // Prefixo dos nomes das imagens gravadas pelo gerador, removidas ao final da execução
+    private static final String IMAGE_PREFIX = "carga_";
+
+    private final Workload workload;
+    private final LatencyHistogram writes = new LatencyHistogram();
+    private final LatencyHistogram reads = new LatencyHistogram();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+    private final LongAdder readFailures = new LongAdder();
+    private volatile boolean recording;
+
+    LoadGenerator(Workload workload) {
+        this.workload = workload;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Workload workload = new Workload(
+                args.length > 0 ? Integer.parseInt(args[0]) : 16,
+                args.length > 1 ? Integer.parseInt(args[1]) : 30,
+                args.length > 2 ? Double.parseDouble(args[2]) : 0.8,
+                args.length > 3 ? args[3] : Workload.DEFAULT_SIZES);
+        int dataNodes = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+        int replicationFactor = args.length > 5 ? Integer.parseInt(args[5]) : 2;
+        PrintStream console = System.out;
+
+        Path directory = Files.createTempDirectory("load-generator");
+        try {
+            // As mensagens dos serviços são descartadas para que a escrita no console não interfira na medição
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            MasterServerInterface master = startCluster(directory.toFile(), dataNodes, replicationFactor);
+            console.println("Cluster local: " + dataNodes + " DataNodes, fator de replicação " + replicationFactor + ".");
+            new LoadGenerator(workload).run(master, console);
+        } finally {
+            System.setOut(console);
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        System.exit(0);
+    }
+
+    // Inicia o MonitorService, o MasterServer e os DataNodes neste processo, nas portas usuais do RMI Registry.
+    // As chamadas continuam passando pelo RMI (serialização e conexões locais), como em um cluster real.
+    private static MasterServerInterface startCluster(File directory, int dataNodes, int replicationFactor) throws Exception {
+        MonitorService.main(new String[0]);
+
+        MasterServer masterServer = new MasterServer(replicationFactor, new File(directory, "master_metadata").getPath(),
+                WritePipeline.AckPolicy.ALL, PlacementPolicy.forName(null), PartCodec.DEFLATE);
+        Registry registry = LocateRegistry.createRegistry(1099);
+        registry.rebind("MasterServer", masterServer);
+
+        for (int i = 1; i <= dataNodes; i++) {
+            new DataNode("LoadNode" + i, new File(directory, "data_node_storage"), "file", DataNode.DEFAULT_CACHE_BYTES, false).start();
+        }
+        return (MasterServerInterface) registry.lookup("MasterServer");
+    }
+
+    // Grava as imagens iniciais, executa a carga e imprime o relatório; as imagens gravadas são removidas ao final
+    void run(MasterServerInterface master, PrintStream out) throws InterruptedException {
+        out.printf(Locale.ROOT, "%d clientes, %d s (+%d s de aquecimento), %.0f%% leituras, tamanhos %s, %d imagens%n",
+                workload.clients, workload.durationSeconds, workload.warmupSeconds, workload.readFraction * 100,
+                workload.describeSizes(), workload.images);
+
+        // Cada imagem é gravada uma vez antes da medição, para que as leituras encontrem o que ler
+        AtomicInteger nextImage = new AtomicInteger();
+        long preloadStart = System.nanoTime();
+        runClients(seed -> {
+            SplittableRandom random = new SplittableRandom(seed);
+            byte[][] buffers = workload.newBuffers(random);
+            int image;
+            while ((image = nextImage.getAndIncrement()) < workload.images) {
+                write(master, image, buffers, random);
+            }
+        });
+        out.printf("Carga inicial: %d imagens em %.1f s (%d falhas)%n", workload.images,
+                (System.nanoTime() - preloadStart) / 1e9, writeFailures.sum());
+
+        long start = System.nanoTime();
+        long measureStart = start + workload.warmupSeconds * 1_000_000_000L;
+        long end = measureStart + workload.durationSeconds * 1_000_000_000L;
+        Thread warmup = new Thread(() -> {
+            sleepUntil(measureStart);
+            writes.reset();
+            reads.reset();
+            bytesWritten.reset();
+            bytesRead.reset();
+            writeFailures.reset();
+            readFailures.reset();
+            recording = true;
+        }, "LoadGenerator-warmup");
+        warmup.start();
+        runClients(seed -> {
+            SplittableRandom random = new SplittableRandom(seed);
+            byte[][] buffers = workload.newBuffers(random);
+            while (System.nanoTime() < end) {
+                int image = random.nextInt(workload.images);
+                if (random.nextDouble() < workload.readFraction) {
+                    read(master, image);
+                } else {
+                    write(master, image, buffers, random);
+                }
+            }
+        });
+        warmup.join();
+        recording = false;
+
+        double seconds = workload.durationSeconds;
+        out.printf("%-8s %10s %10s %8s  %s%n", "Operação", "op/s", "MB/s", "falhas", "Latência");
+        out.printf("%-8s %10.1f %10.1f %8d  %s%n", "store", writes.getCount() / seconds, bytesWritten.sum() / seconds / 1e6,
+                writeFailures.sum(), writes);
+        out.printf("%-8s %10.1f %10.1f %8d  %s%n", "get", reads.getCount() / seconds, bytesRead.sum() / seconds / 1e6,
+                readFailures.sum(), reads);
+        out.printf("Total: %.1f op/s%n", (writes.getCount() + reads.getCount()) / seconds);
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < workload.images; i++) {
+            names.add(IMAGE_PREFIX + i);
+        }
+        try {
+            master.deleteImages(names);
+        } catch (RemoteException e) {
+            System.err.println("Erro ao remover as imagens do gerador de carga: " + e.getMessage());
+        }
+    }
+
+    // Executa um cliente por thread e aguarda todos terminarem; cada cliente recebe uma semente diferente
+    private void runClients(ClientLoop loop) throws InterruptedException {
+        SplittableRandom seeds = new SplittableRandom();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workload.clients; i++) {
+            long seed = seeds.nextLong();
+            Thread thread = new Thread(() -> loop.run(seed), "LoadGenerator-client-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ClientLoop {
+        void run(long seed);
+    }
+
+    // Grava (ou substitui) a imagem com um tamanho sorteado; o início dos dados muda a cada gravação
+    private void write(MasterServerInterface master, int image, byte[][] buffers, SplittableRandom random) {
+        byte[] data = buffers[workload.pickSize(random)];
+        for (int i = 0; i < Math.min(8, data.length); i++) {
+            data[i] = (byte) random.nextInt();
+        }
+        long start = System.nanoTime();
+        boolean stored;
+        try {
+            stored = master.storeImage(IMAGE_PREFIX + image, data, 0);
+        } catch (RemoteException e) {
+            stored = false;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (!stored) {
+            writeFailures.increment();
+        } else if (recording) {
+            writes.record(elapsed);
+            bytesWritten.add(data.length);
+        }
+    }
+
+    // Lê a imagem inteira: o layout no MasterServer e cada parte de uma de suas réplicas
+    private void read(MasterServerInterface master, int image) {
+        long start = System.nanoTime();
+        long length = readImage(master, IMAGE_PREFIX + image);
+        long elapsed = System.nanoTime() - start;
+        if (length < 0) {
+            // Inclui leituras de imagens substituídas por outro cliente durante a leitura
+            readFailures.increment();
+        } else if (recording) {
+            reads.record(elapsed);
+            bytesRead.add(length);
+        }
+    }
+
+    // Retorna o número de bytes lidos, ou -1 se alguma parte não pôde ser lida por inteiro
+    private static long readImage(MasterServerInterface master, String imageName) {
+        try {
+            ImageLayout layout = master.getImageLayout(imageName);
+            if (layout == null || layout.isErasureCoded()) {
+                return -1;
+            }
+            long total = 0;
+            for (int i = 0; i < layout.getNumParts(); i++) {
+                long length = readPart(layout, i);
+                if (length < 0) {
+                    return -1;
+                }
+                total += length;
+            }
+            return total;
+        } catch (RemoteException e) {
+            return -1;
+        }
+    }
+
+    private static long readPart(ImageLayout layout, int partNumber) {
+        PartKey key = layout.getPartKey(partNumber);
+        for (DataNodeInterface dataNode : layout.getSources(partNumber)) {
+            try {
+                byte[] data = PartCodec.decode(dataNode.downloadPart(key.getImageName(), key.getPartNumber()));
+                if (data != null && data.length == layout.getPartLength(partNumber)) {
+                    return data.length;
+                }
+            } catch (IOException e) {
+                // Réplica inacessível ou parte corrompida: tenta a próxima réplica
+            }
+        }
+        return -1;
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(Math.max(1, remaining / 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Parâmetros da carga: clientes simultâneos, duração, proporção de leituras e distribuição dos tamanhos
+    static final class Workload {
+        static final String DEFAULT_SIZES = "50K:80,1M:15,8M:5";
+
+        final int clients;
+        final int durationSeconds;
+        final int warmupSeconds;
+        final double readFraction;
+        final int images; // Número de imagens distintas gravadas e lidas
+        private final int[] sizes;
+        private final double[] cumulativeWeights;
+
+        Workload(int clients, int durationSeconds, double readFraction, String sizes) {
+            if (clients <= 0 || durationSeconds <= 0 || readFraction < 0 || readFraction > 1) {
+                throw new IllegalArgumentException("Parâmetros de carga inválidos");
+            }
+            this.clients = clients;
+            this.durationSeconds = durationSeconds;
+            this.warmupSeconds = Math.max(1, durationSeconds / 5);
+            this.readFraction = readFraction;
+            this.images = Math.max(50, clients * 10);
+
+            String[] entries = sizes.split(",");
+            this.sizes = new int[entries.length];
+            this.cumulativeWeights = new double[entries.length];
+            double total = 0;
+            for (int i = 0; i < entries.length; i++) {
+                String[] entry = entries[i].trim().split(":");
+                this.sizes[i] = parseSize(entry[0]);
+                total += entry.length > 1 ? Double.parseDouble(entry[1]) : 1;
+                this.cumulativeWeights[i] = total;
+            }
+            for (int i = 0; i < entries.length; i++) {
+                this.cumulativeWeights[i] /= total;
+            }
+        }
+
+        // Tamanho em bytes, com sufixo opcional K, M ou G
+        private static int parseSize(String text) {
+            String value = text.trim().toUpperCase(Locale.ROOT);
+            long multiplier = 1;
+            if (value.endsWith("K")) {
+                multiplier = 1024;
+            } else if (value.endsWith("M")) {
+                multiplier = 1024 * 1024;
+            } else if (value.endsWith("G")) {
+                multiplier = 1024 * 1024 * 1024;
+            }
+            if (multiplier > 1) {
+                value = value.substring(0, value.length() - 1);
+            }
+            long size = Long.parseLong(value) * multiplier;
+            if (size <= 0 || size > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Tamanho de imagem inválido: " + text);
+            }
+            return (int) size;
+        }
+
+        // Sorteia o índice de um dos tamanhos, de acordo com os pesos
+        int pickSize(SplittableRandom random) {
+            double value = random.nextDouble();
+            for (int i = 0; i < cumulativeWeights.length - 1; i++) {
+                if (value < cumulativeWeights[i]) {
+                    return i;
+                }
+            }
+            return cumulativeWeights.length - 1;
+        }
+
+        // Um buffer de dados aleatórios por tamanho, reutilizado pelas gravações de um cliente
+        byte[][] newBuffers(SplittableRandom random) {
+            byte[][] buffers = new byte[sizes.length][];
+            for (int i = 0; i < sizes.length; i++) {
+                buffers[i] = new byte[sizes[i]];
+                random.nextBytes(buffers[i]);
+            }
+            return buffers;
+        }
+
+        String describeSizes() {
+            StringBuilder description = new StringBuilder();
+            double previous = 0;
+            for (int i = 0; i < sizes.length; i++) {
+                description.append(i > 0 ? ", " : "").append(sizes[i] / 1024).append(" KB (")
+                        .append(Math.round((cumulativeWeights[i] - previous) * 100)).append("%)");
+                previous = cumulativeWeights[i];
+            }
+            return description.toString();
+        }
+    }
+}
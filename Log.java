@@ -0,0 +1,157 @@
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Registro das mensagens dos serviços. As mensagens abaixo do nível configurado são descartadas sem custo; as demais
+// são colocadas em uma fila limitada e escritas no console por uma thread própria, de modo que as threads RMI não
+// disputam a escrita sincronizada em System.out. Com a fila cheia a mensagem é descartada em vez de bloquear quem a
+// registrou, e o número de descartes é informado na próxima escrita. O nível inicial vem da propriedade log.level
+// (padrão INFO) e pode ser alterado em execução pelo atributo LogLevel das métricas no JMX.
+final class Log {
+    enum Level { ERROR, WARN, INFO, DEBUG }
+
+    private static final int QUEUE_CAPACITY = 16 * 1024;
+    // Mensagens escritas de uma vez pela thread de escrita
+    private static final int BATCH_SIZE = 256;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile Level level = parseLevel(System.getProperty("log.level"), Level.INFO);
+
+    static {
+        Thread writer = new Thread(Log::writeLoop, "Log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // Mensagens ainda na fila são escritas antes do encerramento da JVM (por exemplo, em System.exit)
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "Log-flush"));
+    }
+
+    private Log() {
+    }
+
+    static Level getLevel() {
+        return level;
+    }
+
+    static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    // Nível correspondente ao nome; 'fallback' se o nome for nulo ou desconhecido
+    static Level parseLevel(String name, Level fallback) {
+        if (name != null) {
+            for (Level candidate : Level.values()) {
+                if (candidate.name().equalsIgnoreCase(name.trim())) {
+                    return candidate;
+                }
+            }
+        }
+        return fallback;
+    }
+
+    static boolean isEnabled(Level messageLevel) {
+        return messageLevel.ordinal() <= level.ordinal();
+    }
+
+    static void error(String message) {
+        log(Level.ERROR, message, null);
+    }
+
+    static void error(String message, Throwable cause) {
+        log(Level.ERROR, message, cause);
+    }
+
+    static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    // Mensagens por parte ou por requisição, descartadas no nível padrão
+    static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    private static void log(Level messageLevel, String message, Throwable cause) {
+        if (isEnabled(messageLevel) && !queue.offer(new Entry(System.currentTimeMillis(), messageLevel, message, cause))) {
+            dropped.increment();
+        }
+    }
+
+    private static void writeLoop() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    // Escreve as mensagens restantes na fila, sem esperar pela thread de escrita
+    static void flush() {
+        List<Entry> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        write(batch);
+    }
+
+    // Erros e avisos vão para System.err e as demais mensagens para System.out, como antes do registro assíncrono.
+    // A saída é consultada a cada escrita, respeitando redirecionamentos feitos com System.setOut.
+    private static synchronized void write(List<Entry> batch) {
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            err.append(TIME_FORMAT.format(Instant.now())).append(" WARN  ").append(lost)
+                    .append(" mensagens descartadas com a fila de registro cheia.").append(System.lineSeparator());
+        }
+        for (Entry entry : batch) {
+            StringBuilder target = entry.level.ordinal() <= Level.WARN.ordinal() ? err : out;
+            target.append(TIME_FORMAT.format(Instant.ofEpochMilli(entry.time))).append(' ')
+                    .append(String.format("%-5s", entry.level)).append(' ').append(entry.message).append(System.lineSeparator());
+            if (entry.cause != null) {
+                StringWriter trace = new StringWriter();
+                entry.cause.printStackTrace(new PrintWriter(trace));
+                target.append(trace);
+            }
+        }
+        print(System.out, out);
+        print(System.err, err);
+    }
+
+    private static void print(PrintStream stream, StringBuilder text) {
+        if (text.length() > 0) {
+            stream.print(text);
+            stream.flush();
+        }
+    }
+
+    private static final class Entry {
+        final long time;
+        final Level level;
+        final String message;
+        final Throwable cause;
+
+        Entry(long time, Level level, String message, Throwable cause) {
+            this.time = time;
+            this.level = level;
+            this.message = message;
+            this.cause = cause;
+        }
+    }
+}
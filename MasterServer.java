@@ -1,78 +1,361 @@
+import java.io.IOException;
 import java.rmi.RemoteException;
+import java.rmi.ServerError;
+import java.rmi.ServerException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 // Classe que implementa o servidor mestre responsável pela coordenação de DataNodes
 public class MasterServer extends UnicastRemoteObject implements MasterServerInterface {
+    private static final long serialVersionUID = 1L;
 
     // Mapa para registrar DataNodes disponíveis, associando IDs a instâncias remotas
-    private Map<String, DataNodeInterface> dataNodes = Collections.synchronizedMap(new HashMap<>());
+    private final Map<String, DataNodeInterface> dataNodes = new ConcurrentHashMap<>();
 
-    // Mapa para rastrear quais partes de cada imagem estão em quais DataNodes
-    private Map<String, Map<Integer, String>> imageParts = Collections.synchronizedMap(new HashMap<>());
+    // Catálogo concorrente que rastreia quais partes de cada imagem estão em quais DataNodes, com o tamanho de cada parte
+    private final MetadataStore imageParts;
 
-    // Fator de replicação das partes das imagens (não implementado neste código)
+    // Diretório padrão do diário persistente de metadados
+    static final String METADATA_DIR = "master_metadata/";
+
+    // Fator de replicação: número de DataNodes distintos que armazenam cada parte
     private int replicationFactor;
 
+    // Gravação assíncrona das partes, com uma fila por DataNode e limite de bytes em trânsito
+    private final WritePipeline writePipeline = new WritePipeline(WritePipeline.DEFAULT_MAX_IN_FLIGHT_BYTES);
+
+    // Réplicas de cada parte que precisam confirmar a gravação antes de storeImage responder
+    private final WritePipeline.AckPolicy ackPolicy;
+
+    // Escolha dos DataNodes para novas partes e da réplica preferida para leitura
+    private final PlacementPolicy placementPolicy;
+
+    // Compressão das partes replicadas (PartCodec), aplicada em storeImage e indicada aos clientes nos planos de escrita
+    private final int partCodec;
+
+    // Tamanho máximo das imagens de storeImage cuja miniatura é gerada pelo MasterServer (0 desativa a geração)
+    private final long thumbnailSourceLimit;
+
+    // Miniaturas aguardando geração; quando a fila está cheia, as imagens ficam sem miniatura
+    private static final int THUMBNAIL_QUEUE_CAPACITY = 16;
+
+    // Gera as miniaturas de storeImage depois da resposta ao cliente, fora das threads RMI. A fila limitada evita
+    // acumular imagens no heap quando a decodificação não acompanha os uploads.
+    private final ThreadPoolExecutor thumbnailer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(THUMBNAIL_QUEUE_CAPACITY), r -> {
+                Thread thread = new Thread(r, "MasterServer-thumbnails");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Ocupação e carga de cada DataNode, recebidas nos heartbeats
+    private final Map<String, NodeStats> nodeStats = new ConcurrentHashMap<>();
+
+    // Serializa a criação e a remoção de blocos deduplicados com a verificação das suas referências, para que um
+    // bloco não seja removido entre o plano de um upload que o reaproveita e a confirmação desse upload
+    private final Object blockLock = new Object();
+
+    // Recria, em outros DataNodes, as partes perdidas com a remoção de um DataNode
+    private final RecoveryEngine recovery;
+
+    // Intervalo entre rodadas de rebalanceamento e volume máximo migrado em cada rodada
+    private static final long REBALANCE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long REBALANCE_BYTES_PER_ROUND = 64L * 1024 * 1024;
+
+    // Desvio tolerado em relação à parcela de ocupação de cada DataNode antes de migrar partes
+    private static final double REBALANCE_TOLERANCE = 0.1;
+    private static final long REBALANCE_MIN_BYTES = 1024 * 1024;
+
+    // Uploads em blocos em andamento, indexados pelo identificador do upload
+    private final Map<String, ImageUpload> pendingUploads = new ConcurrentHashMap<>();
+
+    // Planos de escrita direta emitidos e ainda não confirmados, indexados pelo token
+    private final Map<String, PendingPlan> pendingPlans = new ConcurrentHashMap<>();
+
+    // Versões (ImageRecord.storedName) sendo gravadas por storeImages ou em confirmação, ainda não registradas no catálogo
+    private final Set<String> storingVersions = ConcurrentHashMap.newKeySet();
+
+    // Prazo para o cliente confirmar um plano de escrita antes que ele seja descartado
+    private static final long PLAN_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+
+    // Executor para tarefas periódicas de manutenção do MasterServer
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "MasterServer-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Thread própria para o rebalanceamento, que pode demorar sem atrasar as demais tarefas de manutenção
+    private final ScheduledExecutorService rebalancer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "MasterServer-rebalancer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Instante do último heartbeat recebido de cada DataNode; lido sem chamadas remotas nas consultas de metadados
+    private final Map<String, Long> lastHeartbeats = new ConcurrentHashMap<>();
+
+    // DataNodes cuja falha já foi comunicada ao MonitorService, evitando substituições duplicadas
+    private final Set<String> reportedFailures = ConcurrentHashMap.newKeySet();
+
+    // Tempo sem heartbeat após o qual um DataNode é considerado inativo
+    private static final long LEASE_TIMEOUT_MS = 3 * DataNode.HEARTBEAT_INTERVAL_MS;
+
+    // Partes relatadas pelos DataNodes que não pertencem a nenhuma imagem do catálogo, agrupadas por imagem
+    private final Map<String, OrphanImage> orphanImages = new ConcurrentHashMap<>();
+
+    // Réplicas não relatadas no último relatório completo de cada DataNode, aguardando confirmação
+    private final Map<String, Set<String>> suspectedMissing = new ConcurrentHashMap<>();
+
+    // Imagens excluídas recentemente; suas partes relatadas por DataNodes que estavam inacessíveis são removidas
+    private final Map<String, Long> deletedImages = new ConcurrentHashMap<>();
+
+    // Tempo de espera para que todos os DataNodes relatem suas partes antes de adotar uma imagem órfã
+    private static final long ORPHAN_GRACE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    // Tempo durante o qual uma exclusão é lembrada para descartar réplicas remanescentes
+    private static final long DELETED_RETENTION_MS = TimeUnit.HOURS.toMillis(1);
+
+    // Latência das operações, bytes recebidos e medidores do catálogo, dos uploads pendentes e do pipeline de gravação
+    private final Metrics metrics = new Metrics("MasterServer", "MasterServer");
+
     // Referência ao serviço de monitoramento (MonitorService)
     private MonitorServiceInterface monitorService;
 
+    // Divisão usada quando o número de partes não é informado. As partes enviadas diretamente aos DataNodes não
+    // passam pelo MasterServer, que só conhece o tamanho da imagem; por isso as partes têm tamanho fixo.
+    private static final FixedSizeChunker AUTOMATIC_CHUNKER = new FixedSizeChunker(Chunker.DEFAULT_TARGET_SIZE);
+
     // Construtor do MasterServer, inicializa o fator de replicação e registra no MonitorService
     protected MasterServer(int replicationFactor) throws RemoteException {
+        this(replicationFactor, METADATA_DIR);
+    }
+
+    // Construtor que restaura o catálogo do diário no diretório informado (null mantém os metadados só em memória)
+    protected MasterServer(int replicationFactor, String metadataDirectory) throws RemoteException {
+        this(replicationFactor, metadataDirectory, WritePipeline.AckPolicy.ALL);
+    }
+
+    // Construtor completo, com a política de confirmação das gravações em storeImage
+    protected MasterServer(int replicationFactor, String metadataDirectory, WritePipeline.AckPolicy ackPolicy) throws RemoteException {
+        this(replicationFactor, metadataDirectory, ackPolicy, PlacementPolicy.forName(null));
+    }
+
+    // Construtor completo, com a política de confirmação das gravações e a política de distribuição das partes
+    protected MasterServer(int replicationFactor, String metadataDirectory, WritePipeline.AckPolicy ackPolicy,
+                           PlacementPolicy placementPolicy) throws RemoteException {
+        this(replicationFactor, metadataDirectory, ackPolicy, placementPolicy, PartCodec.DEFLATE);
+    }
+
+    // Construtor com as políticas de confirmação e de distribuição e a compressão das partes
+    protected MasterServer(int replicationFactor, String metadataDirectory, WritePipeline.AckPolicy ackPolicy,
+                           PlacementPolicy placementPolicy, int partCodec) throws RemoteException {
+        this(replicationFactor, metadataDirectory, ackPolicy, placementPolicy, partCodec, Thumbnail.DEFAULT_SOURCE_LIMIT);
+    }
+
+    // Construtor completo, incluindo o tamanho máximo das imagens cuja miniatura é gerada (0 desativa a geração)
+    protected MasterServer(int replicationFactor, String metadataDirectory, WritePipeline.AckPolicy ackPolicy,
+                           PlacementPolicy placementPolicy, int partCodec, long thumbnailSourceLimit) throws RemoteException {
         this.replicationFactor = replicationFactor;
+        this.ackPolicy = ackPolicy;
+        this.placementPolicy = placementPolicy;
+        this.partCodec = partCodec;
+        this.thumbnailSourceLimit = thumbnailSourceLimit;
+        this.imageParts = openMetadataStore(metadataDirectory);
+        this.recovery = new RecoveryEngine(imageParts, dataNodes, this::liveDataNodes, nodeStats, placementPolicy, replicationFactor);
+        scheduler.scheduleAtFixedRate(this::expirePendingPlans, 1, 1, TimeUnit.MINUTES);
+        scheduler.scheduleAtFixedRate(this::adoptOrphanImages, 1, 1, TimeUnit.MINUTES);
+        scheduler.scheduleAtFixedRate(this::collectUnreferencedBlocks, 1, 1, TimeUnit.MINUTES);
+        scheduler.scheduleAtFixedRate(this::checkLeases, LEASE_TIMEOUT_MS, DataNode.HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(recovery::scanAll, 5, 5, TimeUnit.MINUTES);
+        rebalancer.scheduleWithFixedDelay(this::rebalance, REBALANCE_INTERVAL_MS, REBALANCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        metrics.gauge("catalogRecords", imageParts::size);
+        metrics.gauge("dataNodes", dataNodes::size);
+        metrics.gauge("liveDataNodes", () -> liveDataNodes().size());
+        metrics.gauge("pendingPlans", pendingPlans::size);
+        metrics.gauge("pendingUploads", pendingUploads::size);
+        metrics.gauge("pipelineQueuedBatches", writePipeline::queuedTasks);
+        metrics.gauge("pipelineInFlightBytes", writePipeline::inFlightBytes);
+        metrics.gauge("thumbnailQueue", () -> thumbnailer.getQueue().size());
 
         try {
             // Conecta ao MonitorService para registro do MasterServer
             Registry monitorRegistry = LocateRegistry.getRegistry("localhost", 2000);
             monitorService = (MonitorServiceInterface) monitorRegistry.lookup("MonitorService");
             monitorService.registerMasterServer(this);
-            System.out.println("MasterServer registrado no MonitorService.");
+            Log.info("MasterServer registrado no MonitorService.");
         } catch (Exception e) {
-            System.err.println("Erro ao conectar com o MonitorService: " + e.getMessage());
+            Log.error("Erro ao conectar com o MonitorService: " + e.getMessage());
+        }
+    }
+
+    // Cria o catálogo de imagens, restaurando-o do diário persistente quando houver um diretório configurado
+    private static MetadataStore openMetadataStore(String metadataDirectory) throws RemoteException {
+        if (metadataDirectory == null) {
+            return new MetadataStore();
+        }
+        MetadataJournal journal = new MetadataJournal(metadataDirectory);
+        MetadataStore store = new MetadataStore(journal);
+        try {
+            journal.open(store);
+        } catch (IOException e) {
+            throw new RemoteException("Erro ao abrir o diário de metadados", e);
         }
+        return store;
     }
 
     // Registra um DataNode no sistema
     @Override
     public void registerDataNode(String dataNodeId, DataNodeInterface dataNode) throws RemoteException {
         dataNodes.put(dataNodeId, dataNode);
-        System.out.println("DataNode " + dataNodeId + " registrado.");
+        lastHeartbeats.put(dataNodeId, System.currentTimeMillis());
+        reportedFailures.remove(dataNodeId);
+        Log.info("DataNode " + dataNodeId + " registrado.");
     }
 
-    // Remove o registro de um DataNode do sistema
+    // Remove o registro de um DataNode do sistema e inicia a recuperação das partes que ele guardava
     @Override
     public void unregisterDataNode(String dataNodeId) throws RemoteException {
-        dataNodes.remove(dataNodeId);
-        System.out.println("DataNode " + dataNodeId + " removido do registro.");
+        boolean registered = dataNodes.remove(dataNodeId) != null;
+        writePipeline.removeNode(dataNodeId);
+        lastHeartbeats.remove(dataNodeId);
+        nodeStats.remove(dataNodeId);
+        suspectedMissing.remove(dataNodeId);
+        Log.info("DataNode " + dataNodeId + " removido do registro.");
+        if (registered) {
+            recovery.nodeLost(dataNodeId);
+        }
+    }
+
+    // Renova a concessão (lease) de um DataNode e guarda suas estatísticas de ocupação e carga; retorna false se
+    // ele não estiver registrado e precisar se registrar novamente
+    @Override
+    public boolean heartbeat(String dataNodeId, NodeStats stats) throws RemoteException {
+        metrics.increment("heartbeats");
+        if (!dataNodes.containsKey(dataNodeId)) {
+            return false;
+        }
+        lastHeartbeats.put(dataNodeId, System.currentTimeMillis());
+        if (stats != null) {
+            nodeStats.put(dataNodeId, stats);
+        }
+        return true;
+    }
+
+    // Métricas do MasterServer
+    @Override
+    public MetricsSnapshot getMetrics() throws RemoteException {
+        return metrics.snapshot();
+    }
+
+    // Lista os DataNodes registrados com a concessão em dia, candidatos a receber novas partes
+    private List<String> liveDataNodes() {
+        List<String> live = new ArrayList<>();
+        for (String dataNodeId : dataNodes.keySet()) {
+            if (isAlive(dataNodeId)) {
+                live.add(dataNodeId);
+            }
+        }
+        return live;
+    }
+
+    // Verifica se o DataNode está registrado e com a concessão em dia
+    private boolean isAlive(String dataNodeId) {
+        Long lastHeartbeat = lastHeartbeats.get(dataNodeId);
+        return lastHeartbeat != null && System.currentTimeMillis() - lastHeartbeat <= LEASE_TIMEOUT_MS;
+    }
+
+    // Detecta, em segundo plano, DataNodes que deixaram de enviar heartbeats e notifica o MonitorService
+    private void checkLeases() {
+        for (String dataNodeId : new ArrayList<>(lastHeartbeats.keySet())) {
+            if (!isAlive(dataNodeId) && dataNodes.containsKey(dataNodeId)) {
+                Log.warn("DataNode " + dataNodeId + " sem heartbeat há mais de " + LEASE_TIMEOUT_MS + " ms. Notificando o MonitorService.");
+                notifyMonitorService(dataNodeId);
+            }
+        }
     }
 
     // Lista os nomes das imagens disponíveis no sistema
     @Override
     public List<String> listImages() throws RemoteException {
-        return new ArrayList<>(imageParts.keySet());
+        long start = System.nanoTime();
+        List<String> images = imageParts.listAll();
+        images.removeIf(name -> ContentHash.isBlockName(name) || Thumbnail.isRecordName(name));
+        metrics.record("listImages", start);
+        return images;
+    }
+
+    // Lista uma página de nomes de imagens em ordem alfabética, filtrando por prefixo (null lista todas)
+    @Override
+    public List<String> listImages(String prefix, String startAfter, int limit) throws RemoteException {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        long start = System.nanoTime();
+        List<String> page = imageParts.list(prefix, startAfter, limit);
+        metrics.record("listImages", start);
+        return page;
     }
 
     // Recupera informações sobre as partes de uma imagem, retornando os DataNodes que possuem essas partes
     @Override
     public Map<Integer, DataNodeInterface> getImageParts(String imageName) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return findImageParts(imageName);
+        } finally {
+            metrics.record("getImageParts", start);
+        }
+    }
+
+    // Seleciona uma réplica ativa de cada parte da imagem
+    private Map<Integer, DataNodeInterface> findImageParts(String imageName) {
         Map<Integer, DataNodeInterface> partsMap = new HashMap<>();
-        Map<Integer, String> parts = imageParts.get(imageName);
+        ImageRecord record = imageParts.get(imageName);
 
-        if (parts != null) {
-            for (Map.Entry<Integer, String> entry : parts.entrySet()) {
-                String dataNodeId = entry.getValue();
-                DataNodeInterface dataNode = dataNodes.get(dataNodeId);
+        if (record != null && record.isErasureCoded()) {
+            // Partes codificadas não podem ser simplesmente concatenadas; o cliente deve usar getImageLayout
+            Log.warn("Imagem '" + imageName + "' armazenada com erasure coding; use getImageLayout.");
+            return null;
+        }
+        if (record != null && record.isDeduplicated()) {
+            // As partes estão gravadas sob o nome dos blocos, que só o layout informa
+            Log.warn("Imagem '" + imageName + "' deduplicada; use getImageLayout.");
+            return null;
+        }
+        if (record != null && record.getGeneration() != 0) {
+            // As partes estão gravadas sob o nome da versão da imagem, que só o layout informa
+            Log.warn("Imagem '" + imageName + "' gravada sob o nome da sua versão; use getImageLayout.");
+            return null;
+        }
 
-                try {
-                    // Verifica se o DataNode está acessível
-                    dataNode.ping();
-                    partsMap.put(entry.getKey(), dataNode);
-                } catch (RemoteException e) {
-                    // Notifica o serviço de monitoramento caso o DataNode esteja inacessível
-                    System.err.println("DataNode " + dataNodeId + " inacessível. Notificando o MonitorService.");
-                    notifyMonitorService(dataNodeId);
+        if (record != null) {
+            for (int i = 0; i < record.getNumParts(); i++) {
+                // Percorre as réplicas em ordem aleatória para distribuir a carga de leitura
+                List<String> replicas = new ArrayList<>(Arrays.asList(record.getNodes(i)));
+                Collections.shuffle(replicas);
+
+                // Usa a primeira réplica com concessão válida; a verificação é apenas uma leitura em memória
+                for (String dataNodeId : replicas) {
+                    DataNodeInterface dataNode = dataNodes.get(dataNodeId);
+                    if (dataNode != null && isAlive(dataNodeId)) {
+                        partsMap.put(i, dataNode);
+                        break;
+                    }
+                }
+
+                if (!partsMap.containsKey(i)) {
+                    Log.warn("Nenhuma réplica disponível para a parte " + i + " da imagem '" + imageName + "'.");
                     return null; // Retorna null caso a operação não possa ser concluída
                 }
             }
@@ -82,9 +365,1674 @@ public class MasterServer extends UnicastRemoteObject implements MasterServerInt
         }
     }
 
+    // Recupera a disposição da imagem (deslocamento, tamanho e DataNode de cada parte) para leituras paralelas
+    @Override
+    public ImageLayout getImageLayout(String imageName) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return buildLayout(imageName);
+        } finally {
+            metrics.record("getImageLayout", start);
+        }
+    }
+
+    // Monta a disposição da imagem a partir do seu registro no catálogo
+    private ImageLayout buildLayout(String imageName) {
+        ImageRecord record = imageParts.get(imageName);
+        if (record == null) {
+            return null; // Retorna null se a imagem não for encontrada
+        }
+
+        int numParts = record.getNumParts();
+        long[] partOffsets = new long[numParts];
+        long[] partLengths = new long[numParts];
+        DataNodeInterface[][] sources = new DataNodeInterface[numParts][];
+        PartKey[] partKeys = new PartKey[numParts];
+        int availableParts = 0;
+        long offset = 0;
+        for (int i = 0; i < numParts; i++) {
+            partOffsets[i] = offset;
+            partLengths[i] = record.getPartLength(i);
+            offset += partLengths[i];
+            partKeys[i] = storedKey(imageName, record, i);
+            sources[i] = partReplicas(record, i);
+            if (sources[i].length > 0) {
+                availableParts++;
+            } else if (!record.isErasureCoded()) {
+                Log.warn("Nenhuma réplica disponível para a parte " + i + " da imagem '" + imageName + "'.");
+                return null;
+            }
+        }
+
+        // Com erasure coding, quaisquer k partes disponíveis bastam para reconstruir a imagem
+        if (availableParts < record.getDataShards()) {
+            Log.warn("Partes insuficientes para reconstruir a imagem '" + imageName + "'.");
+            return null;
+        }
+        return new ImageLayout(imageName, partOffsets, partLengths, sources, record.getParityShards(), record.getSize(), partKeys);
+    }
+
+    // Mapeia um trecho da imagem para as partes que o contêm e a posição do trecho dentro de cada uma, para que o
+    // cliente leia somente esses bytes. Nas imagens com erasure coding, o trecho é lido das partes de dados.
+    @Override
+    public ImageRange getImageRange(String imageName, long offset, long length) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return buildRange(imageName, offset, length);
+        } finally {
+            metrics.record("getImageRange", start);
+        }
+    }
+
+    // Monta o mapeamento do trecho da imagem a partir do seu registro no catálogo
+    private ImageRange buildRange(String imageName, long offset, long length) {
+        ImageRecord record = imageParts.get(imageName);
+        if (record == null) {
+            return null; // Retorna null se a imagem não for encontrada
+        }
+        if (offset < 0 || length < 0 || offset > record.getSize()) {
+            Log.warn("Trecho inválido da imagem '" + imageName + "'.");
+            return null;
+        }
+
+        long end = offset + Math.min(length, record.getSize() - offset);
+        List<PartKey> partKeys = new ArrayList<>();
+        List<Long> offsetsInPart = new ArrayList<>();
+        List<Long> lengths = new ArrayList<>();
+        List<DataNodeInterface[]> sources = new ArrayList<>();
+        long position = offset;
+        for (int i = record.partAt(offset); i < record.getDataShards() && position < end; i++) {
+            long partStart = record.getPartOffset(i);
+            long partEnd = partStart + record.getPartLength(i);
+            if (partEnd <= position) {
+                continue;
+            }
+            DataNodeInterface[] replicas = partReplicas(record, i);
+            if (replicas.length == 0) {
+                // Com erasure coding, a parte ainda pode ser reconstruída pelo cliente a partir do layout completo
+                Log.warn("Nenhuma réplica disponível para a parte " + i + " da imagem '" + imageName + "'"
+                        + (record.isErasureCoded() ? "; use getImageLayout." : "."));
+                return null;
+            }
+            long segmentEnd = Math.min(end, partEnd);
+            partKeys.add(storedKey(imageName, record, i));
+            offsetsInPart.add(position - partStart);
+            lengths.add(segmentEnd - position);
+            sources.add(replicas);
+            position = segmentEnd;
+        }
+        return new ImageRange(imageName, offset, end - offset, partKeys.toArray(new PartKey[0]),
+                offsetsInPart.stream().mapToLong(Long::longValue).toArray(), lengths.stream().mapToLong(Long::longValue).toArray(),
+                sources.toArray(new DataNodeInterface[0][]));
+    }
+
+    // Recupera a disposição da miniatura da imagem; null se a imagem não tiver miniatura
+    @Override
+    public ImageLayout getThumbnailLayout(String imageName) throws RemoteException {
+        return isReservedName(imageName) ? null : buildLayout(Thumbnail.recordName(imageName));
+    }
+
+    // Armazena a miniatura gerada pelo cliente para uma imagem enviada diretamente aos DataNodes, que o
+    // MasterServer não vê passar
+    @Override
+    public boolean storeThumbnail(String imageName, byte[] thumbnail) throws RemoteException {
+        if (isReservedName(imageName) || imageParts.get(imageName) == null) {
+            return false;
+        }
+        if (thumbnail == null || thumbnail.length == 0 || thumbnail.length > Thumbnail.MAX_BYTES) {
+            Log.warn("Miniatura inválida para a imagem '" + imageName + "'.");
+            return false;
+        }
+        boolean stored = writeImages(List.of(Thumbnail.recordName(imageName)), List.of(thumbnail), 1)[0];
+        if (stored && imageParts.get(imageName) == null) {
+            // A imagem foi excluída enquanto a miniatura era gravada
+            discardThumbnail(imageName);
+            return false;
+        }
+        return stored;
+    }
+
+    // Nome e número sob os quais a parte está gravada nos DataNodes: o bloco que guarda o seu conteúdo, nas imagens
+    // deduplicadas, ou o nome da versão registrada da imagem
+    private static PartKey storedKey(String imageName, ImageRecord record, int partNumber) {
+        return record.isDeduplicated() ? new PartKey(record.getBlock(partNumber), 0)
+                : new PartKey(record.storedName(imageName), partNumber);
+    }
+
+    // Réplicas registradas da parte; nas imagens deduplicadas, as do bloco que guarda o seu conteúdo
+    private DataNodeInterface[] partReplicas(ImageRecord record, int partNumber) {
+        if (record.isDeduplicated()) {
+            ImageRecord block = imageParts.get(record.getBlock(partNumber));
+            return registeredReplicas(block != null ? block.getNodes(0) : new String[0]);
+        }
+        return registeredReplicas(record.getNodes(partNumber));
+    }
+
     // Armazena uma imagem dividindo-a em partes e distribuindo-as pelos DataNodes
     @Override
     public boolean storeImage(String imageName, byte[] imageData, int numParts) throws RemoteException {
+        return storeImages(List.of(imageName), List.of(imageData), numParts)[0];
+    }
+
+    // Armazena várias imagens, enviando em uma única chamada todas as partes destinadas a um mesmo DataNode.
+    // As gravações nos DataNodes ocorrem em paralelo pelo pipeline; a resposta é dada quando cada parte tiver
+    // as confirmações exigidas pela política (todas as réplicas ou a maioria delas).
+    // As miniaturas das imagens armazenadas são geradas em seguida, em segundo plano.
+    @Override
+    public boolean[] storeImages(List<String> imageNames, List<byte[]> imagesData, int numParts) throws RemoteException {
+        if (imagesData.size() != imageNames.size() || imageNames.stream().anyMatch(MasterServer::isReservedName)) {
+            Log.warn("Parâmetros inválidos para o armazenamento das imagens.");
+            return new boolean[imageNames.size()];
+        }
+        long start = System.nanoTime();
+        boolean[] stored = writeImages(imageNames, imagesData, numParts);
+        scheduleThumbnails(imageNames, imagesData, stored);
+        for (byte[] imageData : imagesData) {
+            metrics.add("bytesIn", imageData.length);
+        }
+        metrics.record("storeImages", start);
+        return stored;
+    }
+
+    // Remove as miniaturas das versões substituídas e agenda a geração das novas, que roda depois da resposta ao
+    // cliente. Imagens acima do limite de tamanho, ou todas com a geração desativada, ficam sem miniatura.
+    private void scheduleThumbnails(List<String> imageNames, List<byte[]> imagesData, boolean[] stored) {
+        Map<String, List<PartKey>> replaced = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        List<byte[]> data = new ArrayList<>();
+        List<ImageRecord> versions = new ArrayList<>();
+        for (int j = 0; j < imageNames.size(); j++) {
+            if (!stored[j]) {
+                continue;
+            }
+            removeThumbnail(imageNames.get(j), replaced);
+            ImageRecord version = imageParts.get(imageNames.get(j));
+            if (version != null && imagesData.get(j).length <= thumbnailSourceLimit) {
+                names.add(imageNames.get(j));
+                data.add(imagesData.get(j));
+                versions.add(version);
+            }
+        }
+        deleteParts(replaced);
+        if (names.isEmpty()) {
+            return;
+        }
+        try {
+            thumbnailer.execute(() -> storeThumbnails(names, data, versions));
+        } catch (RejectedExecutionException e) {
+            Log.warn("Fila de miniaturas cheia; " + names.size() + " imagens armazenadas sem miniatura.");
+        }
+    }
+
+    // Gera as miniaturas e as grava em um único lote; as imagens que não estão em um formato suportado pelo ImageIO
+    // ficam sem miniatura. Uma imagem substituída enquanto aguardava na fila é ignorada, pois a miniatura não
+    // corresponderia mais ao seu conteúdo.
+    private void storeThumbnails(List<String> imageNames, List<byte[]> imagesData, List<ImageRecord> versions) {
+        List<String> owners = new ArrayList<>();
+        List<String> thumbnailNames = new ArrayList<>();
+        List<byte[]> thumbnails = new ArrayList<>();
+        List<ImageRecord> ownerVersions = new ArrayList<>();
+        for (int j = 0; j < imageNames.size(); j++) {
+            if (!isCurrentVersion(imageNames.get(j), versions.get(j))) {
+                continue;
+            }
+            byte[] thumbnail = Thumbnail.create(imagesData.get(j));
+            if (thumbnail != null) {
+                owners.add(imageNames.get(j));
+                thumbnailNames.add(Thumbnail.recordName(imageNames.get(j)));
+                thumbnails.add(thumbnail);
+                ownerVersions.add(versions.get(j));
+            }
+        }
+        boolean[] written = writeImages(thumbnailNames, thumbnails, 1);
+        for (int k = 0; k < written.length; k++) {
+            if (written[k] && !isCurrentVersion(owners.get(k), ownerVersions.get(k))) {
+                // A imagem foi excluída ou substituída enquanto a miniatura era gravada
+                discardThumbnail(owners.get(k));
+            }
+        }
+    }
+
+    // Verifica se a imagem ainda está registrada na versão informada
+    private boolean isCurrentVersion(String imageName, ImageRecord version) {
+        ImageRecord record = imageParts.get(imageName);
+        return record != null && record.getGeneration() == version.getGeneration();
+    }
+
+    // Grava as imagens nos DataNodes e registra no catálogo as que tiverem as confirmações exigidas
+    private boolean[] writeImages(List<String> imageNames, List<byte[]> imagesData, int numParts) {
+        if (imageNames.isEmpty()) {
+            return new boolean[0];
+        }
+
+        long totalBytes = 0;
+        for (byte[] imageData : imagesData) {
+            totalBytes += imageData.length;
+        }
+        int permits;
+        try {
+            // Contrapressão: aguarda enquanto os DataNodes ainda gravam os bytes de uploads anteriores
+            permits = writePipeline.acquire(totalBytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new boolean[imageNames.size()];
+        }
+
+        List<CompletableFuture<boolean[]>> writes = new ArrayList<>();
+        // Cada imagem é gravada sob o nome de uma nova versão, sem tocar nas partes da versão registrada
+        long[] generations = new long[imageNames.size()];
+        String[] storedNames = new String[imageNames.size()];
+        try {
+            String[][][] partNodes = new String[imageNames.size()][][];
+            long[][] partLengths = new long[imageNames.size()][];
+            Map<String, List<PartData>> batches = new HashMap<>();
+            Map<String, List<int[]>> positions = new HashMap<>();
+
+            for (int j = 0; j < imageNames.size(); j++) {
+                // Seleciona os DataNodes que receberão as réplicas de cada parte
+                partLengths[j] = partLengths(imagesData.get(j).length, numParts);
+                partNodes[j] = chooseTargets(partLengths[j].length, partLengths[j][0]);
+                if (partNodes[j] == null) {
+                    return new boolean[imageNames.size()];
+                }
+                generations[j] = imageParts.nextGeneration();
+                storedNames[j] = ImageRecord.storedName(imageNames.get(j), generations[j]);
+                storingVersions.add(storedNames[j]);
+
+                int start = 0;
+                for (int i = 0; i < partLengths[j].length; i++) {
+                    int end = start + (int) partLengths[j][i];
+                    // A parte é comprimida uma vez e o mesmo quadro é enviado a todas as réplicas
+                    byte[] data = PartCodec.encode(Arrays.copyOfRange(imagesData.get(j), start, end), partCodec);
+                    PartData part = new PartData(new PartKey(storedNames[j], i), data);
+                    for (int r = 0; r < partNodes[j][i].length; r++) {
+                        batches.computeIfAbsent(partNodes[j][i][r], id -> new ArrayList<>()).add(part);
+                        positions.computeIfAbsent(partNodes[j][i][r], id -> new ArrayList<>()).add(new int[]{j, i, r});
+                    }
+                    start = end;
+                }
+            }
+
+            // Um lote por DataNode com todas as réplicas destinadas a ele, gravados em paralelo
+            StoreBatch store = new StoreBatch(imageNames, storedNames, generations, partNodes, ackPolicy.required(partNodes[0][0].length));
+            for (Map.Entry<String, List<PartData>> batch : batches.entrySet()) {
+                String dataNodeId = batch.getKey();
+                List<int[]> batchPositions = positions.get(dataNodeId);
+                DataNodeInterface dataNode = dataNodes.get(dataNodeId);
+                if (dataNode == null) {
+                    store.complete(dataNodeId, batchPositions, null);
+                    continue;
+                }
+                CompletableFuture<boolean[]> write = writePipeline.submit(dataNodeId, dataNode, batch.getValue());
+                write.whenComplete((results, error) -> {
+                    if (error != null) {
+                        // Notifica o serviço de monitoramento caso o DataNode esteja inacessível
+                        Log.warn("DataNode " + dataNodeId + " inacessível durante o upload. Notificando o MonitorService.");
+                        notifyMonitorService(dataNodeId);
+                    }
+                    store.complete(dataNodeId, batchPositions, results);
+                });
+                writes.add(write);
+            }
+
+            // Registra o mapeamento das partes das imagens confirmadas e descarta as partes das demais
+            boolean[] stored = new boolean[imageNames.size()];
+            Map<String, List<PartKey>> replacedParts = new HashMap<>();
+            for (int j = 0; j < imageNames.size(); j++) {
+                if (store.awaitDecision(j)) {
+                    String[][] ackedNodes = store.ackedNodes(j);
+                    ImageRecord replaced = imageParts.get(imageNames.get(j));
+                    stored[j] = imageParts.put(imageNames.get(j), ackedNodes, partLengths[j], generations[j]);
+                    store.recorded(j, stored[j], ackedNodes);
+                    if (stored[j]) {
+                        collectParts(imageNames.get(j), replaced, replacedParts);
+                    }
+                }
+                if (stored[j]) {
+                    Log.debug("Imagem '" + imageNames.get(j) + "' armazenada com sucesso.");
+                }
+            }
+            deleteParts(replacedParts);
+            return stored;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new boolean[imageNames.size()];
+        } catch (Exception e) {
+            // Captura erros gerais durante o armazenamento
+            Log.error("Erro ao armazenar a imagem: " + e.getMessage());
+            return new boolean[imageNames.size()];
+        } finally {
+            for (String storedName : storedNames) {
+                if (storedName != null) {
+                    storingVersions.remove(storedName);
+                }
+            }
+            // Os bytes reservados são liberados quando todas as réplicas terminarem, inclusive as que ficaram
+            // em andamento após a resposta com confirmação por maioria
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]))
+                    .whenComplete((ignored, error) -> writePipeline.release(permits));
+        }
+    }
+
+    // Remove uma imagem do sistema, deletando suas partes de todos os DataNodes
+    @Override
+    public boolean deleteImage(String imageName) throws RemoteException {
+        return deleteImages(List.of(imageName))[0];
+    }
+
+    // Remove várias imagens, enviando uma única chamada de exclusão a cada DataNode envolvido
+    @Override
+    public boolean[] deleteImages(List<String> imageNames) throws RemoteException {
+        long start = System.nanoTime();
+        boolean[] deleted = new boolean[imageNames.size()];
+        Map<String, List<PartKey>> batches = new HashMap<>();
+        for (int j = 0; j < imageNames.size(); j++) {
+            String imageName = imageNames.get(j);
+            if (isReservedName(imageName)) {
+                continue; // Blocos só são removidos quando deixam de ser referenciados
+            }
+            ImageRecord record = imageParts.remove(imageName);
+            if (record != null) {
+                deletedImages.put(imageName, System.currentTimeMillis());
+                collectParts(imageName, record, batches);
+                removeThumbnail(imageName, batches);
+                Log.debug("Imagem '" + imageName + "' deletada com sucesso.");
+                deleted[j] = true;
+            } else {
+                Log.debug("Imagem '" + imageName + "' não encontrada.");
+            }
+        }
+        deleteParts(batches);
+        metrics.record("deleteImages", start);
+        return deleted;
+    }
+
+    // Recupera a disposição de várias imagens em uma única chamada (null para as imagens não encontradas)
+    @Override
+    public List<ImageLayout> getImageLayouts(List<String> imageNames) throws RemoteException {
+        long start = System.nanoTime();
+        List<ImageLayout> layouts = new ArrayList<>(imageNames.size());
+        for (String imageName : imageNames) {
+            layouts.add(buildLayout(imageName));
+        }
+        metrics.record("getImageLayouts", start);
+        return layouts;
+    }
+
+    // Acrescenta aos lotes de exclusão as réplicas de uma versão de imagem que saiu do catálogo (excluída ou
+    // substituída) e libera os blocos que ela deixou sem referências; nada faz para record null
+    private void collectParts(String imageName, ImageRecord record, Map<String, List<PartKey>> batches) {
+        if (record == null) {
+            return;
+        }
+        String[][] partNodes = new String[record.getNumParts()][];
+        for (int i = 0; i < partNodes.length; i++) {
+            partNodes[i] = record.getNodes(i);
+        }
+        groupParts(record.storedName(imageName), partNodes, batches);
+        if (record.isDeduplicated()) {
+            releaseBlocks(record.getBlocks(), batches);
+        }
+    }
+
+    // Agrupa as réplicas das partes de uma imagem pelo DataNode que as armazena
+    private static void groupParts(String imageName, String[][] partNodes, Map<String, List<PartKey>> batches) {
+        for (int i = 0; i < partNodes.length; i++) {
+            for (String dataNodeId : partNodes[i]) {
+                batches.computeIfAbsent(dataNodeId, id -> new ArrayList<>()).add(new PartKey(imageName, i));
+            }
+        }
+    }
+
+    // Remove a miniatura da imagem, se houver, acrescentando as suas réplicas aos lotes de exclusão
+    private void removeThumbnail(String imageName, Map<String, List<PartKey>> batches) {
+        String thumbnailName = Thumbnail.recordName(imageName);
+        ImageRecord thumbnail = imageParts.remove(thumbnailName);
+        if (thumbnail != null) {
+            deletedImages.put(thumbnailName, System.currentTimeMillis());
+            groupParts(thumbnail.storedName(thumbnailName), new String[][] {thumbnail.getNodes(0)}, batches);
+        }
+    }
+
+    // Remove a miniatura de uma imagem substituída, que não corresponde mais ao seu conteúdo
+    private void discardThumbnail(String imageName) {
+        Map<String, List<PartKey>> batches = new HashMap<>();
+        removeThumbnail(imageName, batches);
+        deleteParts(batches);
+    }
+
+    // Remove os blocos que deixaram de ser referenciados por imagens e por uploads em andamento, acrescentando as
+    // suas réplicas aos lotes de exclusão
+    private int releaseBlocks(String[] blocks, Map<String, List<PartKey>> batches) {
+        int released = 0;
+        synchronized (blockLock) {
+            for (String block : new HashSet<>(Arrays.asList(blocks))) {
+                if (imageParts.references(block) > 0 || isUploadPending(block)) {
+                    continue;
+                }
+                ImageRecord record = imageParts.remove(block);
+                if (record != null) {
+                    deletedImages.put(block, System.currentTimeMillis());
+                    groupParts(block, new String[][] {record.getNodes(0)}, batches);
+                    released++;
+                }
+            }
+        }
+        return released;
+    }
+
+    // Remove os blocos que ficaram sem referências sem passar por deleteImage, como os de um upload cuja imagem não
+    // pôde ser registrada no diário
+    private void collectUnreferencedBlocks() {
+        List<String> blocks = imageParts.list(ContentHash.BLOCK_PREFIX, null, Integer.MAX_VALUE);
+        Map<String, List<PartKey>> batches = new HashMap<>();
+        int released = releaseBlocks(blocks.toArray(new String[0]), batches);
+        deleteParts(batches);
+        if (released > 0) {
+            Log.info(released + " blocos sem referências removidos.");
+        }
+    }
+
+    // Nomes iniciados pelo prefixo dos blocos deduplicados ou terminados pelo sufixo das miniaturas ou pelo de uma
+    // versão ("#v<geração>") são reservados
+    private static boolean isReservedName(String imageName) {
+        if (ContentHash.isBlockName(imageName) || Thumbnail.isRecordName(imageName) || ImageRecord.hasGeneration(imageName)) {
+            Log.warn("Nome de imagem reservado: '" + imageName + "'.");
+            return true;
+        }
+        return false;
+    }
+
+    // Solicita a exclusão das partes agrupadas por DataNode, com uma chamada por DataNode
+    private void deleteParts(Map<String, List<PartKey>> batches) {
+        for (Map.Entry<String, List<PartKey>> batch : batches.entrySet()) {
+            String dataNodeId = batch.getKey();
+            DataNodeInterface dataNode = dataNodes.get(dataNodeId);
+            if (dataNode == null) {
+                Log.warn("DataNode " + dataNodeId + " não registrado; " + batch.getValue().size() + " réplicas ignoradas.");
+                continue;
+            }
+            try {
+                dataNode.deleteParts(batch.getValue());
+            } catch (RemoteException e) {
+                // Notifica o serviço de monitoramento caso o DataNode esteja inacessível
+                Log.warn("DataNode " + dataNodeId + " inacessível durante a exclusão. Notificando o MonitorService.");
+                notifyMonitorService(dataNodeId);
+            }
+        }
+    }
+
+    // Inicia um upload em blocos, escolhendo os DataNodes que receberão cada parte
+    @Override
+    public String beginImageUpload(String imageName, long imageSize, int numParts) throws RemoteException {
+        if (isReservedName(imageName)) {
+            return null;
+        }
+        if (imageSize <= 0 || imageSize < numParts) {
+            Log.warn("Número de partes inválido para a imagem '" + imageName + "'.");
+            return null;
+        }
+
+        long[] partLengths = partLengths(imageSize, numParts);
+        String[][] targets = chooseTargets(partLengths.length, partLengths[0]);
+        if (targets == null) {
+            return null;
+        }
+
+        String uploadId = UUID.randomUUID().toString();
+        pendingUploads.put(uploadId, new ImageUpload(imageName, imageParts.nextGeneration(), partLengths, targets));
+        return uploadId;
+    }
+
+    // Emite um plano de escrita para que o cliente envie as partes diretamente aos DataNodes
+    @Override
+    public WritePlan planImageUpload(String imageName, long imageSize, int numParts) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return createPlan(imageName, imageSize, numParts);
+        } finally {
+            metrics.record("planImageUpload", start);
+        }
+    }
+
+    // Escolhe os DataNodes das partes e guarda o plano até a confirmação
+    private WritePlan createPlan(String imageName, long imageSize, int numParts) {
+        if (isReservedName(imageName)) {
+            return null;
+        }
+        if (imageSize <= 0 || imageSize < numParts) {
+            Log.warn("Número de partes inválido para a imagem '" + imageName + "'.");
+            return null;
+        }
+
+        long[] partLengths = partLengths(imageSize, numParts);
+        String[][] targets = chooseTargets(partLengths.length, partLengths[0]);
+        if (targets == null) {
+            return null;
+        }
+
+        // As partes do plano são gravadas sob o nome de uma nova versão e só substituem a versão registrada na confirmação
+        long generation = imageParts.nextGeneration();
+        long[] partOffsets = new long[partLengths.length];
+        PartKey[] partKeys = new PartKey[partLengths.length];
+        DataNodeInterface[][] dataNodeRefs = new DataNodeInterface[partLengths.length][];
+        for (int i = 0; i < partLengths.length; i++) {
+            partOffsets[i] = (i == 0) ? 0 : partOffsets[i - 1] + partLengths[i - 1];
+            partKeys[i] = new PartKey(ImageRecord.storedName(imageName, generation), i);
+            dataNodeRefs[i] = registeredReplicas(targets[i]);
+            if (dataNodeRefs[i].length != targets[i].length) {
+                Log.warn("DataNode removido durante o planejamento do upload da imagem '" + imageName + "'.");
+                return null;
+            }
+        }
+
+        String token = UUID.randomUUID().toString();
+        pendingPlans.put(token, new PendingPlan(imageName, generation, targets, partLengths, 0, imageSize));
+        return new WritePlan(token, imageName, partOffsets, partLengths, dataNodeRefs, 0, imageSize, partKeys, partCodec);
+    }
+
+    // Emite um plano de escrita deduplicado: o cliente informa o tamanho e o hash de cada parte, e somente as partes
+    // cujo conteúdo ainda não está armazenado recebem DataNodes de destino. Cada conteúdo novo é gravado uma única
+    // vez, como o bloco "#<hash>", mesmo que se repita em várias partes da imagem.
+    @Override
+    public WritePlan planDeduplicatedUpload(String imageName, long[] partLengths, List<String> partHashes) throws RemoteException {
+        long start = System.nanoTime();
         try {
-            int partSize = imageData.length / numParts; // Tamanho de cada parte da imagem
-        
+            return createDeduplicatedPlan(imageName, partLengths, partHashes);
+        } finally {
+            metrics.record("planDeduplicatedUpload", start);
+        }
+    }
+
+    // Escolhe os DataNodes dos blocos novos e guarda o plano até a confirmação
+    private WritePlan createDeduplicatedPlan(String imageName, long[] partLengths, List<String> partHashes) {
+        int numParts = partLengths.length;
+        if (isReservedName(imageName)) {
+            return null;
+        }
+        if (numParts == 0 || partHashes.size() != numParts || Arrays.stream(partLengths).anyMatch(length -> length <= 0)
+                || !partHashes.stream().allMatch(ContentHash::isValid)) {
+            Log.warn("Partes inválidas para o upload deduplicado da imagem '" + imageName + "'.");
+            return null;
+        }
+
+        String[] blocks = new String[numParts];
+        String[][] targets = new String[numParts][];
+        long[] partOffsets = new long[numParts];
+        PartKey[] partKeys = new PartKey[numParts];
+        DataNodeInterface[][] dataNodeRefs = new DataNodeInterface[numParts][];
+        int stored = 0;
+        synchronized (blockLock) {
+            // Blocos novos, cada um associado à primeira parte com o seu conteúdo
+            Map<String, Integer> newBlocks = new LinkedHashMap<>();
+            for (int i = 0; i < numParts; i++) {
+                blocks[i] = ContentHash.blockName(partHashes.get(i));
+                ImageRecord block = imageParts.get(blocks[i]);
+                if (block != null && block.getPartLength(0) != partLengths[i]) {
+                    Log.warn("Bloco '" + blocks[i] + "' com tamanho divergente no upload da imagem '" + imageName + "'.");
+                    return null;
+                }
+                if (block != null && block.getNodes(0).length > 0) {
+                    stored++;
+                } else {
+                    newBlocks.putIfAbsent(blocks[i], i);
+                }
+            }
+
+            String[][] chosen = newBlocks.isEmpty() ? new String[0][] : chooseTargets(newBlocks.size(), Arrays.stream(partLengths).max().getAsLong());
+            if (chosen == null) {
+                return null;
+            }
+            int next = 0;
+            for (int i = 0; i < numParts; i++) {
+                partOffsets[i] = (i == 0) ? 0 : partOffsets[i - 1] + partLengths[i - 1];
+                partKeys[i] = new PartKey(blocks[i], 0);
+                Integer first = newBlocks.get(blocks[i]);
+                targets[i] = first != null && first == i ? chosen[next++] : new String[0];
+                dataNodeRefs[i] = registeredReplicas(targets[i]);
+                if (dataNodeRefs[i].length != targets[i].length) {
+                    Log.warn("DataNode removido durante o planejamento do upload da imagem '" + imageName + "'.");
+                    return null;
+                }
+            }
+            // O plano pendente protege os blocos reaproveitados até a confirmação do upload
+            String token = UUID.randomUUID().toString();
+            pendingPlans.put(token, new PendingPlan(imageName, targets, partLengths, Arrays.stream(partLengths).sum(), blocks));
+            Log.debug("Upload deduplicado da imagem '" + imageName + "': " + stored + " de " + numParts
+                    + " partes já armazenadas.");
+            return new WritePlan(token, imageName, partOffsets, partLengths, dataNodeRefs, 0, Arrays.stream(partLengths).sum(), partKeys,
+                    partCodec);
+        }
+    }
+
+    // Emite um plano de escrita com erasure coding: k partes de dados e m de paridade, cada uma em um DataNode distinto
+    @Override
+    public WritePlan planErasureCodedUpload(String imageName, long imageSize, int dataShards, int parityShards) throws RemoteException {
+        int totalShards = dataShards + parityShards;
+        if (isReservedName(imageName)) {
+            return null;
+        }
+        if (dataShards <= 0 || parityShards <= 0 || totalShards > 256 || imageSize <= 0) {
+            Log.warn("Configuração de erasure coding inválida para a imagem '" + imageName + "'.");
+            return null;
+        }
+
+        List<String> availableDataNodes = liveDataNodes();
+        if (availableDataNodes.size() < totalShards) {
+            Log.warn("São necessários " + totalShards + " DataNodes distintos para " + dataShards + "+" + parityShards
+                    + "; disponíveis: " + availableDataNodes.size() + ".");
+            return null;
+        }
+        // Todas as partes têm o mesmo tamanho; a última parte de dados é completada com zeros
+        long shardLength = (imageSize + dataShards - 1) / dataShards;
+        // Uma "parte" com totalShards réplicas resulta em totalShards DataNodes distintos, um para cada parte
+        String[] shardNodes = placementPolicy.chooseTargets(availableDataNodes, 1, totalShards, shardLength, nodeStats)[0];
+        long generation = imageParts.nextGeneration();
+        String[][] targets = new String[totalShards][];
+        long[] partOffsets = new long[totalShards];
+        PartKey[] partKeys = new PartKey[totalShards];
+        long[] partLengths = new long[totalShards];
+        DataNodeInterface[][] dataNodeRefs = new DataNodeInterface[totalShards][];
+        for (int i = 0; i < totalShards; i++) {
+            targets[i] = new String[] {shardNodes[i]};
+            partOffsets[i] = (long) i * shardLength;
+            partLengths[i] = shardLength;
+            partKeys[i] = new PartKey(ImageRecord.storedName(imageName, generation), i);
+            dataNodeRefs[i] = registeredReplicas(targets[i]);
+            if (dataNodeRefs[i].length == 0) {
+                Log.warn("DataNode removido durante o planejamento do upload da imagem '" + imageName + "'.");
+                return null;
+            }
+        }
+
+        String token = UUID.randomUUID().toString();
+        pendingPlans.put(token, new PendingPlan(imageName, generation, targets, partLengths, parityShards, imageSize));
+        return new WritePlan(token, imageName, partOffsets, partLengths, dataNodeRefs, parityShards, imageSize, partKeys);
+    }
+
+    // Confirma um plano de escrita após o cliente gravar todas as partes, registrando a imagem
+    @Override
+    public boolean commitImageUpload(String token) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return commitPlan(token);
+        } finally {
+            metrics.record("commitImageUpload", start);
+        }
+    }
+
+    // Registra no catálogo a imagem de um plano de escrita
+    private boolean commitPlan(String token) {
+        PendingPlan plan = pendingPlans.get(token);
+        if (plan == null) {
+            Log.warn("Plano de escrita desconhecido ou expirado: " + token);
+            return false;
+        }
+        if (plan.blocks != null) {
+            return commitDeduplicatedUpload(token, plan);
+        }
+        // Até ser registrada, a versão continua protegida da limpeza feita a partir dos relatórios dos DataNodes
+        storingVersions.add(plan.storedName());
+        try {
+            if (pendingPlans.remove(token) == null) {
+                return false; // Confirmado, cancelado ou expirado por outra chamada
+            }
+            return registerPlan(plan);
+        } finally {
+            storingVersions.remove(plan.storedName());
+        }
+    }
+
+    // Registra a versão gravada por um plano de escrita, removendo as partes da versão que ela substitui
+    private boolean registerPlan(PendingPlan plan) {
+        for (String[] replicas : plan.targets) {
+            for (String dataNodeId : replicas) {
+                if (!dataNodes.containsKey(dataNodeId)) {
+                    Log.warn("DataNode " + dataNodeId + " indisponível ao confirmar a imagem '" + plan.imageName + "'.");
+                    discardPlan(plan);
+                    return false;
+                }
+            }
+        }
+        // A nova versão passa a ser a registrada; como as suas partes têm nome próprio, se o registro não puder ser
+        // gravado no diário a versão anterior continua intacta e as partes do plano são descartadas
+        ImageRecord replaced = imageParts.get(plan.imageName);
+        if (!imageParts.put(plan.imageName, plan.targets, plan.partLengths, plan.parityShards, plan.imageSize, null, plan.generation)) {
+            discardPlan(plan);
+            return false;
+        }
+        // As partes da versão substituída e a sua miniatura (a da nova versão, se houver, é enviada pelo cliente após a
+        // confirmação) são removidas
+        Map<String, List<PartKey>> discarded = new HashMap<>();
+        collectParts(plan.imageName, replaced, discarded);
+        removeThumbnail(plan.imageName, discarded);
+        deleteParts(discarded);
+        Log.debug("Imagem '" + plan.imageName + "' armazenada com sucesso.");
+        return true;
+    }
+
+    // Registra os blocos novos de um upload deduplicado e, em seguida, a imagem que aponta para eles. As cópias de um
+    // bloco já registrado (gravado ao mesmo tempo por outro upload, ou que havia perdido todas as réplicas) são
+    // acrescentadas às suas réplicas.
+    private boolean commitDeduplicatedUpload(String token, PendingPlan plan) {
+        Map<String, List<PartKey>> discarded = new HashMap<>();
+        ImageRecord replaced;
+        try {
+            synchronized (blockLock) {
+                if (pendingPlans.remove(token) == null) {
+                    return false; // Confirmado, cancelado ou expirado por outra chamada
+                }
+                for (int i = 0; i < plan.targets.length; i++) {
+                    for (String dataNodeId : plan.targets[i]) {
+                        if (!dataNodes.containsKey(dataNodeId)) {
+                            Log.warn("DataNode " + dataNodeId + " indisponível ao confirmar a imagem '" + plan.imageName + "'.");
+                            abandonDeduplicatedUpload(plan, discarded);
+                            return false;
+                        }
+                    }
+                }
+                for (int i = 0; i < plan.targets.length; i++) {
+                    if (plan.targets[i].length == 0) {
+                        continue;
+                    }
+                    ImageRecord block = imageParts.get(plan.blocks[i]);
+                    if (block == null) {
+                        if (!imageParts.put(plan.blocks[i], new String[][] {plan.targets[i]}, new long[] {plan.partLengths[i]})) {
+                            abandonDeduplicatedUpload(plan, discarded);
+                            return false;
+                        }
+                        continue;
+                    }
+                    for (String dataNodeId : plan.targets[i]) {
+                        imageParts.updateReplica(plan.blocks[i], 0, dataNodeId, true);
+                    }
+                }
+                for (String block : plan.blocks) {
+                    if (imageParts.get(block) == null) {
+                        Log.warn("Bloco '" + block + "' removido durante o upload da imagem '" + plan.imageName + "'.");
+                        abandonDeduplicatedUpload(plan, discarded);
+                        return false;
+                    }
+                }
+
+                replaced = imageParts.get(plan.imageName);
+                String[][] partNodes = new String[plan.blocks.length][0];
+                if (!imageParts.put(plan.imageName, partNodes, plan.partLengths, 0, plan.imageSize, plan.blocks)) {
+                    abandonDeduplicatedUpload(plan, discarded);
+                    return false;
+                }
+            }
+            // Partes da versão anterior da imagem, ou os seus blocos que ficaram sem referências
+            collectParts(plan.imageName, replaced, discarded);
+            removeThumbnail(plan.imageName, discarded);
+        } finally {
+            deleteParts(discarded);
+        }
+        Log.debug("Imagem '" + plan.imageName + "' armazenada com sucesso.");
+        return true;
+    }
+
+    // Desfaz um upload deduplicado que não pôde ser registrado: remove as cópias que não entraram no catálogo e os blocos
+    // que ficaram sem referências, inclusive os registrados pela própria confirmação. Chamado com blockLock.
+    private void abandonDeduplicatedUpload(PendingPlan plan, Map<String, List<PartKey>> batches) {
+        discardPlan(plan);
+        releaseBlocks(plan.blocks, batches);
+    }
+
+    // Cancela um plano de escrita, removendo as partes que o cliente possa ter gravado
+    @Override
+    public void cancelImageUpload(String token) throws RemoteException {
+        PendingPlan plan = pendingPlans.remove(token);
+        if (plan != null) {
+            discardPlan(plan);
+        }
+    }
+
+    // Remove as partes gravadas para um plano não confirmado. Nos uploads deduplicados, só são removidas as cópias de
+    // blocos que não estejam registradas no catálogo (o mesmo bloco pode ter sido gravado por outro upload).
+    private void discardPlan(PendingPlan plan) {
+        if (plan.blocks == null) {
+            discardParts(plan.storedName(), plan.targets);
+            return;
+        }
+        Map<String, List<PartKey>> batches = new HashMap<>();
+        for (int i = 0; i < plan.targets.length; i++) {
+            ImageRecord block = imageParts.get(plan.blocks[i]);
+            List<String> holders = block == null ? Collections.emptyList() : Arrays.asList(block.getNodes(0));
+            for (String dataNodeId : plan.targets[i]) {
+                if (!holders.contains(dataNodeId)) {
+                    batches.computeIfAbsent(dataNodeId, id -> new ArrayList<>()).add(new PartKey(plan.blocks[i], 0));
+                }
+            }
+        }
+        deleteParts(batches);
+    }
+
+    // Seleciona DataNodes distintos para as réplicas de cada parte, segundo a política de distribuição;
+    // retorna null se não houver DataNodes
+    private String[][] chooseTargets(int numParts, long partSize) {
+        List<String> availableDataNodes = liveDataNodes();
+        if (availableDataNodes.isEmpty()) {
+            Log.warn("Nenhum DataNode disponível para armazenar a imagem.");
+            return null;
+        }
+
+        int replicas = Math.min(Math.max(replicationFactor, 1), availableDataNodes.size());
+        if (replicas < replicationFactor) {
+            Log.warn("Apenas " + replicas + " DataNode(s) disponível(is); fator de replicação reduzido.");
+        }
+
+        return placementPolicy.chooseTargets(availableDataNodes, numParts, replicas, partSize, nodeStats);
+    }
+
+    // Retorna as referências dos DataNodes ativos entre as réplicas informadas, com a preferida para leitura primeiro
+    private DataNodeInterface[] registeredReplicas(String[] dataNodeIds) {
+        List<String> live = new ArrayList<>();
+        for (String dataNodeId : dataNodeIds) {
+            if (dataNodes.containsKey(dataNodeId) && isAlive(dataNodeId)) {
+                live.add(dataNodeId);
+            }
+        }
+        placementPolicy.orderReplicas(live, nodeStats);
+        List<DataNodeInterface> replicas = new ArrayList<>();
+        for (String dataNodeId : live) {
+            DataNodeInterface dataNode = dataNodes.get(dataNodeId);
+            if (dataNode != null) {
+                replicas.add(dataNode);
+            }
+        }
+        return replicas.toArray(new DataNodeInterface[0]);
+    }
+
+    // Calcula o tamanho de cada parte: partes iguais, com o restante na última parte. Sem o número de partes
+    // (numParts <= 0), a imagem é dividida em partes com o tamanho alvo do Chunker.
+    private static long[] partLengths(long imageSize, int numParts) {
+        if (numParts <= 0) {
+            return imageSize == 0 ? new long[] {0} : AUTOMATIC_CHUNKER.split(null, imageSize);
+        }
+        long partSize = imageSize / numParts;
+        long[] lengths = new long[numParts];
+        Arrays.fill(lengths, partSize);
+        lengths[numParts - 1] = imageSize - partSize * (numParts - 1);
+        return lengths;
+    }
+
+    // Remove, em cada DataNode indicado, a parte correspondente de uma versão não registrada (melhor esforço)
+    private void discardParts(String storedName, String[][] targets) {
+        Map<String, List<PartKey>> batches = new HashMap<>();
+        groupParts(storedName, targets, batches);
+        for (Map.Entry<String, List<PartKey>> batch : batches.entrySet()) {
+            DataNodeInterface dataNode = dataNodes.get(batch.getKey());
+            try {
+                if (dataNode != null) {
+                    dataNode.deleteParts(batch.getValue());
+                }
+            } catch (RemoteException e) {
+                Log.error("Erro ao remover parte de upload cancelado: " + e.getMessage());
+            }
+        }
+    }
+
+    // Reconcilia o catálogo com o inventário de um DataNode; retorna false se ele não estiver registrado
+    @Override
+    public boolean reportBlocks(String dataNodeId, BlockReport report) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return reconcileBlocks(dataNodeId, report);
+        } finally {
+            metrics.record("reportBlocks", start);
+        }
+    }
+
+    // Aplica o relatório de blocos ao catálogo
+    private boolean reconcileBlocks(String dataNodeId, BlockReport report) {
+        if (!dataNodes.containsKey(dataNodeId)) {
+            return false;
+        }
+        lastHeartbeats.put(dataNodeId, System.currentTimeMillis());
+
+        int adopted = 0, missing = 0, orphans = 0, stale = 0;
+        Set<String> reported = report.isFull() ? new HashSet<>() : null;
+        for (int i = 0; i < report.size(); i++) {
+            // O DataNode relata o nome sob o qual a parte está gravada, que inclui a versão da imagem
+            String storedName = report.getImageName(i);
+            String imageName = ImageRecord.imageNameOf(storedName);
+            long generation = ImageRecord.generationOf(storedName);
+            int partNumber = report.getPartNumber(i);
+
+            if (report.isRemoved(i)) {
+                if (imageParts.updateReplica(imageName, partNumber, dataNodeId, false, generation)) {
+                    missing++;
+                }
+                continue;
+            }
+            if (reported != null) {
+                reported.add(storedName + "\u0000" + partNumber);
+            }
+
+            ImageRecord record = imageParts.get(imageName);
+            if (record != null && record.getGeneration() == generation && !record.isDeduplicated()) {
+                // Réplica que o catálogo não conhecia (por exemplo, de um DataNode que voltou): passa a ser usada, pois
+                // pertence à versão registrada
+                if (partNumber < record.getNumParts() && report.getPartLength(i) == record.getPartLength(partNumber)
+                        && imageParts.updateReplica(imageName, partNumber, dataNodeId, true, generation)) {
+                    adopted++;
+                }
+            } else if (record != null) {
+                // Parte de outra versão da imagem: uma versão substituída (ou a versão anterior de uma imagem que
+                // agora é deduplicada) é removida; a de um upload ainda não confirmado é mantida
+                if (!isUploadPending(storedName)) {
+                    deleteStalePart(dataNodeId, storedName, partNumber);
+                    stale++;
+                }
+            } else if (!isUploadPending(storedName)) {
+                if (deletedImages.containsKey(imageName)) {
+                    deleteStalePart(dataNodeId, storedName, partNumber);
+                } else {
+                    orphanImages.computeIfAbsent(storedName, name -> new OrphanImage())
+                            .add(partNumber, report.getPartLength(i), dataNodeId);
+                    orphans++;
+                }
+            }
+        }
+
+        // No relatório completo, réplicas atribuídas a este DataNode que não foram relatadas são suspeitas; elas só
+        // são retiradas do catálogo se continuarem ausentes no relatório completo seguinte, pois uma parte gravada
+        // enquanto o relatório era montado pode ter sido confirmada antes de ele chegar
+        if (reported != null) {
+            Set<String> previous = suspectedMissing.getOrDefault(dataNodeId, Collections.emptySet());
+            Set<String> suspects = new HashSet<>();
+            for (String imageName : imageParts.imagesOn(dataNodeId)) {
+                ImageRecord record = imageParts.get(imageName);
+                for (int part = 0; record != null && part < record.getNumParts(); part++) {
+                    String key = record.storedName(imageName) + "\u0000" + part;
+                    if (!Arrays.asList(record.getNodes(part)).contains(dataNodeId) || reported.contains(key)) {
+                        continue;
+                    }
+                    if (!previous.contains(key)) {
+                        suspects.add(key);
+                    } else if (imageParts.updateReplica(imageName, part, dataNodeId, false, record.getGeneration())) {
+                        Log.warn("Réplica da parte " + part + " da imagem '" + imageName + "' ausente no DataNode " + dataNodeId + ".");
+                        missing++;
+                    }
+                }
+            }
+            suspectedMissing.put(dataNodeId, suspects);
+        }
+
+        if (adopted + missing + orphans + stale > 0) {
+            Log.info("Relatório do DataNode " + dataNodeId + ": " + adopted + " réplicas adotadas, "
+                    + missing + " ausentes, " + orphans + " partes órfãs, " + stale + " de versões substituídas.");
+        }
+        return true;
+    }
+
+    // Verifica se há um upload em andamento que grava partes sob o nome informado (versão da imagem ou bloco), ainda
+    // fora do catálogo
+    private boolean isUploadPending(String storedName) {
+        for (PendingPlan plan : pendingPlans.values()) {
+            if (plan.storedName().equals(storedName) || (plan.blocks != null && Arrays.asList(plan.blocks).contains(storedName))) {
+                return true;
+            }
+        }
+        for (ImageUpload upload : pendingUploads.values()) {
+            if (upload.storedName().equals(storedName)) {
+                return true;
+            }
+        }
+        return storingVersions.contains(storedName);
+    }
+
+    // Remove, em segundo plano, uma parte de imagem excluída ou de versão substituída que permaneceu em um DataNode
+    private void deleteStalePart(String dataNodeId, String storedName, int partNumber) {
+        scheduler.execute(() -> {
+            DataNodeInterface dataNode = dataNodes.get(dataNodeId);
+            try {
+                if (dataNode != null) {
+                    dataNode.deletePart(storedName, partNumber);
+                }
+            } catch (RemoteException e) {
+                Log.warn("Falha ao remover a parte " + partNumber + " de '" + storedName + "' do DataNode " + dataNodeId + ".");
+            }
+        });
+    }
+
+    // Reconstrói no catálogo as imagens órfãs completas (partes 0..n-1 presentes), após todos os DataNodes
+    // terem tido tempo de relatar suas partes. Como o inventário não informa o modo de armazenamento, as imagens
+    // são adotadas no modo de replicação; imagens com erasure coding dependem do diário de metadados. Quando há
+    // partes de mais de uma versão da mesma imagem, a versão mais recente é adotada primeiro.
+    private void adoptOrphanImages() {
+        long now = System.currentTimeMillis();
+        deletedImages.values().removeIf(deletedAt -> now - deletedAt > DELETED_RETENTION_MS);
+
+        List<String> storedNames = new ArrayList<>(orphanImages.keySet());
+        storedNames.sort(Comparator.comparingLong(ImageRecord::generationOf).reversed());
+        for (String storedName : storedNames) {
+            String imageName = ImageRecord.imageNameOf(storedName);
+            OrphanImage orphan = orphanImages.get(storedName);
+            if (orphan == null || now - orphan.firstSeen < ORPHAN_GRACE_MS || isUploadPending(storedName)) {
+                continue;
+            }
+            orphanImages.remove(storedName);
+            if (imageParts.get(imageName) != null || deletedImages.containsKey(imageName)) {
+                continue;
+            }
+            if (ContentHash.isBlockName(imageName)) {
+                // Bloco gravado por um upload deduplicado que não foi confirmado: sem referências, é removido
+                synchronized (orphan) {
+                    for (Map.Entry<Integer, Set<String>> part : orphan.parts.entrySet()) {
+                        for (String dataNodeId : part.getValue()) {
+                            deleteStalePart(dataNodeId, imageName, part.getKey());
+                        }
+                    }
+                }
+                continue;
+            }
+
+            synchronized (orphan) {
+                int numParts = orphan.parts.size();
+                if (numParts == 0 || orphan.parts.lastKey() != numParts - 1) {
+                    Log.warn("Imagem órfã '" + storedName + "' incompleta; partes " + orphan.parts.keySet() + " mantidas fora do catálogo.");
+                    continue;
+                }
+                String[][] partNodes = new String[numParts][];
+                long[] partLengths = new long[numParts];
+                for (int i = 0; i < numParts; i++) {
+                    partNodes[i] = orphan.parts.get(i).toArray(new String[0]);
+                    partLengths[i] = orphan.lengths.get(i);
+                }
+                if (imageParts.put(imageName, partNodes, partLengths, ImageRecord.generationOf(storedName))) {
+                    Log.info("Imagem órfã '" + imageName + "' adotada a partir dos relatórios dos DataNodes.");
+                }
+            }
+        }
+    }
+
+    // Descarta planos de escrita que não foram confirmados dentro do prazo
+    private void expirePendingPlans() {
+        long deadline = System.currentTimeMillis() - PLAN_TIMEOUT_MS;
+        pendingPlans.entrySet().removeIf(entry -> {
+            if (entry.getValue().createdAt < deadline) {
+                discardPlan(entry.getValue());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    // Recebe um bloco da imagem e o repassa às sessões de upload das réplicas da parte correspondente
+    @Override
+    public boolean writeImageChunk(String uploadId, byte[] chunk) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return forwardChunk(uploadId, chunk);
+        } finally {
+            metrics.record("writeImageChunk", start);
+        }
+    }
+
+    // Repassa o bloco às réplicas das partes do upload
+    private boolean forwardChunk(String uploadId, byte[] chunk) {
+        ImageUpload upload = pendingUploads.get(uploadId);
+        if (upload == null) {
+            Log.warn("Upload desconhecido: " + uploadId);
+            return false;
+        }
+
+        synchronized (upload) {
+            int offset = 0;
+            while (offset < chunk.length) {
+                if (upload.currentPart >= upload.targets.length) {
+                    Log.warn("Dados excedem o tamanho declarado da imagem '" + upload.imageName + "'.");
+                    abortImageUpload(uploadId, upload);
+                    return false;
+                }
+                if (upload.writtenInPart == 0) {
+                    // O quadro de uma parte depende dos seus primeiros bytes: enquanto eles não chegam, independentemente
+                    // da divisão dos blocos, o início da parte é retido
+                    int prefixLength = (int) Math.min(PartCodec.MAGIC_SIZE, upload.partLengths[upload.currentPart]);
+                    byte[] held = upload.heldPrefix == null ? new byte[0] : upload.heldPrefix;
+                    if (held.length + chunk.length - offset < prefixLength) {
+                        upload.heldPrefix = concat(held, chunk, offset);
+                        return true;
+                    }
+                    if (held.length > 0) {
+                        chunk = concat(held, chunk, offset);
+                        offset = 0;
+                        upload.heldPrefix = null;
+                    }
+                }
+
+                String[] replicas = upload.targets[upload.currentPart];
+                // Envia somente os bytes que pertencem à parte atual
+                int length = (int) Math.min(chunk.length - offset, upload.remainingInPart());
+                byte[] slice = (offset == 0 && length == chunk.length) ? chunk : Arrays.copyOfRange(chunk, offset, offset + length);
+                boolean partComplete = upload.remainingInPart() == length;
+                // Uma parte que começa com o cabeçalho dos quadros do PartCodec é gravada em um quadro sem compressão,
+                // para não ser confundida com uma parte comprimida na leitura; o primeiro trecho da parte tem ao menos
+                // os bytes de MAGIC (ou a parte inteira, se menor)
+                byte[] frameHeader = upload.writtenInPart == 0 && PartCodec.startsWithMagic(slice)
+                        ? PartCodec.header(PartCodec.NONE, upload.partLengths[upload.currentPart]) : null;
+
+                for (int r = 0; r < replicas.length; r++) {
+                    String dataNodeId = replicas[r];
+                    DataNodeInterface dataNode = dataNodes.get(dataNodeId);
+                    try {
+                        if (dataNode == null) {
+                            Log.warn("DataNode " + dataNodeId + " não registrado.");
+                            abortImageUpload(uploadId, upload);
+                            return false;
+                        }
+                        if (upload.sessionIds[r] == null) {
+                            upload.sessionIds[r] = dataNode.openUpload(upload.storedName(), upload.currentPart);
+                        }
+                        if (upload.sessionIds[r] == null
+                                || (frameHeader != null && !dataNode.writeChunk(upload.sessionIds[r], frameHeader))
+                                || !dataNode.writeChunk(upload.sessionIds[r], slice)) {
+                            Log.warn("Falha ao armazenar a parte " + upload.currentPart + " da imagem '" + upload.imageName + "'.");
+                            upload.sessionIds[r] = null;
+                            abortImageUpload(uploadId, upload);
+                            return false;
+                        }
+
+                        // Conclui a réplica no DataNode quando todos os bytes da parte foram recebidos
+                        if (partComplete) {
+                            String sessionId = upload.sessionIds[r];
+                            upload.sessionIds[r] = null;
+                            if (!dataNode.commitUpload(sessionId)) {
+                                Log.warn("Falha ao armazenar a parte " + upload.currentPart + " da imagem '" + upload.imageName + "'.");
+                                abortImageUpload(uploadId, upload);
+                                return false;
+                            }
+                        }
+                    } catch (RemoteException e) {
+                        upload.sessionIds[r] = null;
+                        abortImageUpload(uploadId, upload);
+                        if (isTransportFailure(e)) {
+                            // Notifica o serviço de monitoramento caso o DataNode esteja inacessível
+                            Log.warn("DataNode " + dataNodeId + " inacessível durante o upload. Notificando o MonitorService.");
+                            notifyMonitorService(dataNodeId);
+                        } else {
+                            Log.warn("Erro do DataNode " + dataNodeId + " ao armazenar a parte " + upload.currentPart
+                                    + " da imagem '" + upload.imageName + "': " + e.getMessage());
+                        }
+                        return false;
+                    }
+                }
+
+                offset += length;
+                upload.writtenInPart += length;
+                if (partComplete) {
+                    upload.currentPart++;
+                    upload.writtenInPart = 0;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Bytes retidos seguidos do restante do bloco a partir de 'offset'
+    private static byte[] concat(byte[] held, byte[] chunk, int offset) {
+        byte[] joined = Arrays.copyOf(held, held.length + chunk.length - offset);
+        System.arraycopy(chunk, offset, joined, held.length, chunk.length - offset);
+        return joined;
+    }
+
+    // Finaliza o upload em blocos e registra o mapeamento das partes da imagem
+    @Override
+    public boolean finishImageUpload(String uploadId) throws RemoteException {
+        ImageUpload upload = pendingUploads.get(uploadId);
+        if (upload == null) {
+            Log.warn("Upload desconhecido: " + uploadId);
+            return false;
+        }
+        // Até ser registrada, a versão continua protegida da limpeza feita a partir dos relatórios dos DataNodes
+        storingVersions.add(upload.storedName());
+        try {
+            return pendingUploads.remove(uploadId) != null && registerUpload(uploadId, upload);
+        } finally {
+            storingVersions.remove(upload.storedName());
+        }
+    }
+
+    // Registra a versão gravada por um upload em blocos, removendo as partes da versão que ela substitui
+    private boolean registerUpload(String uploadId, ImageUpload upload) {
+        synchronized (upload) {
+            if (upload.currentPart != upload.targets.length) {
+                Log.warn("Upload da imagem '" + upload.imageName + "' incompleto.");
+                abortImageUpload(uploadId, upload);
+                return false;
+            }
+            ImageRecord replaced = imageParts.get(upload.imageName);
+            if (!imageParts.put(upload.imageName, upload.targets, upload.partLengths, upload.generation)) {
+                discardParts(upload.storedName(), upload.targets);
+                return false;
+            }
+            Map<String, List<PartKey>> discarded = new HashMap<>();
+            collectParts(upload.imageName, replaced, discarded);
+            removeThumbnail(upload.imageName, discarded);
+            deleteParts(discarded);
+            Log.debug("Imagem '" + upload.imageName + "' armazenada com sucesso.");
+            return true;
+        }
+    }
+
+    // Cancela um upload em blocos, descartando as sessões abertas e as partes já gravadas
+    private void abortImageUpload(String uploadId, ImageUpload upload) {
+        pendingUploads.remove(uploadId);
+        if (upload.currentPart < upload.targets.length) {
+            String[] replicas = upload.targets[upload.currentPart];
+            for (int r = 0; r < replicas.length; r++) {
+                DataNodeInterface dataNode = dataNodes.get(replicas[r]);
+                try {
+                    if (upload.sessionIds[r] != null && dataNode != null) {
+                        dataNode.abortUpload(upload.sessionIds[r]);
+                    }
+                } catch (RemoteException e) {
+                    Log.error("Erro ao cancelar a sessão de upload: " + e.getMessage());
+                }
+            }
+        }
+        discardParts(upload.storedName(), Arrays.copyOf(upload.targets, upload.currentPart));
+    }
+
+    // Migra partes dos DataNodes acima da sua parcela de ocupação (proporcional à capacidade) para os que estão
+    // abaixo dela, como os nós recém-criados pelo MonitorService. Cada rodada migra no máximo
+    // REBALANCE_BYTES_PER_ROUND, para não disputar a rede e os discos com as requisições dos clientes.
+    private void rebalance() {
+        List<String> live = liveDataNodes();
+        long totalUsed = 0, totalCapacity = 0;
+        for (String dataNodeId : live) {
+            NodeStats stats = nodeStats.get(dataNodeId);
+            if (stats == null) {
+                return; // Aguarda o primeiro heartbeat de todos os DataNodes
+            }
+            totalUsed += stats.getUsedBytes();
+            totalCapacity += stats.getCapacity();
+        }
+        if (live.size() < 2 || totalCapacity == 0) {
+            return;
+        }
+
+        // Excesso de cada DataNode em relação à sua parcela; negativo para os que estão abaixo dela
+        Map<String, Long> surplus = new HashMap<>();
+        for (String dataNodeId : live) {
+            NodeStats stats = nodeStats.get(dataNodeId);
+            long share = (long) ((double) totalUsed * stats.getCapacity() / totalCapacity);
+            surplus.put(dataNodeId, stats.getUsedBytes() - share);
+        }
+        long tolerance = Math.max(REBALANCE_MIN_BYTES, (long) (REBALANCE_TOLERANCE * totalUsed / live.size()));
+        if (Collections.max(surplus.values()) <= tolerance || Collections.min(surplus.values()) >= -tolerance) {
+            return;
+        }
+
+        // Percorre somente as partes guardadas pelos DataNodes acima da sua parcela, a começar pelo de maior excesso
+        List<String> donors = new ArrayList<>(live);
+        donors.removeIf(dataNodeId -> surplus.get(dataNodeId) <= tolerance);
+        donors.sort((a, b) -> Long.compare(surplus.get(b), surplus.get(a)));
+        long budget = REBALANCE_BYTES_PER_ROUND;
+        int moved = 0;
+        Set<String> attempted = new HashSet<>(); // No máximo uma réplica de cada parte por rodada
+        for (String donor : donors) {
+            for (String imageName : imageParts.imagesOn(donor)) {
+                ImageRecord record = imageParts.get(imageName);
+                for (int i = 0; record != null && i < record.getNumParts() && budget > 0 && surplus.get(donor) > tolerance; i++) {
+                    if (!Arrays.asList(record.getNodes(i)).contains(donor) || !attempted.add(imageName + "\u0000" + i)) {
+                        continue;
+                    }
+                    long length = record.getPartLength(i);
+                    String receiver = rebalanceTarget(record, i, length, surplus, tolerance);
+                    if (receiver != null && movePart(imageName, record, i, donor, receiver)) {
+                        surplus.merge(donor, -length, Long::sum);
+                        surplus.merge(receiver, length, Long::sum);
+                        budget -= length;
+                        moved++;
+                        record = imageParts.get(imageName); // As próximas partes devem ver o novo detentor
+                    }
+                }
+                if (budget <= 0 || surplus.get(donor) <= tolerance || Collections.min(surplus.values()) >= -tolerance) {
+                    break;
+                }
+            }
+            if (budget <= 0 || Collections.min(surplus.values()) >= -tolerance) {
+                break;
+            }
+        }
+        if (moved > 0) {
+            Log.info("Rebalanceamento: " + moved + " partes (" + (REBALANCE_BYTES_PER_ROUND - budget) + " bytes) migradas.");
+        }
+    }
+
+    // DataNode abaixo da sua parcela que mais precisa receber partes e que ainda não guarda a parte informada
+    // (nem qualquer outra parte da imagem, no caso de erasure coding); null se não houver
+    private String rebalanceTarget(ImageRecord record, int partNumber, long length, Map<String, Long> surplus, long tolerance) {
+        Set<String> holders = new HashSet<>(Arrays.asList(record.getNodes(partNumber)));
+        for (int i = 0; record.isErasureCoded() && i < record.getNumParts(); i++) {
+            holders.addAll(Arrays.asList(record.getNodes(i)));
+        }
+        String best = null;
+        for (Map.Entry<String, Long> entry : surplus.entrySet()) {
+            long deficit = -entry.getValue();
+            if (deficit > tolerance && deficit >= length && !holders.contains(entry.getKey())
+                    && (best == null || entry.getValue() < surplus.get(best))) {
+                best = entry.getKey();
+            }
+        }
+        return best;
+    }
+
+    // Copia uma parte de um DataNode para outro, atualiza o catálogo e só então remove a réplica de origem. O registro
+    // informado é o lido antes da cópia.
+    private boolean movePart(String imageName, ImageRecord record, int partNumber, String donor, String receiver) {
+        DataNodeInterface source = dataNodes.get(donor);
+        DataNodeInterface target = dataNodes.get(receiver);
+        if (source == null || target == null) {
+            return false;
+        }
+        String storedName = record.storedName(imageName);
+        try {
+            if (!target.copyPartFrom(storedName, partNumber, source)) {
+                return false;
+            }
+            // A cópia só é registrada se a imagem ainda estiver na versão lida antes dela; senão a cópia é de uma
+            // versão substituída e é removida, sem tocar nas réplicas da versão atual
+            if (!imageParts.updateReplica(imageName, partNumber, receiver, true, record)) {
+                target.deletePart(storedName, partNumber);
+                return false;
+            }
+            imageParts.updateReplica(imageName, partNumber, donor, false, record);
+            source.deletePart(storedName, partNumber);
+            return true;
+        } catch (RemoteException e) {
+            Log.error("Erro ao migrar a parte " + partNumber + " da imagem '" + imageName + "' de " + donor
+                    + " para " + receiver + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Verifica se a exceção indica que o DataNode não pôde ser alcançado. Exceções lançadas pelo próprio método
+    // remoto chegam como ServerException (ou ServerError) e mostram que o DataNode está respondendo.
+    private static boolean isTransportFailure(RemoteException e) {
+        return !(e instanceof ServerException || e instanceof ServerError);
+    }
+
+    // Notifica o MonitorService sobre a falha de um DataNode
+    private void notifyMonitorService(String dataNodeId) {
+        if (!reportedFailures.add(dataNodeId)) {
+            return; // Falha já comunicada; aguarda o MonitorService substituir o DataNode
+        }
+        try {
+            monitorService.notifyFailure(dataNodeId);
+        } catch (Exception e) {
+            Log.error("Erro ao notificar o MonitorService: " + e.getMessage());
+        }
+    }
+
+    // Método principal para iniciar o MasterServer
+    public static void main(String[] args) {
+        try {
+            // Obtém o fator de replicação a partir dos argumentos (padrão: 1)
+            int replicationFactor = 1;
+            if (args.length > 0) {
+                replicationFactor = Integer.parseInt(args[0]);
+            }
+
+            // Política de confirmação das gravações: all (padrão) ou quorum
+            WritePipeline.AckPolicy ackPolicy = WritePipeline.AckPolicy.ALL;
+            if (args.length > 1) {
+                ackPolicy = WritePipeline.AckPolicy.valueOf(args[1].toUpperCase());
+            }
+
+            // Política de distribuição das partes: p2c (padrão, duas escolhas pela carga) ou random
+            PlacementPolicy placementPolicy = PlacementPolicy.forName(args.length > 2 ? args[2] : null);
+
+            // Compressão das partes: deflate (padrão) ou none
+            int partCodec = PartCodec.forName(args.length > 3 ? args[3] : null);
+
+            // Tamanho máximo, em MB, das imagens de storeImage cuja miniatura é gerada pelo MasterServer (0 desativa)
+            long thumbnailSourceLimit = args.length > 4 ? Long.parseLong(args[4]) * 1024 * 1024 : Thumbnail.DEFAULT_SOURCE_LIMIT;
+
+            // Cria uma instância do MasterServer
+            MasterServer masterServer = new MasterServer(replicationFactor, METADATA_DIR, ackPolicy, placementPolicy, partCodec,
+                    thumbnailSourceLimit);
+            Log.info("Política de confirmação das gravações: " + ackPolicy + "; distribuição das partes: "
+                    + placementPolicy.getClass().getSimpleName() + "; compressão das partes: " + PartCodec.name(partCodec)
+                    + "; miniaturas: " + (thumbnailSourceLimit > 0 ? "até " + thumbnailSourceLimit / (1024 * 1024) + " MB" : "desativadas") + ".");
+
+            // Cria o registro RMI na porta padrão e registra o MasterServer
+            Registry registry = LocateRegistry.createRegistry(1099);
+            registry.rebind("MasterServer", masterServer);
+
+            Log.info("MasterServer iniciado e registrado no RMI Registry.");
+        } catch (Exception e) {
+            // Captura erros na inicialização do MasterServer
+            Log.error("Erro no MasterServer: " + e.getMessage(), e);
+        }
+    }
+
+    // Acompanha as confirmações das réplicas de um storeImages. Uma imagem é aceita quando todas as partes têm as
+    // confirmações exigidas e recusada quando alguma parte não pode mais alcançá-las. Réplicas confirmadas depois
+    // da decisão são acrescentadas ao catálogo (imagem aceita) ou removidas do DataNode (imagem recusada).
+    private class StoreBatch {
+        private static final int PENDING = 0, ACCEPTED = 1, RECORDED = 2, REJECTED = 3;
+
+        final List<String> imageNames;
+        final String[] storedNames; // Nome da versão sob o qual as partes de cada imagem são gravadas
+        final long[] generations;
+        final String[][][] partNodes;
+        final int required;
+        final boolean[][][] acked;
+        final int[][] failures;
+        final int[] states;
+
+        StoreBatch(List<String> imageNames, String[] storedNames, long[] generations, String[][][] partNodes, int required) {
+            this.imageNames = imageNames;
+            this.storedNames = storedNames;
+            this.generations = generations;
+            this.partNodes = partNodes;
+            this.required = required;
+            this.acked = new boolean[partNodes.length][][];
+            this.failures = new int[partNodes.length][];
+            this.states = new int[partNodes.length];
+            for (int j = 0; j < partNodes.length; j++) {
+                acked[j] = new boolean[partNodes[j].length][partNodes[j][0].length];
+                failures[j] = new int[partNodes[j].length];
+            }
+        }
+
+        // Registra o resultado do lote enviado a um DataNode (results == null: todas as réplicas falharam)
+        void complete(String dataNodeId, List<int[]> positions, boolean[] results) {
+            Map<String, List<PartKey>> discarded = new HashMap<>();
+            List<int[]> late = new ArrayList<>();
+            boolean decided = false;
+            synchronized (this) {
+                for (int k = 0; k < positions.size(); k++) {
+                    int[] position = positions.get(k);
+                    int j = position[0], i = position[1];
+                    if (results == null || k >= results.length || !results[k]) {
+                        if (results != null) {
+                            Log.warn("Falha ao armazenar a parte " + new PartKey(storedNames[j], i) + " no DataNode " + dataNodeId + ".");
+                        }
+                        failures[j][i]++;
+                    } else if (states[j] == REJECTED) {
+                        discarded.computeIfAbsent(dataNodeId, id -> new ArrayList<>()).add(new PartKey(storedNames[j], i));
+                    } else {
+                        acked[j][i][position[2]] = true;
+                        if (states[j] == RECORDED) {
+                            late.add(position);
+                        }
+                    }
+                    if (states[j] == PENDING) {
+                        decided |= decide(j, discarded);
+                    }
+                }
+                if (decided) {
+                    notifyAll();
+                }
+            }
+            for (int[] position : late) {
+                imageParts.updateReplica(imageNames.get(position[0]), position[1], dataNodeId, true, generations[position[0]]);
+            }
+            deleteParts(discarded);
+        }
+
+        private boolean decide(int j, Map<String, List<PartKey>> discarded) {
+            boolean accepted = true;
+            for (int i = 0; i < acked[j].length; i++) {
+                int count = 0;
+                for (boolean replica : acked[j][i]) {
+                    count += replica ? 1 : 0;
+                }
+                if (failures[j][i] > acked[j][i].length - required) {
+                    reject(j, discarded);
+                    return true;
+                }
+                accepted &= count >= required;
+            }
+            if (accepted) {
+                states[j] = ACCEPTED;
+            }
+            return accepted;
+        }
+
+        private void reject(int j, Map<String, List<PartKey>> discarded) {
+            states[j] = REJECTED;
+            for (int i = 0; i < acked[j].length; i++) {
+                for (int r = 0; r < acked[j][i].length; r++) {
+                    if (acked[j][i][r]) {
+                        discarded.computeIfAbsent(partNodes[j][i][r], id -> new ArrayList<>()).add(new PartKey(storedNames[j], i));
+                    }
+                }
+            }
+        }
+
+        // Aguarda a decisão sobre uma imagem; retorna true se ela foi aceita
+        synchronized boolean awaitDecision(int j) throws InterruptedException {
+            while (states[j] == PENDING) {
+                wait();
+            }
+            return states[j] == ACCEPTED;
+        }
+
+        // Réplicas confirmadas de cada parte de uma imagem aceita
+        synchronized String[][] ackedNodes(int j) {
+            String[][] nodes = new String[acked[j].length][];
+            for (int i = 0; i < nodes.length; i++) {
+                List<String> partReplicas = new ArrayList<>();
+                for (int r = 0; r < acked[j][i].length; r++) {
+                    if (acked[j][i][r]) {
+                        partReplicas.add(partNodes[j][i][r]);
+                    }
+                }
+                nodes[i] = partReplicas.toArray(new String[0]);
+            }
+            return nodes;
+        }
+
+        // Conclui o registro de uma imagem aceita, incluindo as réplicas confirmadas enquanto ela era gravada
+        // no catálogo; se o registro falhou, a imagem é recusada e suas réplicas são removidas
+        void recorded(int j, boolean success, String[][] recordedNodes) {
+            Map<String, List<PartKey>> discarded = new HashMap<>();
+            String[][] current;
+            synchronized (this) {
+                if (!success) {
+                    reject(j, discarded);
+                    current = null;
+                } else {
+                    states[j] = RECORDED;
+                    current = ackedNodes(j);
+                }
+            }
+            if (current != null) {
+                for (int i = 0; i < current.length; i++) {
+                    for (String dataNodeId : current[i]) {
+                        if (!Arrays.asList(recordedNodes[i]).contains(dataNodeId)) {
+                            imageParts.updateReplica(imageNames.get(j), i, dataNodeId, true, generations[j]);
+                        }
+                    }
+                }
+            }
+            deleteParts(discarded);
+        }
+    }
+
+    // Partes de uma imagem desconhecida relatadas pelos DataNodes: réplicas e tamanho de cada parte
+    private static class OrphanImage {
+        final long firstSeen = System.currentTimeMillis();
+        final TreeMap<Integer, Set<String>> parts = new TreeMap<>();
+        final Map<Integer, Long> lengths = new HashMap<>();
+
+        synchronized void add(int partNumber, long length, String dataNodeId) {
+            Long known = lengths.putIfAbsent(partNumber, length);
+            if (known != null && known != length) {
+                Log.warn("Réplicas divergentes da parte " + partNumber + " relatadas pelo DataNode " + dataNodeId + "; réplica ignorada.");
+                return;
+            }
+            parts.computeIfAbsent(partNumber, part -> new HashSet<>()).add(dataNodeId);
+        }
+    }
+
+    // Estado de um upload em blocos: partes de tamanho igual, com o restante na última parte
+    private static class ImageUpload {
+        final String imageName;
+        final long generation; // Versão sob a qual as partes são gravadas
+        final long[] partLengths;
+        final String[][] targets;
+        final String[] sessionIds; // Sessão aberta em cada réplica da parte atual
+        int currentPart;
+        long writtenInPart;
+        byte[] heldPrefix; // Início da parte atual recebido mas ainda não repassado, por ser curto demais para o quadro
+
+        ImageUpload(String imageName, long generation, long[] partLengths, String[][] targets) {
+            this.imageName = imageName;
+            this.generation = generation;
+            this.partLengths = partLengths;
+            this.targets = targets;
+            this.sessionIds = new String[targets[0].length];
+        }
+
+        String storedName() {
+            return ImageRecord.storedName(imageName, generation);
+        }
+
+        // Quantidade de bytes que ainda faltam para completar a parte atual
+        long remainingInPart() {
+            return partLengths[currentPart] - writtenInPart;
+        }
+    }
+
+    // Plano de escrita emitido ao cliente e ainda não confirmado
+    private static class PendingPlan {
+        final String imageName;
+        final long generation; // Versão sob a qual as partes são gravadas (0 nos uploads deduplicados, que gravam blocos)
+        final String[][] targets;
+        final long[] partLengths;
+        final int parityShards;
+        final long imageSize;
+        final String[] blocks; // Bloco de cada parte nos uploads deduplicados; senão null
+        final long createdAt = System.currentTimeMillis();
+
+        PendingPlan(String imageName, long generation, String[][] targets, long[] partLengths, int parityShards, long imageSize) {
+            this(imageName, generation, targets, partLengths, parityShards, imageSize, null);
+        }
+
+        PendingPlan(String imageName, String[][] targets, long[] partLengths, long imageSize, String[] blocks) {
+            this(imageName, 0, targets, partLengths, 0, imageSize, blocks);
+        }
+
+        private PendingPlan(String imageName, long generation, String[][] targets, long[] partLengths, int parityShards,
+                            long imageSize, String[] blocks) {
+            this.imageName = imageName;
+            this.generation = generation;
+            this.targets = targets;
+            this.partLengths = partLengths;
+            this.parityShards = parityShards;
+            this.imageSize = imageSize;
+            this.blocks = blocks;
+        }
+
+        String storedName() {
+            return ImageRecord.storedName(imageName, generation);
+        }
+    }
+}
@@ -7,8 +7,38 @@ import java.util.Map;
 public interface MasterServerInterface extends Remote {
     void registerDataNode(String dataNodeId, DataNodeInterface dataNode) throws RemoteException;
     void unregisterDataNode(String dataNodeId) throws RemoteException;
+    boolean heartbeat(String dataNodeId, NodeStats stats) throws RemoteException;
+    boolean reportBlocks(String dataNodeId, BlockReport report) throws RemoteException;
     List<String> listImages() throws RemoteException;
+    List<String> listImages(String prefix, String startAfter, int limit) throws RemoteException;
     Map<Integer, DataNodeInterface> getImageParts(String imageName) throws RemoteException;
+    ImageLayout getImageLayout(String imageName) throws RemoteException;
+
+    // Leituras parciais: somente os bytes de um trecho da imagem ou a sua miniatura
+    ImageRange getImageRange(String imageName, long offset, long length) throws RemoteException;
+    ImageLayout getThumbnailLayout(String imageName) throws RemoteException;
+    boolean storeThumbnail(String imageName, byte[] thumbnail) throws RemoteException;
+
     boolean storeImage(String imageName, byte[] imageData, int numParts) throws RemoteException;
     boolean deleteImage(String imageName) throws RemoteException;
+
+    // Operações em lote: as partes destinadas a um mesmo DataNode são agrupadas em uma única chamada
+    boolean[] storeImages(List<String> imageNames, List<byte[]> imagesData, int numParts) throws RemoteException;
+    boolean[] deleteImages(List<String> imageNames) throws RemoteException;
+    List<ImageLayout> getImageLayouts(List<String> imageNames) throws RemoteException;
+
+    // Upload em blocos: a imagem é recebida aos poucos e repassada aos DataNodes sem ser carregada inteira em memória
+    String beginImageUpload(String imageName, long imageSize, int numParts) throws RemoteException;
+    boolean writeImageChunk(String uploadId, byte[] chunk) throws RemoteException;
+    boolean finishImageUpload(String uploadId) throws RemoteException;
+
+    // Escrita direta: o MasterServer só emite o plano de distribuição e o cliente envia as partes aos DataNodes
+    WritePlan planImageUpload(String imageName, long imageSize, int numParts) throws RemoteException;
+    WritePlan planDeduplicatedUpload(String imageName, long[] partLengths, List<String> partHashes) throws RemoteException;
+    WritePlan planErasureCodedUpload(String imageName, long imageSize, int dataShards, int parityShards) throws RemoteException;
+    boolean commitImageUpload(String token) throws RemoteException;
+    void cancelImageUpload(String token) throws RemoteException;
+
+    // Latência de cada operação, bytes recebidos e tamanho das filas e do catálogo do MasterServer
+    MetricsSnapshot getMetrics() throws RemoteException;
 }
@@ -0,0 +1,409 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Diário persistente dos metadados do MasterServer: cada alteração do catálogo é gravada em um log de escrita
+// antecipada (journal.log) antes de ser confirmada ao cliente. Uma única thread grava as alterações pendentes em
+// lote e executa um único fsync por lote (group commit). Quando o log cresce, o catálogo completo é gravado em
+// um snapshot (snapshot.dat) e o log é reiniciado. Na inicialização, o snapshot e o log são lidos via mmap.
+class MetadataJournal {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte PUT_VERSIONED = 3; // PUT seguido da geração da versão (ImageRecord.getGeneration)
+
+    // Tamanho do log a partir do qual um novo snapshot é gravado
+    static final long SNAPSHOT_THRESHOLD = 64L * 1024 * 1024;
+
+    // Número máximo de alterações gravadas em um único lote
+    private static final int MAX_BATCH = 4096;
+
+    // Intervalo entre as verificações das alterações pendentes enquanto um snapshot aguarda a sua conclusão
+    private static final long COMPACTION_POLL_MS = 5;
+
+    private final Path directory;
+    private final Path logPath;
+    private final Path snapshotPath;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private FileChannel log;
+    private MetadataStore store;
+    private volatile boolean closed;
+    // Definido quando um lote que falhou não pôde ser removido do log; a partir daí as alterações são recusadas
+    private volatile boolean failed;
+
+    MetadataJournal(String directory) {
+        this.directory = Paths.get(directory);
+        this.logPath = this.directory.resolve("journal.log");
+        this.snapshotPath = this.directory.resolve("snapshot.dat");
+    }
+
+    // Restaura o catálogo a partir do snapshot e do log e inicia a thread de gravação
+    void open(MetadataStore store) throws IOException {
+        this.store = store;
+        Files.createDirectories(directory);
+
+        long start = System.currentTimeMillis();
+        int snapshotRecords = replay(snapshotPath, false);
+        int logRecords = replay(logPath, true);
+        Log.info("Metadados restaurados: " + store.size() + " imagens (" + snapshotRecords + " do snapshot, "
+                + logRecords + " do log) em " + (System.currentTimeMillis() - start) + " ms.");
+
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        log.position(log.size());
+
+        Thread writer = new Thread(this::writeLoop, "MasterServer-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Enfileira o registro de uma imagem; o futuro é concluído quando a alteração estiver no disco
+    CompletableFuture<Void> appendPut(String imageName, ImageRecord record) {
+        return enqueue(encode(PUT, imageName, record));
+    }
+
+    // Enfileira a remoção de uma imagem; o futuro é concluído quando a alteração estiver no disco
+    CompletableFuture<Void> appendDelete(String imageName) {
+        return enqueue(encode(DELETE, imageName, null));
+    }
+
+    void close() {
+        closed = true;
+        queue.add(new Entry(null));
+    }
+
+    private CompletableFuture<Void> enqueue(ByteBuffer data) {
+        Entry entry = new Entry(data);
+        if (closed || failed) {
+            entry.done.completeExceptionally(new IOException(failed ? "Diário de metadados desativado após falha de gravação"
+                    : "Diário de metadados encerrado"));
+        } else {
+            queue.add(entry);
+        }
+        return entry.done;
+    }
+
+    // Thread de gravação: agrupa todas as alterações pendentes em uma única escrita e um único fsync
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>();
+        boolean compactionDue = false;
+        while (true) {
+            try {
+                // Com um snapshot pendente, as alterações em andamento terminam sem que novas comecem, e a fila pode
+                // ficar vazia; a espera é então limitada para voltar a verificar se o snapshot já pode ser gravado
+                Entry first = compactionDue ? queue.poll(COMPACTION_POLL_MS, TimeUnit.MILLISECONDS) : queue.take();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+            } catch (InterruptedException e) {
+                store.resumeChanges();
+                return;
+            }
+            if (batch.isEmpty()) {
+                compactionDue = !compactIfReady();
+                continue;
+            }
+
+            boolean stop = false;
+            List<ByteBuffer> buffers = new ArrayList<>(batch.size());
+            for (Entry entry : batch) {
+                if (entry.data == null) {
+                    stop = true;
+                } else {
+                    buffers.add(entry.data);
+                }
+            }
+
+            IOException failure = null;
+            long batchStart = -1;
+            try {
+                if (failed) {
+                    throw new IOException("Diário de metadados desativado após falha de gravação");
+                }
+                batchStart = log.position();
+                ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+                long remaining = 0;
+                for (ByteBuffer buffer : array) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= log.write(array);
+                }
+                log.force(false);
+            } catch (IOException e) {
+                failure = e;
+                if (!failed) {
+                    Log.error("Erro ao gravar o diário de metadados: " + e.getMessage());
+                    discardBatch(batchStart);
+                }
+            }
+
+            for (Entry entry : batch) {
+                if (failure == null) {
+                    entry.done.complete(null);
+                } else {
+                    entry.done.completeExceptionally(failure);
+                }
+            }
+            batch.clear();
+
+            if (stop) {
+                store.resumeChanges();
+                closeQuietly();
+                return;
+            }
+            if (failure == null && !compactionDue) {
+                compactionDue = logSize() >= SNAPSHOT_THRESHOLD;
+            }
+            if (compactionDue) {
+                compactionDue = !compactIfReady();
+            }
+        }
+    }
+
+    private long logSize() {
+        try {
+            return log.size();
+        } catch (IOException e) {
+            Log.error("Erro ao consultar o tamanho do diário de metadados: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Grava o snapshot se não houver alterações pendentes no catálogo; senão mantém novas alterações retidas e retorna
+    // false, para uma nova tentativa depois dos próximos lotes
+    private boolean compactIfReady() {
+        if (!store.pauseChanges()) {
+            return false;
+        }
+        try {
+            compact();
+        } finally {
+            store.resumeChanges();
+        }
+        return true;
+    }
+
+    // Remove do log os bytes já escritos de um lote que falhou. Sem isso, os lotes seguintes seriam gravados depois de
+    // um registro incompleto, e a restauração, que para no primeiro registro inválido, perderia todos eles. Se o log
+    // não puder ser truncado, o diário é desativado e as alterações seguintes falham em vez de serem confirmadas.
+    private void discardBatch(long batchStart) {
+        try {
+            if (batchStart < 0) {
+                throw new IOException("posição inicial do lote desconhecida");
+            }
+            log.truncate(batchStart);
+            log.position(batchStart);
+            log.force(false);
+        } catch (IOException e) {
+            failed = true;
+            Log.error("Diário de metadados desativado: o lote que falhou não pôde ser removido do log: " + e.getMessage());
+        }
+    }
+
+    // Grava o catálogo completo em um snapshot e reinicia o log. Chamado com as alterações do catálogo pausadas e sem
+    // nenhuma pendente (MetadataStore.pauseChanges), de modo que o snapshot contém exatamente o que está no log.
+    private void compact() {
+        try {
+            long start = System.currentTimeMillis();
+            Path temporary = directory.resolve("snapshot.tmp");
+            int count = 0;
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (String imageName : store.listAll()) {
+                    ImageRecord record = store.get(imageName);
+                    if (record != null) {
+                        ByteBuffer buffer = encode(PUT, imageName, record);
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                        count++;
+                    }
+                }
+                out.force(true);
+            }
+            Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.truncate(0);
+            log.position(0);
+            log.force(true);
+            Log.info("Snapshot de metadados gravado: " + count + " imagens em "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        } catch (IOException e) {
+            Log.error("Erro ao gravar o snapshot de metadados: " + e.getMessage());
+        }
+    }
+
+    // Reaplica os registros de um arquivo ao catálogo; um registro final incompleto ou corrompido encerra a leitura
+    private int replay(Path path, boolean truncateTail) throws IOException {
+        File file = path.toFile();
+        if (!file.exists() || file.length() == 0) {
+            return 0;
+        }
+
+        int count = 0;
+        long valid = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= 8) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer body = buffer.slice();
+                body.limit(length);
+                if (crc(body) != checksum) {
+                    break;
+                }
+                apply(body);
+                buffer.position(buffer.position() + length);
+                valid = buffer.position();
+                count++;
+            }
+        }
+
+        if (truncateTail && valid < file.length()) {
+            Log.warn("Registro incompleto no final do diário de metadados descartado.");
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+        return count;
+    }
+
+    private void apply(ByteBuffer body) {
+        byte type = body.get();
+        String imageName = readString(body);
+        if (type == DELETE) {
+            store.restoreRemove(imageName);
+            return;
+        }
+
+        long generation = type == PUT_VERSIONED ? body.getLong() : 0;
+        int parityShards = body.getInt();
+        long imageSize = body.getLong();
+        int numParts = body.getInt();
+        String[][] partNodes = new String[numParts][];
+        long[] partLengths = new long[numParts];
+        for (int i = 0; i < numParts; i++) {
+            partLengths[i] = body.getLong();
+            partNodes[i] = new String[body.get() & 0xFF];
+            for (int r = 0; r < partNodes[i].length; r++) {
+                partNodes[i][r] = readString(body);
+            }
+        }
+        // Registros de imagens deduplicadas terminam com o bloco de cada parte
+        String[] blocks = null;
+        if (body.hasRemaining()) {
+            blocks = new String[numParts];
+            for (int i = 0; i < numParts; i++) {
+                blocks[i] = readString(body);
+            }
+        }
+        store.restorePut(imageName, partNodes, partLengths, parityShards, imageSize, blocks, generation);
+    }
+
+    // Formato de cada registro: tamanho (int), CRC32 (int) e corpo (tipo, nome e, para PUT, a geração quando não é 0,
+    // as partes e, nas imagens deduplicadas, os blocos)
+    private static ByteBuffer encode(byte type, String imageName, ImageRecord record) {
+        if (type == PUT && record.getGeneration() != 0) {
+            type = PUT_VERSIONED;
+        }
+        byte[] name = imageName.getBytes(StandardCharsets.UTF_8);
+        int size = 1 + 2 + name.length + (type == PUT_VERSIONED ? 8 : 0);
+        String[][] partNodes = null;
+        if (record != null) {
+            partNodes = new String[record.getNumParts()][];
+            size += 4 + 8 + 4;
+            for (int i = 0; i < partNodes.length; i++) {
+                partNodes[i] = record.getNodes(i);
+                size += 8 + 1;
+                for (String dataNodeId : partNodes[i]) {
+                    size += 2 + dataNodeId.getBytes(StandardCharsets.UTF_8).length;
+                }
+                if (record.isDeduplicated()) {
+                    size += 2 + record.getBlock(i).getBytes(StandardCharsets.UTF_8).length;
+                }
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(8 + size);
+        buffer.position(8);
+        buffer.put(type);
+        writeString(buffer, name);
+        if (type == PUT_VERSIONED) {
+            buffer.putLong(record.getGeneration());
+        }
+        if (record != null) {
+            buffer.putInt(record.getParityShards());
+            buffer.putLong(record.getSize());
+            buffer.putInt(partNodes.length);
+            for (int i = 0; i < partNodes.length; i++) {
+                buffer.putLong(record.getPartLength(i));
+                buffer.put((byte) partNodes[i].length);
+                for (String dataNodeId : partNodes[i]) {
+                    writeString(buffer, dataNodeId.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            for (int i = 0; record.isDeduplicated() && i < partNodes.length; i++) {
+                writeString(buffer, record.getBlock(i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        ByteBuffer body = buffer.duplicate();
+        body.position(8);
+        body.limit(buffer.position());
+        buffer.putInt(0, size);
+        buffer.putInt(4, crc(body));
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private void closeQuietly() {
+        try {
+            log.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Alteração aguardando gravação; data == null sinaliza o encerramento da thread
+    private static class Entry {
+        final ByteBuffer data;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Entry(ByteBuffer data) {
+            this.data = data;
+        }
+    }
+}
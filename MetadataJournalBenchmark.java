@@ -0,0 +1,122 @@
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Mede a vazão de storeImage no MasterServer com e sem o diário persistente de metadados.
+// Os DataNodes são simulados em memória, de modo que o custo medido é o do MasterServer e do diário.
+// Uso: java MetadataJournalBenchmark [imagens por execução] [threads] [latência simulada dos DataNodes em ms]
+public class MetadataJournalBenchmark {
+    private static final int DATA_NODES = 3;
+    private static final int PARTS_PER_IMAGE = 3;
+
+    // Tempo de resposta simulado de cada chamada a um DataNode
+    private static long latencyMillis;
+
+    public static void main(String[] args) throws Exception {
+        int images = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        File directory = Files.createTempDirectory("metadata-benchmark").toFile();
+        PrintStream console = System.out;
+
+        console.println("Imagens por execução: " + images + ", threads: " + threads + ", latência dos DataNodes: " + latencyMillis + " ms");
+        run(console, "Sem diário (somente memória)", null, images, threads);
+        run(console, "Com diário, 1 thread", new File(directory, "single").getPath(), images / 10, 1);
+        run(console, "Com diário (group commit)", new File(directory, "grouped").getPath(), images, threads);
+
+        // Tempo de reinicialização: restaura o catálogo gravado pela última execução
+        long start = System.nanoTime();
+        MetadataJournal journal = new MetadataJournal(new File(directory, "grouped").getPath());
+        MetadataStore store = new MetadataStore(journal);
+        System.setOut(silent());
+        journal.open(store);
+        System.setOut(console);
+        journal.close();
+        console.printf("Restauração de %d imagens: %.1f ms%n", store.size(), (System.nanoTime() - start) / 1e6);
+        System.exit(0);
+    }
+
+    private static void run(PrintStream console, String label, String metadataDirectory, int images, int threads) throws Exception {
+        System.setOut(silent());
+        MasterServer master = new MasterServer(1, metadataDirectory);
+        for (int i = 0; i < DATA_NODES; i++) {
+            master.registerDataNode("BenchNode" + i, new NullDataNode());
+        }
+        // Mantém as concessões dos DataNodes simulados durante execuções longas
+        ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor();
+        heartbeats.scheduleAtFixedRate(() -> {
+            for (int i = 0; i < DATA_NODES; i++) {
+                try {
+                    master.heartbeat("BenchNode" + i, null);
+                } catch (RemoteException ignored) {
+                }
+            }
+        }, DataNode.HEARTBEAT_INTERVAL_MS, DataNode.HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        byte[] data = new byte[PARTS_PER_IMAGE * 16];
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < images; i++) {
+            String imageName = "bench_" + i + ".jpg";
+            results.add(pool.submit(() -> master.storeImage(imageName, data, PARTS_PER_IMAGE)));
+        }
+        int failures = 0;
+        for (Future<Boolean> result : results) {
+            failures += result.get() ? 0 : 1;
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        heartbeats.shutdown();
+        System.setOut(console);
+
+        console.printf("%-30s %8.0f storeImage/s (%d falhas)%n", label, images / (elapsed / 1e9), failures);
+    }
+
+    private static PrintStream silent() {
+        return new PrintStream(OutputStream.nullOutputStream());
+    }
+
+    private static void simulateLatency() {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // DataNode simulado que aceita qualquer parte sem armazená-la
+    private static class NullDataNode implements DataNodeInterface {
+        public boolean uploadPart(String imageName, int partNumber, byte[] data) { simulateLatency(); return true; }
+        public byte[] downloadPart(String imageName, int partNumber) { return null; }
+        public byte[] readPartRange(String imageName, int partNumber, long offset, int length) { return null; }
+        public boolean deletePart(String imageName, int partNumber) { return true; }
+        public boolean ping() { return true; }
+        public String openUpload(String imageName, int partNumber) { return null; }
+        public boolean writeChunk(String sessionId, byte[] chunk) { return false; }
+        public boolean commitUpload(String sessionId) { return false; }
+        public void abortUpload(String sessionId) { }
+        public String openDownload(String imageName, int partNumber) { return null; }
+        public byte[] readChunk(String sessionId, int maxBytes) { return null; }
+        public void closeDownload(String sessionId) { }
+        public boolean[] uploadParts(List<PartData> parts) { simulateLatency(); boolean[] r = new boolean[parts.size()]; Arrays.fill(r, true); return r; }
+        public List<byte[]> downloadParts(List<PartKey> keys) { return new ArrayList<>(); }
+        public boolean[] deleteParts(List<PartKey> keys) { return new boolean[keys.size()]; }
+        public boolean copyPartFrom(String imageName, int partNumber, DataNodeInterface source) { return false; }
+        public boolean rebuildPart(String imageName, int partNumber, int dataShards, int parityShards, long partLength,
+                                   DataNodeInterface[] sources) { return false; }
+        public MetricsSnapshot getMetrics() { return null; }
+    }
+}
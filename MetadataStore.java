@@ -0,0 +1,407 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Catálogo de imagens do MasterServer. Usa um mapa concorrente ordenado, sem um monitor global,
+// o que permite consultas simultâneas de várias threads RMI e listagens paginadas por prefixo.
+// As alterações de uma mesma imagem são serializadas por um conjunto de travas (lock striping), garantindo que
+// a ordem no diário persistente seja a mesma do catálogo em memória.
+class MetadataStore {
+    private static final int LOCK_STRIPES = 64;
+
+    // Dispensa a verificação da versão em updateReplica
+    private static final long ANY_GENERATION = -1;
+
+    private final ConcurrentSkipListMap<String, ImageRecord> images = new ConcurrentSkipListMap<>();
+    private final NodeTable nodeTable = new NodeTable();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final MetadataJournal journal; // null quando os metadados são mantidos apenas em memória
+
+    // Número de referências a cada bloco deduplicado, recalculado a partir dos registros na restauração
+    private final Map<String, Integer> blockReferences = new ConcurrentHashMap<>();
+
+    // Imagens com réplicas em cada DataNode, para que as tarefas que tratam de um DataNode (relatórios de blocos,
+    // falhas, rebalanceamento) percorram somente as suas partes, e não o catálogo inteiro
+    private final Map<String, Set<String>> nodeImages = new ConcurrentHashMap<>();
+
+    // Imagens agrupadas pelo menor número de réplicas entre as suas partes; as deduplicadas ficam de fora, pois as
+    // suas partes estão nos blocos
+    private final Map<Integer, Set<String>> imagesByReplicas = new ConcurrentHashMap<>();
+
+    // Última geração atribuída a uma versão de imagem (ImageRecord.storedName)
+    private final AtomicLong lastGeneration = new AtomicLong();
+
+    // Alterações já aplicadas em memória cuja gravação no diário ainda não foi confirmada nem desfeita, e a pausa pedida
+    // pelo diário para gravar um snapshot: o snapshot só é tirado sem alterações pendentes, pois uma delas ainda pode
+    // ser desfeita e voltaria na restauração como se tivesse sido gravada
+    private final Object changeGate = new Object();
+    private int pendingChanges;
+    private boolean changesPaused;
+
+    MetadataStore() {
+        this(null);
+    }
+
+    MetadataStore(MetadataJournal journal) {
+        this.journal = journal;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    ImageRecord get(String imageName) {
+        return images.get(imageName);
+    }
+
+    // Registra (ou substitui) uma imagem armazenada por replicação
+    boolean put(String imageName, String[][] partNodes, long[] partLengths) {
+        return put(imageName, partNodes, partLengths, 0);
+    }
+
+    // Registra (ou substitui) uma imagem replicada cujas partes foram gravadas sob storedName(imageName, generation)
+    boolean put(String imageName, String[][] partNodes, long[] partLengths, long generation) {
+        return put(imageName, partNodes, partLengths, 0, Arrays.stream(partLengths).sum(), null, generation);
+    }
+
+    // Registra (ou substitui) uma imagem cujas partes apontam para blocos deduplicados (blocks null nas demais)
+    boolean put(String imageName, String[][] partNodes, long[] partLengths, int parityShards, long imageSize, String[] blocks) {
+        return put(imageName, partNodes, partLengths, parityShards, imageSize, blocks, 0);
+    }
+
+    // Registra (ou substitui) uma imagem; retorna false se a alteração não pôde ser gravada no diário
+    boolean put(String imageName, String[][] partNodes, long[] partLengths, int parityShards, long imageSize, String[] blocks,
+                long generation) {
+        ImageRecord record = ImageRecord.create(nodeTable, partNodes, partLengths, parityShards, imageSize, blocks, generation);
+        beginChange();
+        try {
+            return putRecord(imageName, record);
+        } finally {
+            endChange();
+        }
+    }
+
+    // Aplica e grava no diário o registro da imagem, desfazendo-o em memória se a gravação falhar
+    private boolean putRecord(String imageName, ImageRecord record) {
+        CompletableFuture<Void> durable = null;
+        ImageRecord previous;
+        synchronized (lockFor(imageName)) {
+            previous = install(imageName, record);
+            if (journal != null) {
+                durable = journal.appendPut(imageName, record);
+            }
+        }
+        // A espera pelo disco ocorre fora da trava, permitindo que várias alterações sejam gravadas no mesmo lote
+        if (!await(durable, imageName)) {
+            revert(imageName, record, previous);
+            return false;
+        }
+        return true;
+    }
+
+    // Remove uma imagem do catálogo; retorna o registro removido, ou null se ela não existir ou se a remoção não pôde
+    // ser gravada no diário (nesse caso a imagem permanece no catálogo)
+    ImageRecord remove(String imageName) {
+        beginChange();
+        try {
+            return removeRecord(imageName);
+        } finally {
+            endChange();
+        }
+    }
+
+    private ImageRecord removeRecord(String imageName) {
+        ImageRecord record;
+        CompletableFuture<Void> durable = null;
+        synchronized (lockFor(imageName)) {
+            record = install(imageName, null);
+            if (record != null && journal != null) {
+                durable = journal.appendDelete(imageName);
+            }
+        }
+        if (!await(durable, imageName)) {
+            revert(imageName, null, record);
+            return null;
+        }
+        return record;
+    }
+
+    // Acrescenta (present = true) ou retira um DataNode da lista de réplicas de uma parte; retorna true se houve mudança
+    boolean updateReplica(String imageName, int partNumber, String dataNodeId, boolean present) {
+        return updateReplica(imageName, partNumber, dataNodeId, present, ANY_GENERATION);
+    }
+
+    // Acrescenta ou retira a réplica de uma parte copiada a partir do registro 'expected' (compare-and-set): se a
+    // imagem foi excluída ou substituída por outra versão durante a cópia, o catálogo não é alterado
+    boolean updateReplica(String imageName, int partNumber, String dataNodeId, boolean present, ImageRecord expected) {
+        return updateReplica(imageName, partNumber, dataNodeId, present, expected.getGeneration());
+    }
+
+    // Como updateReplica, mas só altera o registro se ele ainda for da versão informada: uma réplica gravada sob o nome
+    // de uma versão não pode ser atribuída a outra
+    boolean updateReplica(String imageName, int partNumber, String dataNodeId, boolean present, long generation) {
+        beginChange();
+        try {
+            return replaceReplica(imageName, partNumber, dataNodeId, present, generation);
+        } finally {
+            endChange();
+        }
+    }
+
+    private boolean replaceReplica(String imageName, int partNumber, String dataNodeId, boolean present, long generation) {
+        CompletableFuture<Void> durable = null;
+        ImageRecord record;
+        ImageRecord updated;
+        synchronized (lockFor(imageName)) {
+            record = images.get(imageName);
+            if (record == null || partNumber < 0 || partNumber >= record.getNumParts()
+                    || (generation != ANY_GENERATION && record.getGeneration() != generation)) {
+                return false;
+            }
+            String[] current = record.getNodes(partNumber);
+            if (Arrays.asList(current).contains(dataNodeId) == present) {
+                return false;
+            }
+
+            String[][] partNodes = new String[record.getNumParts()][];
+            long[] partLengths = new long[record.getNumParts()];
+            for (int i = 0; i < partNodes.length; i++) {
+                partNodes[i] = record.getNodes(i);
+                partLengths[i] = record.getPartLength(i);
+            }
+            if (present) {
+                partNodes[partNumber] = Arrays.copyOf(current, current.length + 1);
+                partNodes[partNumber][current.length] = dataNodeId;
+            } else {
+                partNodes[partNumber] = Arrays.stream(current).filter(id -> !id.equals(dataNodeId)).toArray(String[]::new);
+            }
+
+            updated = ImageRecord.create(nodeTable, partNodes, partLengths, record.getParityShards(), record.getSize(),
+                    record.getBlocks(), record.getGeneration());
+            install(imageName, updated);
+            if (journal != null) {
+                durable = journal.appendPut(imageName, updated);
+            }
+        }
+        if (!await(durable, imageName)) {
+            revert(imageName, updated, record);
+            return false;
+        }
+        return true;
+    }
+
+    // Reaplicação do diário na inicialização, sem gravar novamente
+    void restorePut(String imageName, String[][] partNodes, long[] partLengths, int parityShards, long imageSize, String[] blocks,
+                    long generation) {
+        install(imageName, ImageRecord.create(nodeTable, partNodes, partLengths, parityShards, imageSize, blocks, generation));
+        lastGeneration.accumulateAndGet(generation, Math::max);
+    }
+
+    void restoreRemove(String imageName) {
+        install(imageName, null);
+    }
+
+    // Substitui em memória o registro da imagem (null a remove) e atualiza as referências aos blocos; retorna o
+    // registro anterior. Chamado com a trava da imagem ou durante a restauração.
+    private ImageRecord install(String imageName, ImageRecord record) {
+        ImageRecord previous = record == null ? images.remove(imageName) : images.put(imageName, record);
+        reference(record, 1);
+        reference(previous, -1);
+        reindex(imageName, previous, record);
+        return previous;
+    }
+
+    // Atualiza os índices por DataNode e por número de réplicas após a troca do registro de uma imagem. As entradas
+    // novas são acrescentadas antes de as antigas serem retiradas, para que uma varredura concorrente não perca a imagem.
+    private void reindex(String imageName, ImageRecord previous, ImageRecord record) {
+        Set<String> before = previous == null ? Set.of() : previous.getAllNodes();
+        Set<String> after = record == null ? Set.of() : record.getAllNodes();
+        for (String dataNodeId : after) {
+            if (!before.contains(dataNodeId)) {
+                nodeImages.computeIfAbsent(dataNodeId, id -> ConcurrentHashMap.newKeySet()).add(imageName);
+            }
+        }
+        for (String dataNodeId : before) {
+            Set<String> held = nodeImages.get(dataNodeId);
+            if (held != null && !after.contains(dataNodeId)) {
+                held.remove(imageName);
+            }
+        }
+
+        int was = replicaBucket(previous);
+        int now = replicaBucket(record);
+        if (was != now) {
+            if (now >= 0) {
+                imagesByReplicas.computeIfAbsent(now, count -> ConcurrentHashMap.newKeySet()).add(imageName);
+            }
+            if (was >= 0) {
+                imagesByReplicas.get(was).remove(imageName);
+            }
+        }
+    }
+
+    private static int replicaBucket(ImageRecord record) {
+        return record == null || record.isDeduplicated() ? -1 : record.getMinReplicas();
+    }
+
+    // Desfaz em memória uma alteração que não pôde ser gravada no diário, voltando ao registro anterior, desde que
+    // nenhuma alteração posterior da imagem tenha substituído a que falhou
+    private void revert(String imageName, ImageRecord applied, ImageRecord previous) {
+        synchronized (lockFor(imageName)) {
+            if (images.get(imageName) == applied) {
+                install(imageName, previous);
+            }
+        }
+    }
+
+    // Registra o início de uma alteração, aguardando enquanto o diário grava um snapshot
+    private void beginChange() {
+        if (journal == null) {
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (changeGate) {
+            while (changesPaused) {
+                try {
+                    changeGate.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            pendingChanges++;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Registra o fim de uma alteração, confirmada ou desfeita
+    private void endChange() {
+        if (journal == null) {
+            return;
+        }
+        synchronized (changeGate) {
+            pendingChanges--;
+        }
+    }
+
+    // Chamado pelo diário antes de um snapshot: impede o início de novas alterações e retorna true quando não há mais
+    // alterações pendentes, isto é, quando o catálogo em memória coincide com o que está no disco. As alterações
+    // pendentes dependem da thread do diário para terminar, que por isso não espera por elas: chama este método de
+    // novo depois de gravar os lotes seguintes.
+    boolean pauseChanges() {
+        synchronized (changeGate) {
+            changesPaused = true;
+            return pendingChanges == 0;
+        }
+    }
+
+    // Libera as alterações retidas por pauseChanges
+    void resumeChanges() {
+        synchronized (changeGate) {
+            changesPaused = false;
+            changeGate.notifyAll();
+        }
+    }
+
+    // Reserva a geração de uma nova versão de imagem, maior que todas as já atribuídas. O relógio evita que uma geração
+    // se repita depois de uma reinicialização, mesmo para versões que nunca chegaram ao diário.
+    long nextGeneration() {
+        return lastGeneration.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+    }
+
+    // Número de imagens que apontam para o bloco
+    int references(String blockName) {
+        return blockReferences.getOrDefault(blockName, 0);
+    }
+
+    // Soma 'delta' às referências dos blocos de uma imagem deduplicada; blocos sem referências saem do mapa
+    private void reference(ImageRecord record, int delta) {
+        if (record == null || !record.isDeduplicated()) {
+            return;
+        }
+        for (String block : record.getBlocks()) {
+            blockReferences.merge(block, delta, (current, change) -> current + change == 0 ? null : current + change);
+        }
+    }
+
+    int size() {
+        return images.size();
+    }
+
+    // Lista todos os nomes de imagens em ordem alfabética
+    List<String> listAll() {
+        return new ArrayList<>(images.keySet());
+    }
+
+    // Imagens (e blocos) com ao menos uma réplica no DataNode
+    List<String> imagesOn(String dataNodeId) {
+        Set<String> held = nodeImages.get(dataNodeId);
+        return held == null ? new ArrayList<>() : new ArrayList<>(held);
+    }
+
+    // Imagens (e blocos) com alguma parte guardada em menos de 'replicas' DataNodes
+    List<String> imagesWithFewerReplicas(int replicas) {
+        List<String> found = new ArrayList<>();
+        for (Map.Entry<Integer, Set<String>> bucket : imagesByReplicas.entrySet()) {
+            if (bucket.getKey() < replicas) {
+                found.addAll(bucket.getValue());
+            }
+        }
+        return found;
+    }
+
+    // Lista até 'limit' nomes que começam com 'prefix', a partir do primeiro nome maior que 'startAfter'. Os blocos
+    // deduplicados só aparecem quando o prefixo é o dos blocos; as miniaturas nunca aparecem.
+    List<String> list(String prefix, String startAfter, int limit) {
+        boolean includeBlocks = prefix != null && ContentHash.isBlockName(prefix);
+        String from = prefix == null ? "" : prefix;
+        boolean inclusive = true;
+        if (startAfter != null && startAfter.compareTo(from) >= 0) {
+            from = startAfter;
+            inclusive = false;
+        }
+
+        List<String> page = new ArrayList<>(Math.min(Math.max(limit, 0), 1024));
+        Iterator<Map.Entry<String, ImageRecord>> entries = images.tailMap(from, inclusive).entrySet().iterator();
+        while (page.size() < limit && entries.hasNext()) {
+            Map.Entry<String, ImageRecord> entry = entries.next();
+            if (prefix != null && !entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            if (!includeBlocks && ContentHash.isBlockName(entry.getKey())) {
+                // Os nomes dos blocos ocupam um intervalo contínuo, saltado de uma vez
+                entries = images.tailMap(ContentHash.BLOCKS_END, true).entrySet().iterator();
+                continue;
+            }
+            if (!Thumbnail.isRecordName(entry.getKey())) {
+                page.add(entry.getKey());
+            }
+        }
+        return page;
+    }
+
+    private Object lockFor(String imageName) {
+        return locks[(imageName.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    private static boolean await(CompletableFuture<Void> durable, String imageName) {
+        if (durable == null) {
+            return true;
+        }
+        try {
+            durable.join();
+            return true;
+        } catch (CompletionException e) {
+            Log.warn("Falha ao gravar os metadados da imagem '" + imageName + "': " + e.getCause().getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Métricas de um serviço (MasterServer, DataNode ou MonitorService): a latência de cada operação em um
+// LatencyHistogram, contadores acumulados (LongAdder) e medidores lidos somente na consulta, como o tamanho das filas
+// e os contadores do cache. Registrar uma medição não usa locks. As métricas são publicadas no servidor JMX da JVM
+// como "MyGeoEye:type=<serviço>,name=<id>" e retornadas pelo método remoto getMetrics do serviço.
+final class Metrics implements MetricsMXBean {
+    private final String service;
+    private final String id;
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    Metrics(String service, String id) {
+        this.service = service;
+        this.id = id;
+        register();
+    }
+
+    // Registra a duração de uma operação iniciada em 'startNanos', obtido de System.nanoTime
+    void record(String operation, long startNanos) {
+        latency(operation).record(System.nanoTime() - startNanos);
+    }
+
+    LatencyHistogram latency(String operation) {
+        LatencyHistogram histogram = latencies.get(operation);
+        return histogram != null ? histogram : latencies.computeIfAbsent(operation, name -> new LatencyHistogram());
+    }
+
+    void add(String counter, long delta) {
+        LongAdder adder = counters.get(counter);
+        if (adder == null) {
+            adder = counters.computeIfAbsent(counter, name -> new LongAdder());
+        }
+        adder.add(delta);
+    }
+
+    void increment(String counter) {
+        add(counter, 1);
+    }
+
+    // Define um medidor, calculado a cada consulta das métricas
+    void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    MetricsSnapshot snapshot() {
+        Map<String, MetricsSnapshot.Latency> latencySnapshots = new TreeMap<>();
+        latencies.forEach((operation, histogram) -> latencySnapshots.put(operation, histogram.snapshot()));
+        return new MetricsSnapshot(service, id, System.currentTimeMillis(), getCounters(), getGauges(), latencySnapshots);
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, adder) -> values.put(name, adder.sum()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new TreeMap<>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getLatencies() {
+        Map<String, Long> values = new TreeMap<>();
+        latencies.forEach((operation, histogram) -> {
+            MetricsSnapshot.Latency latency = histogram.snapshot();
+            values.put(operation + ".count", latency.getCount());
+            values.put(operation + ".mean", latency.getMean() / 1000);
+            values.put(operation + ".p50", latency.getP50() / 1000);
+            values.put(operation + ".p99", latency.getP99() / 1000);
+            values.put(operation + ".p999", latency.getP999() / 1000);
+            values.put(operation + ".max", latency.getMax() / 1000);
+        });
+        return values;
+    }
+
+    @Override
+    public String getLogLevel() {
+        return Log.getLevel().name();
+    }
+
+    @Override
+    public void setLogLevel(String level) {
+        Log.Level newLevel = Log.parseLevel(level, null);
+        if (newLevel == null) {
+            throw new IllegalArgumentException("Nível de registro desconhecido: " + level);
+        }
+        Log.setLevel(newLevel);
+    }
+
+    @Override
+    public void resetLatencies() {
+        latencies.values().forEach(LatencyHistogram::reset);
+    }
+
+    // Publica as métricas no JMX, substituindo as de uma instância anterior com o mesmo nome no processo
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("MyGeoEye:type=" + service + ",name=" + ObjectName.quote(id));
+            try {
+                server.registerMBean(this, name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            Log.warn("Métricas de " + service + " " + id + " não publicadas no JMX: " + e.getMessage());
+        }
+    }
+}
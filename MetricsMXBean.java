@@ -0,0 +1,21 @@
+import java.util.Map;
+
+// Interface das métricas de um serviço publicada no servidor JMX da JVM (jconsole, VisualVM)
+public interface MetricsMXBean {
+    // Contadores acumulados desde o início do serviço, como bytes recebidos e enviados
+    Map<String, Long> getCounters();
+
+    // Valores atuais, como o tamanho das filas, o número de partes e os contadores do cache
+    Map<String, Long> getGauges();
+
+    // Latência de cada operação em microssegundos: <operação>.count, .mean, .p50, .p99, .p999 e .max
+    Map<String, Long> getLatencies();
+
+    // Nível do registro de mensagens: ERROR, WARN, INFO ou DEBUG
+    String getLogLevel();
+
+    void setLogLevel(String level);
+
+    // Zera os histogramas de latência, para medir um novo intervalo
+    void resetLatencies();
+}
@@ -0,0 +1,110 @@
+import java.io.Serializable;
+import java.util.Map;
+
+// Métricas de um serviço em um instante, retornadas pelo método remoto getMetrics
+public class MetricsSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String service; // MasterServer, DataNode ou MonitorService
+    private final String id; // Identificador da instância, como o nome do DataNode
+    private final long timestamp;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    private final Map<String, Latency> latencies;
+
+    public MetricsSnapshot(String service, String id, long timestamp, Map<String, Long> counters, Map<String, Long> gauges,
+                           Map<String, Latency> latencies) {
+        this.service = service;
+        this.id = id;
+        this.timestamp = timestamp;
+        this.counters = counters;
+        this.gauges = gauges;
+        this.latencies = latencies;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    public Map<String, Latency> getLatencies() {
+        return latencies;
+    }
+
+    // Relatório legível, com uma linha por operação, contador e medidor
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder(service).append(' ').append(id).append(System.lineSeparator());
+        latencies.forEach((operation, latency) -> report.append(String.format("  %-22s %s%n", operation, latency)));
+        counters.forEach((name, value) -> report.append(String.format("  %-22s %,d%n", name, value)));
+        gauges.forEach((name, value) -> report.append(String.format("  %-22s %,d%n", name, value)));
+        return report.toString();
+    }
+
+    // Distribuição das latências de uma operação, em nanossegundos
+    public static class Latency implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long count;
+        private final long mean;
+        private final long p50;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        public Latency(long count, long mean, long p50, long p99, long p999, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return mean;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d, média=%s, p50=%s, p99=%s, p999=%s, máx=%s", count, LatencyHistogram.format(mean),
+                    LatencyHistogram.format(p50), LatencyHistogram.format(p99), LatencyHistogram.format(p999),
+                    LatencyHistogram.format(max));
+        }
+    }
+}
@@ -0,0 +1,225 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+// Microbenchmarks do armazenamento dos DataNodes e do catálogo do MasterServer, no estilo do JMH: cada benchmark
+// executa iterações de aquecimento, descartadas para que o JIT compile o código medido, e depois iterações de
+// medição de duração fixa. O resultado de cada chamada é consumido (sink) para que o JIT não elimine o trabalho,
+// e o relatório traz o tempo médio por operação e o desvio padrão entre as iterações.
+// Uso: java MicroBenchmarks [filtro pelo nome do benchmark] [iterações de medição] [duração de cada iteração em ms]
+public class MicroBenchmarks {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int SMALL_PART = 64 * 1024;
+    private static final int LARGE_PART = 4 * 1024 * 1024;
+    private static final int RANGE_LENGTH = 4 * 1024;
+
+    // Partes distintas gravadas e lidas em rodízio, para não medir sempre a mesma parte
+    private static final int SMALL_KEYS = 64;
+    private static final int LARGE_KEYS = 8;
+
+    // Imagens no catálogo usado pelos benchmarks de metadados
+    private static final int CATALOG_SIZE = 100_000;
+    private static final String[][] PART_NODES = {{"DN1", "DN2"}, {"DN2", "DN3"}, {"DN3", "DN1"}};
+    private static final long[] PART_LENGTHS = {LARGE_PART, LARGE_PART, SMALL_PART};
+
+    // Destino dos resultados; um campo estático não pode ser descartado pelo JIT
+    private static Object sink;
+
+    // Saída do relatório; a saída padrão é silenciada durante as medições (mensagens de compactação, por exemplo)
+    private static final PrintStream console = System.out;
+
+    private static String filter = "";
+    private static int iterations;
+    private static long iterationNanos;
+
+    // Operação medida; recebe o número da chamada, usado para alternar entre as partes ou imagens
+    @FunctionalInterface
+    private interface Operation {
+        Object run(int call) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        filter = args.length > 0 ? args[0] : "";
+        iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        iterationNanos = (args.length > 2 ? Long.parseLong(args[2]) : 1000) * 1_000_000;
+        console.printf("%d iterações de aquecimento e %d de medição, %d ms cada%n", WARMUP_ITERATIONS, iterations,
+                iterationNanos / 1_000_000);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        Path directory = Files.createTempDirectory("micro-benchmarks");
+        try {
+            storeBenchmarks("FilePartStore", new FilePartStore(directory.resolve("file").toFile()));
+            storeBenchmarks("SegmentPartStore", new SegmentPartStore(directory.resolve("segment").toFile()));
+            cacheBenchmarks();
+            codecBenchmarks();
+            metadataBenchmarks();
+        } finally {
+            System.setOut(console);
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    // Gravação e leitura de partes inteiras e leitura de trechos, como em uploadPart, downloadPart e readPartRange
+    private static void storeBenchmarks(String name, PartStore store) throws Exception {
+        byte[] small = randomBytes(SMALL_PART);
+        byte[] large = randomBytes(LARGE_PART);
+        for (int i = 0; i < SMALL_KEYS; i++) {
+            store.write("small", i, small);
+        }
+        for (int i = 0; i < LARGE_KEYS; i++) {
+            store.write("large", i, large);
+        }
+        // Os segmentos com partes substituídas são compactados entre as iterações, fora do tempo medido
+        Runnable maintain = store::maintain;
+
+        run(name + ".write 64 KB", call -> {
+            store.write("small", call % SMALL_KEYS, small);
+            return small;
+        }, maintain);
+        run(name + ".write 4 MB", call -> {
+            store.write("large", call % LARGE_KEYS, large);
+            return large;
+        }, maintain);
+        run(name + ".read 64 KB", call -> readFully(store, "small", call % SMALL_KEYS), maintain);
+        run(name + ".read 4 MB", call -> readFully(store, "large", call % LARGE_KEYS), maintain);
+        run(name + ".readRange 4 KB", call -> {
+            PartStore.Reader reader = store.openReader("large", call % LARGE_KEYS);
+            try {
+                return reader.read((long) call * 7919 % (LARGE_PART / RANGE_LENGTH) * RANGE_LENGTH, RANGE_LENGTH);
+            } finally {
+                reader.close();
+            }
+        }, maintain);
+        store.close();
+    }
+
+    private static Object readFully(PartStore store, String imageName, int partNumber) throws IOException {
+        PartStore.Reader reader = store.openReader(imageName, partNumber);
+        try {
+            byte[] chunk;
+            byte[] last = null;
+            while ((chunk = reader.read(PartTransfer.CHUNK_SIZE)) != null) {
+                last = chunk;
+            }
+            return last;
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Leitura de partes já em cache, o caminho das partes mais lidas em downloadPart
+    private static void cacheBenchmarks() throws Exception {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            PartCache cache = new PartCache(64L * 1024 * 1024, offHeap);
+            byte[] small = randomBytes(SMALL_PART);
+            String[] keys = new String[SMALL_KEYS];
+            for (int i = 0; i < SMALL_KEYS; i++) {
+                keys[i] = PartStore.key("small", i);
+                cache.put(keys[i], small, cache.stamp(keys[i]));
+            }
+            run("PartCache.get 64 KB" + (offHeap ? " (off-heap)" : ""), call -> cache.get(keys[call % SMALL_KEYS]), null);
+        }
+    }
+
+    // Compressão das partes: dados compressíveis, dados já comprimidos (descartados pela estimativa de entropia)
+    // e descompressão
+    private static void codecBenchmarks() throws Exception {
+        byte[] compressible = compressibleBytes(LARGE_PART);
+        byte[] random = randomBytes(LARGE_PART);
+        byte[] encoded = PartCodec.encode(compressible, PartCodec.DEFLATE);
+        console.printf("(parte compressível: %d -> %d bytes)%n", compressible.length, encoded.length);
+
+        run("PartCodec.encode 4 MB (compressível)", call -> PartCodec.encode(compressible, PartCodec.DEFLATE), null);
+        run("PartCodec.encode 4 MB (aleatório)", call -> PartCodec.encode(random, PartCodec.DEFLATE), null);
+        run("PartCodec.decode 4 MB", call -> PartCodec.decode(encoded), null);
+    }
+
+    // Operações do catálogo do MasterServer sobre CATALOG_SIZE imagens, sem o diário persistente (medido por
+    // MetadataJournalBenchmark)
+    private static void metadataBenchmarks() throws Exception {
+        MetadataStore store = new MetadataStore();
+        String[] names = new String[CATALOG_SIZE];
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            names[i] = String.format("imagem_%06d.jpg", i);
+            store.put(names[i], PART_NODES, PART_LENGTHS);
+        }
+        // Percorre o catálogo em uma ordem que não favorece o cache do processador
+        int stride = 7919;
+
+        run("MetadataStore.get", call -> store.get(names[(int) ((long) call * stride % CATALOG_SIZE)]), null);
+        run("MetadataStore.put (substituição)", call -> store.put(names[(int) ((long) call * stride % CATALOG_SIZE)],
+                PART_NODES, PART_LENGTHS), null);
+        run("MetadataStore.put + remove", call -> {
+            String name = "nova_" + call;
+            store.put(name, PART_NODES, PART_LENGTHS);
+            return store.remove(name);
+        }, null);
+        run("MetadataStore.list (página de 100)", call -> store.list("imagem_",
+                names[(int) ((long) call * stride % CATALOG_SIZE)], 100), null);
+        run("ImageRecord.getNodes", call -> store.get(names[call % CATALOG_SIZE]).getNodes(call % PART_NODES.length), null);
+    }
+
+    // Executa o benchmark, se o nome corresponder ao filtro, e imprime o tempo médio por operação
+    private static void run(String name, Operation operation, Runnable afterIteration) throws Exception {
+        if (!name.contains(filter)) {
+            return;
+        }
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iterate(operation, afterIteration);
+        }
+        double[] nanosPerOp = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            nanosPerOp[i] = iterate(operation, afterIteration);
+        }
+
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value / iterations;
+        }
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean) / Math.max(1, iterations - 1);
+        }
+        console.printf("%-40s %12s/op ± %-10s %,14.0f op/s%n", name, LatencyHistogram.format((long) mean),
+                LatencyHistogram.format((long) Math.sqrt(variance)), 1e9 / mean);
+    }
+
+    // Uma iteração: chama a operação até esgotar a duração e retorna o tempo médio por chamada em nanossegundos
+    private static double iterate(Operation operation, Runnable afterIteration) throws Exception {
+        long start = System.nanoTime();
+        long deadline = start + iterationNanos;
+        long now;
+        int calls = 0;
+        do {
+            sink = operation.run(calls++);
+        } while ((now = System.nanoTime()) < deadline);
+        if (afterIteration != null) {
+            afterIteration.run();
+        }
+        return (double) (now - start) / calls;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new SplittableRandom(length).nextBytes(data);
+        return data;
+    }
+
+    // Dados com a redundância de uma imagem sem compressão: um gradiente suave com algum ruído
+    private static byte[] compressibleBytes(int length) {
+        SplittableRandom random = new SplittableRandom(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i / 1024 % 64 + random.nextInt(8));
+        }
+        return data;
+    }
+}
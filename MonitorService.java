@@ -6,8 +6,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 // Serviço de monitoramento para detectar falhas e instanciar novos DataNodes
 public class MonitorService extends UnicastRemoteObject implements MonitorServiceInterface {
+    private static final long serialVersionUID = 1L;
+
     private MasterServerInterface masterServer; // Referência ao MasterServer para notificações e atualizações
     private AtomicInteger dataNodeCounter = new AtomicInteger(0); // Contador para gerar IDs únicos para novos DataNodes
+    private final Metrics metrics = new Metrics("MonitorService", "MonitorService"); // Falhas notificadas e DataNodes criados
 
     // Construtor padrão do MonitorService
     protected MonitorService() throws RemoteException {
@@ -17,7 +20,9 @@ public class MonitorService extends UnicastRemoteObject implements MonitorServic
     // Método chamado para notificar sobre a falha de um DataNode
     @Override
     public void notifyFailure(String dataNodeId) throws RemoteException {
-        System.out.println("MonitorService: Falha detectada no DataNode " + dataNodeId);
+        long start = System.nanoTime();
+        metrics.increment("failuresNotified");
+        Log.info("MonitorService: Falha detectada no DataNode " + dataNodeId);
 
         // Remove o DataNode falho do registro do MasterServer
         masterServer.unregisterDataNode(dataNodeId);
@@ -31,14 +36,22 @@ public class MonitorService extends UnicastRemoteObject implements MonitorServic
 
         // Registra o novo DataNode no MasterServer
         masterServer.registerDataNode(newDataNodeId, newDataNode);
-        System.out.println("MonitorService: Novo DataNode " + newDataNodeId + " instanciado e registrado.");
+        metrics.increment("dataNodesCreated");
+        metrics.record("notifyFailure", start);
+        Log.info("MonitorService: Novo DataNode " + newDataNodeId + " instanciado e registrado.");
     }
 
     // Registra o MasterServer para ser monitorado
     @Override
     public void registerMasterServer(MasterServerInterface masterServer) throws RemoteException {
         this.masterServer = masterServer; // Armazena a referência ao MasterServer
-        System.out.println("MonitorService: MasterServer registrado para monitoramento.");
+        Log.info("MonitorService: MasterServer registrado para monitoramento.");
+    }
+
+    // Métricas do MonitorService
+    @Override
+    public MetricsSnapshot getMetrics() throws RemoteException {
+        return metrics.snapshot();
     }
 
     // Método principal para iniciar o MonitorService
@@ -51,11 +64,10 @@ public class MonitorService extends UnicastRemoteObject implements MonitorServic
             Registry registry = LocateRegistry.createRegistry(2000);
             registry.rebind("MonitorService", monitorService); // Registra o MonitorService no RMI Registry
 
-            System.out.println("MonitorService iniciado e registrado no RMI Registry.");
+            Log.info("MonitorService iniciado e registrado no RMI Registry.");
         } catch (Exception e) {
             // Captura erros ao iniciar o MonitorService
-            System.err.println("Erro no MonitorService: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("Erro no MonitorService: " + e.getMessage(), e);
         }
     }
 }
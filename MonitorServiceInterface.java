@@ -5,4 +5,5 @@ import java.rmi.RemoteException;
 public interface MonitorServiceInterface extends Remote {
     void notifyFailure(String dataNodeId) throws RemoteException;
     void registerMasterServer(MasterServerInterface masterServer) throws RemoteException;
+    MetricsSnapshot getMetrics() throws RemoteException;
 }
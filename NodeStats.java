@@ -0,0 +1,55 @@
+import java.io.Serializable;
+
+// Estado de carga e ocupação de um DataNode, enviado ao MasterServer a cada heartbeat e usado para escolher
+// onde gravar novas partes, de qual réplica ler e quais partes migrar no rebalanceamento
+public class NodeStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long usedBytes;
+    private final long freeBytes;
+    private final int storedParts;
+    private final int inFlight;
+    private final long latencyMicros;
+
+    public NodeStats(long usedBytes, long freeBytes, int storedParts, int inFlight, long latencyMicros) {
+        this.usedBytes = usedBytes;
+        this.freeBytes = freeBytes;
+        this.storedParts = storedParts;
+        this.inFlight = inFlight;
+        this.latencyMicros = latencyMicros;
+    }
+
+    // Bytes ocupados pelas partes armazenadas
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    // Espaço livre no disco do DataNode
+    public long getFreeBytes() {
+        return freeBytes;
+    }
+
+    public long getCapacity() {
+        return usedBytes + freeBytes;
+    }
+
+    public int getStoredParts() {
+        return storedParts;
+    }
+
+    // Requisições de dados em atendimento no momento do heartbeat
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    // Tempo médio de atendimento das requisições de dados desde o heartbeat anterior (0 se não houve nenhuma)
+    public long getLatencyMicros() {
+        return latencyMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d partes, %d MB usados, %d MB livres, %d em andamento, %d us",
+                storedParts, usedBytes / (1024 * 1024), freeBytes / (1024 * 1024), inFlight, latencyMicros);
+    }
+}
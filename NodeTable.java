@@ -0,0 +1,39 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Tabela de identificadores de DataNodes: cada nome recebe um número inteiro, de modo que os metadados
+// das imagens guardam apenas inteiros em vez de uma String por parte
+class NodeTable {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[16];
+    private int size;
+
+    // Retorna o número associado ao DataNode, criando-o na primeira vez
+    int intern(String dataNodeId) {
+        Integer id = ids.get(dataNodeId);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(dataNodeId);
+            if (id == null) {
+                if (size == names.length) {
+                    names = Arrays.copyOf(names, size * 2);
+                }
+                // O nome é publicado antes do número, para que leitores nunca vejam um número sem nome
+                String[] current = names;
+                current[size] = dataNodeId;
+                names = current;
+                id = size++;
+                ids.put(dataNodeId, id);
+            }
+            return id;
+        }
+    }
+
+    // Retorna o nome do DataNode associado ao número
+    String name(int id) {
+        return names[id];
+    }
+}
@@ -0,0 +1,229 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Cache de leitura das partes mais acessadas de um DataNode, limitado por um orçamento de bytes e com
+// remoção da parte usada há mais tempo (LRU). O cache é dividido em fatias independentes para reduzir a
+// disputa entre threads. No modo off-heap os dados ficam em blocos de buffers diretos alocados uma única vez,
+// de modo que o tamanho do cache não aumenta o heap nem as pausas de coleta de lixo.
+public class PartCache {
+    private static final int SHARDS = 16;
+    // Tamanho dos blocos do buffer direto no modo off-heap
+    private static final int BLOCK_SIZE = 64 * 1024;
+    // Contadores de invalidação; uma carga iniciada antes de uma invalidação não é inserida no cache
+    private static final int STAMP_STRIPES = 1024;
+
+    private final Shard[] shards;
+    private final long maxEntrySize;
+    private final boolean offHeap;
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PartCache(long capacityBytes, boolean offHeap) {
+        this.offHeap = offHeap;
+        long shardCapacity = capacityBytes / SHARDS;
+        if (offHeap) {
+            // Arredonda para blocos inteiros; cada fatia tem o seu próprio buffer direto
+            int blocksPerShard = (int) Math.min(Integer.MAX_VALUE / BLOCK_SIZE, shardCapacity / BLOCK_SIZE);
+            shardCapacity = (long) blocksPerShard * BLOCK_SIZE;
+        }
+        // Partes maiores que um quarto da fatia não são armazenadas, para não expulsar muitas partes de uma vez
+        this.maxEntrySize = shardCapacity / 4;
+
+        this.shards = new Shard[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(shardCapacity, offHeap);
+        }
+    }
+
+    // Retorna a parte armazenada no cache, ou null
+    public byte[] get(String key) {
+        byte[] data = shardFor(key).get(key);
+        if (data != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return data;
+    }
+
+    // Marca o início da leitura de uma parte no armazenamento; deve ser passada a put
+    public long stamp(String key) {
+        return stamps.get(stripe(key));
+    }
+
+    // Insere a parte, exceto se ela foi invalidada depois do stamp ou se for grande demais
+    public void put(String key, byte[] data, long stamp) {
+        if (data.length > maxEntrySize) {
+            return;
+        }
+        shardFor(key).put(key, data, () -> stamps.get(stripe(key)) == stamp);
+    }
+
+    // Remove a parte do cache; chamado sempre que ela é gravada ou excluída
+    public void invalidate(String key) {
+        stamps.incrementAndGet(stripe(key));
+        shardFor(key).remove(key);
+    }
+
+    public boolean fits(long length) {
+        return length <= maxEntrySize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getUsedBytes() {
+        long used = 0;
+        for (Shard shard : shards) {
+            used += shard.used();
+        }
+        return used;
+    }
+
+    @Override
+    public String toString() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return String.format("cache%s: %d acertos, %d falhas (%.1f%%), %d remoções, %d bytes em uso",
+                offHeap ? " off-heap" : "", hitCount, getMisses(), total == 0 ? 0.0 : 100.0 * hitCount / total,
+                getEvictions(), getUsedBytes());
+    }
+
+    private Shard shardFor(String key) {
+        return shards[(key.hashCode() & 0x7fffffff) % SHARDS];
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & 0x7fffffff) % STAMP_STRIPES;
+    }
+
+    // Verificação feita sob a trava da fatia, imediatamente antes da inserção
+    private interface Validity {
+        boolean stillValid();
+    }
+
+    // Fatia do cache: mapa em ordem de acesso e, no modo off-heap, os blocos livres do seu trecho do buffer
+    private class Shard {
+        private final long capacity;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final ByteBuffer arena;
+        private final ArrayDeque<Integer> freeBlocks = new ArrayDeque<>();
+        private long used;
+
+        Shard(long capacity, boolean offHeap) {
+            this.capacity = capacity;
+            if (offHeap && capacity > 0) {
+                arena = ByteBuffer.allocateDirect((int) capacity);
+                for (int block = 0; block < capacity / BLOCK_SIZE; block++) {
+                    freeBlocks.push(block);
+                }
+            } else {
+                arena = null;
+            }
+        }
+
+        synchronized byte[] get(String key) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (arena == null) {
+                return entry.data;
+            }
+            byte[] data = new byte[entry.length];
+            for (int i = 0, copied = 0; copied < entry.length; i++) {
+                int size = Math.min(BLOCK_SIZE, entry.length - copied);
+                arena.get(entry.blocks[i] * BLOCK_SIZE, data, copied, size);
+                copied += size;
+            }
+            return data;
+        }
+
+        synchronized void put(String key, byte[] data, Validity validity) {
+            if (!validity.stillValid()) {
+                return;
+            }
+            release(entries.remove(key));
+            long size = arena == null ? data.length : blocksFor(data.length) * (long) BLOCK_SIZE;
+            if (size > capacity) {
+                return;
+            }
+
+            // Remove as partes usadas há mais tempo até haver espaço
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (used + size > capacity && eldest.hasNext()) {
+                Entry victim = eldest.next();
+                eldest.remove();
+                release(victim);
+                evictions.increment();
+            }
+
+            Entry entry = new Entry(data.length);
+            if (arena == null) {
+                entry.data = data;
+            } else {
+                entry.blocks = new int[blocksFor(data.length)];
+                for (int i = 0, copied = 0; i < entry.blocks.length; i++) {
+                    entry.blocks[i] = freeBlocks.pop();
+                    int length = Math.min(BLOCK_SIZE, data.length - copied);
+                    arena.put(entry.blocks[i] * BLOCK_SIZE, data, copied, length);
+                    copied += length;
+                }
+            }
+            entry.size = size;
+            used += size;
+            entries.put(key, entry);
+        }
+
+        synchronized void remove(String key) {
+            release(entries.remove(key));
+        }
+
+        synchronized long used() {
+            return used;
+        }
+
+        private void release(Entry entry) {
+            if (entry == null) {
+                return;
+            }
+            used -= entry.size;
+            if (entry.blocks != null) {
+                for (int block : entry.blocks) {
+                    freeBlocks.push(block);
+                }
+            }
+        }
+
+        private int blocksFor(int length) {
+            return Math.max(1, (length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        }
+    }
+
+    // Parte armazenada: os bytes no heap ou a lista de blocos no buffer direto
+    private static class Entry {
+        final int length;
+        byte[] data;
+        int[] blocks;
+        long size;
+
+        Entry(int length) {
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compressão das partes na rede e nos DataNodes. Uma parte comprimida é gravada como um quadro: MAGIC, o codec e o
+// tamanho original, seguidos dos dados comprimidos; sem esse cabeçalho, a parte está em seu formato original. Quem grava
+// a parte (cliente ou MasterServer) a comprime uma vez e quem a lê a descomprime, de modo que a redução vale para a
+// rede e para o disco; os DataNodes guardam e copiam o quadro sem abri-lo.
+public final class PartCodec {
+    public static final int NONE = 0; // Quadro sem compressão: só usado quando a parte começa com MAGIC
+    public static final int DEFLATE = 1;
+
+    // Início de um quadro; o primeiro byte fora da faixa ASCII evita coincidências com arquivos de texto e cabeçalhos
+    private static final int MAGIC = 0x894D475A;
+
+    // Bytes de MAGIC, necessários para decidir se uma parte precisa de um quadro
+    public static final int MAGIC_SIZE = 4;
+
+    // MAGIC, codec e tamanho original
+    public static final int HEADER_SIZE = MAGIC_SIZE + 1 + 8;
+
+    // Partes maiores não são comprimidas pelo cliente, que precisaria mantê-las inteiras em memória
+    public static final int MAX_ENCODED_LENGTH = 64 * 1024 * 1024;
+
+    // Partes menores não compensam o cabeçalho e a chamada ao Deflater
+    private static final int MIN_LENGTH = 4 * 1024;
+
+    // Entropia (bits por byte) acima da qual os dados já estão comprimidos, como em JPEG e PNG
+    private static final double MAX_ENTROPY = 7.5;
+
+    // A entropia é estimada em blocos distribuídos pela parte, somando até SAMPLE_SIZE bytes
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final int SAMPLE_BLOCK = 4 * 1024;
+
+    // A parte só é gravada comprimida se o quadro tiver no máximo 90% do tamanho original
+    private static final double MAX_RATIO = 0.9;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private PartCodec() {
+    }
+
+    // Codec correspondente ao nome: "deflate" ou "none"
+    public static int forName(String name) {
+        if (name == null || "deflate".equalsIgnoreCase(name)) {
+            return DEFLATE;
+        }
+        if ("none".equalsIgnoreCase(name)) {
+            return NONE;
+        }
+        throw new IllegalArgumentException("Codec desconhecido: " + name);
+    }
+
+    public static String name(int codec) {
+        return codec == DEFLATE ? "deflate" : "none";
+    }
+
+    // Codifica a parte para gravação: comprimida quando o codec é DEFLATE e a compressão compensa, senão no formato
+    // original (dentro de um quadro NONE apenas se os dados começarem com MAGIC)
+    public static byte[] encode(byte[] data, int codec) {
+        if (codec == DEFLATE && data.length >= MIN_LENGTH && entropy(data) <= MAX_ENTROPY) {
+            byte[] compressed = deflate(data);
+            if (compressed != null) {
+                return compressed;
+            }
+        }
+        return startsWithMagic(data) ? frame(NONE, data.length, data, data.length) : data;
+    }
+
+    // Cabeçalho de um quadro, usado para enviar em fluxo uma parte que começa com MAGIC
+    public static byte[] header(int codec, long length) {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put((byte) codec).putLong(length).array();
+    }
+
+    // Verifica se os primeiros bytes dos dados coincidem com MAGIC
+    public static boolean startsWithMagic(byte[] data) {
+        return data != null && data.length >= MAGIC_SIZE && ByteBuffer.wrap(data).getInt() == MAGIC;
+    }
+
+    // Tamanho original da parte indicado no cabeçalho; -1 se os bytes não formam um cabeçalho (parte não codificada)
+    public static long decodedLength(byte[] header) {
+        if (header == null || header.length < HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        if (buffer.getInt() != MAGIC) {
+            return -1;
+        }
+        int codec = buffer.get();
+        long length = buffer.getLong();
+        return (codec == NONE || codec == DEFLATE) && length >= 0 ? length : -1;
+    }
+
+    // Restaura os dados originais de uma parte lida de um DataNode
+    public static byte[] decode(byte[] data) throws IOException {
+        Decoder decoder = decoder(data);
+        if (decoder == null) {
+            return data;
+        }
+        byte[] decoded = decoder.update(data);
+        decoder.finish();
+        return decoded;
+    }
+
+    // Decodificador para uma parte recebida em blocos, a partir do primeiro bloco; null se a parte não está codificada
+    public static Decoder decoder(byte[] firstChunk) {
+        long length = decodedLength(firstChunk);
+        return length < 0 ? null : new Decoder(firstChunk[4], length);
+    }
+
+    // Entropia de Shannon (bits por byte) de uma amostra dos dados
+    static double entropy(byte[] data) {
+        int[] counts = new int[256];
+        int sampled = 0;
+        int blocks = Math.max(1, Math.min(data.length, SAMPLE_SIZE) / SAMPLE_BLOCK);
+        long stride = data.length / blocks;
+        for (int b = 0; b < blocks; b++) {
+            int start = (int) (b * stride);
+            int end = Math.min(data.length, start + SAMPLE_BLOCK);
+            for (int i = start; i < end; i++) {
+                counts[data[i] & 0xFF]++;
+            }
+            sampled += end - start;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / sampled;
+                entropy -= p * (Math.log(p) / Math.log(2));
+            }
+        }
+        return entropy;
+    }
+
+    // Comprime a parte com a configuração mais rápida do Deflater; null se o resultado não for menor o bastante
+    private static byte[] deflate(byte[] data) {
+        int limit = (int) (data.length * MAX_RATIO);
+        byte[] output = new byte[limit];
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            int written = 0;
+            while (!deflater.finished() && written < limit) {
+                written += deflater.deflate(output, written, limit - written);
+            }
+            return deflater.finished() ? frame(DEFLATE, data.length, output, written) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] frame(int codec, long length, byte[] payload, int payloadLength) {
+        byte[] framed = new byte[HEADER_SIZE + payloadLength];
+        System.arraycopy(header(codec, length), 0, framed, 0, HEADER_SIZE);
+        System.arraycopy(payload, 0, framed, HEADER_SIZE, payloadLength);
+        return framed;
+    }
+
+    // Decodificação incremental de um quadro recebido em blocos; o primeiro bloco contém o cabeçalho
+    public static final class Decoder {
+        private final int codec;
+        private final long length;
+        private final Inflater inflater;
+        private long decoded;
+        private boolean headerSkipped;
+
+        private Decoder(int codec, long length) {
+            this.codec = codec;
+            this.length = length;
+            this.inflater = codec == DEFLATE ? new Inflater(true) : null;
+        }
+
+        // Decodifica o próximo bloco do quadro e retorna os bytes originais correspondentes
+        public byte[] update(byte[] chunk) throws IOException {
+            int offset = headerSkipped ? 0 : HEADER_SIZE;
+            headerSkipped = true;
+            if (codec == NONE) {
+                byte[] data = Arrays.copyOfRange(chunk, offset, chunk.length);
+                decoded += data.length;
+                return data;
+            }
+
+            inflater.setInput(chunk, offset, chunk.length - offset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(0, Math.min(length - decoded, 4L * chunk.length + BUFFER_SIZE)));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                while (!inflater.needsInput() && !inflater.finished()) {
+                    int count = inflater.inflate(buffer);
+                    out.write(buffer, 0, count);
+                }
+            } catch (DataFormatException e) {
+                end();
+                throw new IOException("Parte comprimida corrompida", e);
+            }
+            decoded += out.size();
+            return out.toByteArray();
+        }
+
+        // Confirma que o quadro foi decodificado por inteiro e libera o Inflater
+        public void finish() throws IOException {
+            boolean complete = decoded == length && (inflater == null || inflater.finished());
+            end();
+            if (!complete) {
+                throw new IOException("Parte comprimida incompleta: " + decoded + " de " + length + " bytes");
+            }
+        }
+
+        private void end() {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+import java.io.Serializable;
+
+// Parte de uma imagem com seus dados, enviada nas operações de upload em lote
+public class PartData implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final PartKey key;
+    private final byte[] data;
+
+    public PartData(PartKey key, byte[] data) {
+        this.key = key;
+        this.data = data;
+    }
+
+    public PartKey getKey() {
+        return key;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,42 @@
+import java.io.Serializable;
+import java.util.Objects;
+
+// Identifica uma parte de uma imagem nas operações em lote
+public class PartKey implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String imageName;
+    private final int partNumber;
+
+    public PartKey(String imageName, int partNumber) {
+        this.imageName = imageName;
+        this.partNumber = partNumber;
+    }
+
+    public String getImageName() {
+        return imageName;
+    }
+
+    public int getPartNumber() {
+        return partNumber;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof PartKey)) {
+            return false;
+        }
+        PartKey key = (PartKey) other;
+        return partNumber == key.partNumber && imageName.equals(key.imageName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(imageName, partNumber);
+    }
+
+    @Override
+    public String toString() {
+        return PartStore.key(imageName, partNumber);
+    }
+}
@@ -0,0 +1,50 @@
+import java.io.IOException;
+import java.util.Map;
+
+// Mecanismo de armazenamento das partes de imagens em um DataNode
+public interface PartStore {
+    // Grava uma parte completa, substituindo a versão anterior
+    void write(String imageName, int partNumber, byte[] data) throws IOException;
+
+    // Inicia a gravação de uma parte em blocos; ela só se torna visível no commit
+    Writer openWriter(String imageName, int partNumber) throws IOException;
+
+    // Abre a parte para leitura sequencial; retorna null se ela não existir
+    Reader openReader(String imageName, int partNumber) throws IOException;
+
+    // Remove a parte; retorna false se ela não existir
+    boolean delete(String imageName, int partNumber) throws IOException;
+
+    // Inventário das partes armazenadas: chave (<imagem>_part<n>) -> tamanho em bytes
+    Map<String, Long> inventory();
+
+    // Tarefa periódica de manutenção (por exemplo, compactação)
+    default void maintain() {
+    }
+
+    void close();
+
+    // Nome usado para identificar uma parte no armazenamento e nos relatórios ao MasterServer
+    static String key(String imageName, int partNumber) {
+        return imageName + "_part" + partNumber;
+    }
+
+    // Gravação em andamento de uma parte
+    interface Writer {
+        void write(byte[] chunk) throws IOException;
+        void commit() throws IOException;
+        void abort();
+    }
+
+    // Leitura sequencial de uma parte
+    interface Reader {
+        // Retorna o próximo bloco com até maxBytes bytes, ou null ao final da parte
+        byte[] read(int maxBytes) throws IOException;
+
+        // Leitura posicional de até maxBytes bytes a partir de 'position', sem ler o início da parte nem alterar a
+        // leitura sequencial; null se a posição estiver no final da parte
+        byte[] read(long position, int maxBytes) throws IOException;
+        long length();
+        void close();
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+
+// Utilitário para transferir partes de imagens em blocos de tamanho fixo usando as sessões do DataNode
+public final class PartTransfer {
+    // Tamanho máximo de cada bloco enviado ou recebido em uma única chamada RMI
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    private PartTransfer() {
+    }
+
+    // Envia 'length' bytes do fluxo de entrada como uma parte da imagem no DataNode informado
+    public static boolean upload(DataNodeInterface dataNode, String imageName, int partNumber,
+                                 InputStream in, long length) throws IOException {
+        String sessionId = dataNode.openUpload(imageName, partNumber);
+        if (sessionId == null) {
+            return false;
+        }
+
+        try {
+            byte[] buffer = new byte[(int) Math.min(CHUNK_SIZE, Math.max(length, 1))];
+            long remaining = length;
+            while (remaining > 0) {
+                int toRead = (int) Math.min(buffer.length, remaining);
+                int read = in.readNBytes(buffer, 0, toRead);
+                if (read < toRead) {
+                    throw new IOException("Fim inesperado do arquivo ao enviar a parte " + partNumber + ".");
+                }
+                // Somente o último bloco pode ser menor que o buffer
+                byte[] chunk = (read == buffer.length) ? buffer : Arrays.copyOf(buffer, read);
+                if (!dataNode.writeChunk(sessionId, chunk)) {
+                    dataNode.abortUpload(sessionId);
+                    return false;
+                }
+                remaining -= read;
+            }
+            return dataNode.commitUpload(sessionId);
+        } catch (IOException e) {
+            abortQuietly(dataNode, sessionId);
+            throw e;
+        }
+    }
+
+    // Copia uma parte da imagem do DataNode para o fluxo de saída como está armazenada, sem descomprimi-la; retorna -1
+    // se a parte não existir
+    public static long download(DataNodeInterface dataNode, String imageName, int partNumber,
+                                OutputStream out) throws IOException {
+        String sessionId = dataNode.openDownload(imageName, partNumber);
+        if (sessionId == null) {
+            return -1;
+        }
+
+        long total = 0;
+        try {
+            byte[] chunk;
+            while ((chunk = dataNode.readChunk(sessionId, CHUNK_SIZE)) != null) {
+                out.write(chunk);
+                total += chunk.length;
+            }
+            return total;
+        } catch (IOException e) {
+            // Fecha a sessão no DataNode caso a escrita local ou a chamada remota falhe
+            try {
+                dataNode.closeDownload(sessionId);
+            } catch (RemoteException ignored) {
+            }
+            throw e;
+        }
+    }
+
+    // Grava uma parte da imagem diretamente na posição informada do arquivo, descomprimindo-a se ela foi gravada
+    // comprimida (PartCodec); retorna o número de bytes originais gravados, ou -1 se a parte não existir
+    public static long download(DataNodeInterface dataNode, String imageName, int partNumber,
+                                FileChannel channel, long position) throws IOException {
+        String sessionId = dataNode.openDownload(imageName, partNumber);
+        if (sessionId == null) {
+            return -1;
+        }
+
+        long total = 0;
+        try {
+            byte[] chunk;
+            PartCodec.Decoder decoder = null;
+            boolean first = true;
+            while ((chunk = dataNode.readChunk(sessionId, CHUNK_SIZE)) != null) {
+                if (first) {
+                    decoder = PartCodec.decoder(chunk);
+                    first = false;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(decoder == null ? chunk : decoder.update(chunk));
+                while (buffer.hasRemaining()) {
+                    total += channel.write(buffer, position + total);
+                }
+            }
+            if (decoder != null) {
+                decoder.finish();
+            }
+            return total;
+        } catch (IOException e) {
+            try {
+                dataNode.closeDownload(sessionId);
+            } catch (RemoteException ignored) {
+            }
+            throw e;
+        }
+    }
+
+    // Cancela uma sessão de upload ignorando falhas de comunicação
+    private static void abortQuietly(DataNodeInterface dataNode, String sessionId) {
+        try {
+            dataNode.abortUpload(sessionId);
+        } catch (RemoteException ignored) {
+        }
+    }
+}
@@ -0,0 +1,25 @@
+import java.util.List;
+import java.util.Map;
+
+// Estratégia de distribuição das partes entre os DataNodes: escolhe os nós que recebem cada nova parte e a
+// ordem em que as réplicas de uma parte são oferecidas para leitura. As estatísticas vêm dos heartbeats e
+// podem faltar para nós recém-registrados.
+interface PlacementPolicy {
+
+    // Escolhe, para cada parte, 'replicas' DataNodes distintos entre os candidatos informados
+    String[][] chooseTargets(List<String> dataNodes, int numParts, int replicas, long partSize, Map<String, NodeStats> stats);
+
+    // Reordena as réplicas de uma parte, com a preferida para leitura primeiro
+    void orderReplicas(List<String> replicas, Map<String, NodeStats> stats);
+
+    // Política correspondente ao nome informado na linha de comando: "random" ou "p2c" (padrão)
+    static PlacementPolicy forName(String name) {
+        if ("random".equalsIgnoreCase(name)) {
+            return new RandomPlacementPolicy();
+        }
+        if (name == null || "p2c".equalsIgnoreCase(name)) {
+            return new LoadAwarePlacementPolicy();
+        }
+        throw new IllegalArgumentException("Política de distribuição desconhecida: " + name);
+    }
+}
@@ -0,0 +1,27 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Distribuição aleatória, sem considerar a carga: os DataNodes são embaralhados e as réplicas de cada parte
+// ocupam nós consecutivos da lista embaralhada
+class RandomPlacementPolicy implements PlacementPolicy {
+
+    @Override
+    public String[][] chooseTargets(List<String> dataNodes, int numParts, int replicas, long partSize, Map<String, NodeStats> stats) {
+        List<String> shuffled = new ArrayList<>(dataNodes);
+        Collections.shuffle(shuffled);
+        String[][] targets = new String[numParts][replicas];
+        for (int i = 0; i < numParts; i++) {
+            for (int r = 0; r < replicas; r++) {
+                targets[i][r] = shuffled.get((i + r) % shuffled.size());
+            }
+        }
+        return targets;
+    }
+
+    @Override
+    public void orderReplicas(List<String> replicas, Map<String, NodeStats> stats) {
+        Collections.shuffle(replicas);
+    }
+}
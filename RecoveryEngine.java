@@ -0,0 +1,377 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Recuperação da redundância após a falha de um DataNode: as partes que ele guardava são retiradas do catálogo e
+// recriadas em outros DataNodes, copiadas de uma réplica sobrevivente ou reconstruídas a partir da paridade, com
+// prioridade para as partes que têm menos cópias restantes. Cada parte é transferida diretamente entre DataNodes
+// (o destino lê das origens) e a banda é limitada por DataNode, não globalmente: como as partes perdidas estão
+// espalhadas pelo cluster, todos os nós participam da recuperação e o tempo para restaurar a redundância diminui
+// à medida que o cluster cresce, em vez de depender da banda de um único nó.
+class RecoveryEngine {
+    // Transferências simultâneas por DataNode vivo; o número de threads acompanha o tamanho do cluster
+    private static final int TRANSFERS_PER_NODE = 2;
+    private static final int MAX_WORKERS = 64;
+
+    // Banda de recuperação de cada DataNode, somando o que ele envia (origem) e o que recebe (destino)
+    private static final long BYTES_PER_SECOND_PER_NODE = 32L * 1024 * 1024;
+
+    // Resultado da recuperação de uma parte
+    private static final int NOTHING = 0, RESTORED = 1, FAILED = 2;
+
+    private final MetadataStore catalog;
+    private final Map<String, DataNodeInterface> dataNodes;
+    private final Supplier<List<String>> liveNodes;
+    private final Map<String, NodeStats> nodeStats;
+    private final PlacementPolicy placementPolicy;
+    private final int replicationFactor;
+
+    // Partes aguardando recuperação; uma parte só entra na fila uma vez até ser processada
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>();
+    private final Set<PartKey> queued = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Map<String, Throttle> throttles = new ConcurrentHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+
+    // Varredura do catálogo em thread própria, fora da chamada RMI que a dispara
+    private final ExecutorService scanner = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "RecoveryEngine-scanner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Progresso da rodada atual, que começa com a primeira parte enfileirada e termina quando a fila esvazia
+    private final AtomicLong roundStart = new AtomicLong();
+    private final AtomicInteger restored = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong restoredBytes = new AtomicLong();
+
+    RecoveryEngine(MetadataStore catalog, Map<String, DataNodeInterface> dataNodes, Supplier<List<String>> liveNodes,
+                   Map<String, NodeStats> nodeStats, PlacementPolicy placementPolicy, int replicationFactor) {
+        this.catalog = catalog;
+        this.dataNodes = dataNodes;
+        this.liveNodes = liveNodes;
+        this.nodeStats = nodeStats;
+        this.placementPolicy = placementPolicy;
+        this.replicationFactor = replicationFactor;
+    }
+
+    // Retira o DataNode removido das réplicas de todas as partes e enfileira a recuperação de cada uma delas
+    void nodeLost(String dataNodeId) {
+        throttles.remove(dataNodeId);
+        scanner.execute(() -> {
+            int affected = 0;
+            for (String imageName : catalog.imagesOn(dataNodeId)) {
+                ImageRecord record = catalog.get(imageName);
+                for (int i = 0; record != null && i < record.getNumParts(); i++) {
+                    if (Arrays.asList(record.getNodes(i)).contains(dataNodeId) && catalog.updateReplica(imageName, i, dataNodeId, false)) {
+                        enqueue(imageName, i);
+                        affected++;
+                    }
+                }
+            }
+            Log.info("Recuperação: " + affected + " partes afetadas pela falha do DataNode " + dataNodeId + ".");
+        });
+    }
+
+    // Procura no catálogo partes com menos cópias que o esperado, como as gravadas com confirmação por quórum
+    // cujas réplicas restantes falharam ou as que não puderam ser recuperadas em uma rodada anterior. Só são
+    // consultadas as imagens que o catálogo indexa como tendo alguma parte abaixo do número desejado de réplicas.
+    void scanAll() {
+        scanner.execute(() -> {
+            int desired = desiredReplicas();
+            int found = 0;
+            for (String imageName : catalog.imagesWithFewerReplicas(Math.max(desired, 1))) {
+                ImageRecord record = catalog.get(imageName);
+                for (int i = 0; record != null && i < record.getNumParts(); i++) {
+                    if (isMissing(record, i, desired)) {
+                        enqueue(imageName, i);
+                        found++;
+                    }
+                }
+            }
+            if (found > 0) {
+                Log.info("Recuperação: " + found + " partes com redundância abaixo do esperado.");
+            }
+        });
+    }
+
+    private int desiredReplicas() {
+        return Math.min(replicationFactor, liveNodes.get().size());
+    }
+
+    // Com replicação, falta réplica quando há menos cópias que o desejado; com erasure coding, quando a parte não
+    // está em nenhum DataNode. As partes de imagens deduplicadas estão nos blocos, recuperados como as demais imagens.
+    private static boolean isMissing(ImageRecord record, int partNumber, int desiredReplicas) {
+        if (record.isDeduplicated()) {
+            return false;
+        }
+        int copies = record.getNodes(partNumber).length;
+        return record.isErasureCoded() ? copies == 0 : copies < desiredReplicas;
+    }
+
+    // Falhas adicionais que a parte ainda suporta: réplicas restantes menos uma, ou, com erasure coding, partes
+    // disponíveis além das k necessárias para reconstruir a imagem
+    private static int remainingRedundancy(ImageRecord record, int partNumber) {
+        if (!record.isErasureCoded()) {
+            return record.getNodes(partNumber).length - 1;
+        }
+        int available = 0;
+        for (int s = 0; s < record.getNumParts(); s++) {
+            if (record.getNodes(s).length > 0) {
+                available++;
+            }
+        }
+        return available - record.getDataShards();
+    }
+
+    private void enqueue(String imageName, int partNumber) {
+        ImageRecord record = catalog.get(imageName);
+        PartKey key = new PartKey(imageName, partNumber);
+        if (record == null || !queued.add(key)) {
+            return;
+        }
+        roundStart.compareAndSet(0, System.currentTimeMillis());
+        queue.add(new Task(key, remainingRedundancy(record, partNumber), sequence.incrementAndGet()));
+        ensureWorkers();
+    }
+
+    // Cria threads até TRANSFERS_PER_NODE por DataNode vivo; threads ociosas ficam bloqueadas na fila
+    private synchronized void ensureWorkers() {
+        int target = Math.min(MAX_WORKERS, Math.max(1, TRANSFERS_PER_NODE * liveNodes.get().size()));
+        while (workers.size() < target) {
+            Thread worker = new Thread(this::run, "RecoveryEngine-" + workers.size());
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            int result;
+            try {
+                result = recover(task.key.getImageName(), task.key.getPartNumber());
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                Log.error("Erro ao recuperar a parte " + task.key + ": " + e);
+                result = FAILED;
+            } finally {
+                queued.remove(task.key);
+            }
+
+            if (result == RESTORED) {
+                restored.incrementAndGet();
+                // Uma parte que perdeu mais de uma réplica volta à fila até atingir o fator de replicação
+                ImageRecord record = catalog.get(task.key.getImageName());
+                if (record != null && isMissing(record, task.key.getPartNumber(), desiredReplicas())) {
+                    enqueue(task.key.getImageName(), task.key.getPartNumber());
+                }
+            } else if (result == FAILED) {
+                failed.incrementAndGet();
+            }
+            if (queued.isEmpty()) {
+                finishRound();
+            }
+        }
+    }
+
+    private void finishRound() {
+        long start = roundStart.getAndSet(0);
+        if (start == 0) {
+            return;
+        }
+        Log.info("Recuperação concluída em " + (System.currentTimeMillis() - start) + " ms: "
+                + restored.getAndSet(0) + " partes restauradas (" + restoredBytes.getAndSet(0) / (1024 * 1024) + " MB), "
+                + failed.getAndSet(0) + " falhas.");
+    }
+
+    private int recover(String imageName, int partNumber) throws InterruptedException {
+        ImageRecord record = catalog.get(imageName);
+        if (record == null || record.isDeduplicated()) {
+            return NOTHING; // Imagem excluída enquanto aguardava na fila
+        }
+        List<String> live = liveNodes.get();
+        return record.isErasureCoded() ? rebuildShard(imageName, partNumber, record, live) : copyReplica(imageName, partNumber, record, live);
+    }
+
+    // Copia a parte de uma réplica sobrevivente para um DataNode que ainda não a guarda
+    private int copyReplica(String imageName, int partNumber, ImageRecord record, List<String> live) throws InterruptedException {
+        String[] holders = record.getNodes(partNumber);
+        if (holders.length >= Math.min(replicationFactor, live.size())) {
+            return NOTHING;
+        }
+        String source = null;
+        for (String dataNodeId : holders) {
+            if (live.contains(dataNodeId) && (source == null || throttle(dataNodeId).backlog() < throttle(source).backlog())) {
+                source = dataNodeId;
+            }
+        }
+        if (source == null) {
+            Log.warn("Nenhuma réplica disponível para recuperar a parte " + partNumber + " da imagem '" + imageName + "'.");
+            return FAILED;
+        }
+        long length = record.getPartLength(partNumber);
+        String target = chooseTarget(live, new HashSet<>(Arrays.asList(holders)), length);
+        DataNodeInterface sourceNode = dataNodes.get(source);
+        DataNodeInterface targetNode = target == null ? null : dataNodes.get(target);
+        if (sourceNode == null || targetNode == null) {
+            return FAILED;
+        }
+
+        throttle(source).acquire(length);
+        throttle(target).acquire(length);
+        try {
+            if (!targetNode.copyPartFrom(record.storedName(imageName), partNumber, sourceNode)) {
+                return FAILED;
+            }
+            return recordCopy(imageName, record, partNumber, target, targetNode, length);
+        } catch (RemoteException e) {
+            Log.error("Erro ao copiar a parte " + partNumber + " da imagem '" + imageName + "' de " + source
+                    + " para " + target + ": " + e.getMessage());
+            return FAILED;
+        }
+    }
+
+    // Reconstrói uma parte de imagem com erasure coding em um DataNode que não guarda nenhuma parte da imagem
+    private int rebuildShard(String imageName, int partNumber, ImageRecord record, List<String> live) throws InterruptedException {
+        if (record.getNodes(partNumber).length > 0) {
+            return NOTHING;
+        }
+        int totalShards = record.getNumParts();
+        int dataShards = record.getDataShards();
+        DataNodeInterface[] sources = new DataNodeInterface[totalShards];
+        List<String> readers = new ArrayList<>();
+        Set<String> holders = new HashSet<>();
+        for (int s = 0; s < totalShards; s++) {
+            for (String dataNodeId : record.getNodes(s)) {
+                holders.add(dataNodeId);
+                DataNodeInterface dataNode = dataNodes.get(dataNodeId);
+                if (sources[s] == null && dataNode != null && live.contains(dataNodeId)) {
+                    sources[s] = dataNode;
+                    readers.add(dataNodeId);
+                }
+            }
+        }
+        if (readers.size() < dataShards) {
+            Log.warn("Partes insuficientes para recuperar a parte " + partNumber + " da imagem '" + imageName + "'.");
+            return FAILED;
+        }
+        long length = record.getPartLength(partNumber);
+        String target = chooseTarget(live, holders, length);
+        DataNodeInterface targetNode = target == null ? null : dataNodes.get(target);
+        if (targetNode == null) {
+            return FAILED;
+        }
+
+        // A reconstrução lê as k primeiras partes disponíveis, na ordem das partes
+        for (String dataNodeId : readers.subList(0, dataShards)) {
+            throttle(dataNodeId).acquire(length);
+        }
+        throttle(target).acquire(length);
+        try {
+            if (!targetNode.rebuildPart(record.storedName(imageName), partNumber, dataShards, record.getParityShards(), length, sources)) {
+                return FAILED;
+            }
+            return recordCopy(imageName, record, partNumber, target, targetNode, length);
+        } catch (RemoteException e) {
+            Log.error("Erro ao reconstruir a parte " + partNumber + " da imagem '" + imageName + "' em " + target + ": " + e.getMessage());
+            return FAILED;
+        }
+    }
+
+    // Registra a nova cópia no catálogo, desde que a imagem continue na versão do registro lido antes da transferência;
+    // se ela foi excluída ou substituída, a cópia é de uma versão antiga e é descartada
+    private int recordCopy(String imageName, ImageRecord record, int partNumber, String target, DataNodeInterface targetNode,
+                           long length) throws RemoteException {
+        if (!catalog.updateReplica(imageName, partNumber, target, true, record)) {
+            targetNode.deletePart(record.storedName(imageName), partNumber);
+            return NOTHING;
+        }
+        restoredBytes.addAndGet(length);
+        return RESTORED;
+    }
+
+    // Escolhe, pela política de distribuição, um DataNode vivo que não esteja entre os excluídos; null se não houver
+    private String chooseTarget(List<String> live, Set<String> excluded, long length) {
+        List<String> candidates = new ArrayList<>(live);
+        candidates.removeAll(excluded);
+        if (candidates.isEmpty()) {
+            Log.warn("Nenhum DataNode disponível para receber a parte recuperada.");
+            return null;
+        }
+        return placementPolicy.chooseTargets(candidates, 1, 1, length, nodeStats)[0][0];
+    }
+
+    private Throttle throttle(String dataNodeId) {
+        return throttles.computeIfAbsent(dataNodeId, id -> new Throttle(BYTES_PER_SECOND_PER_NODE));
+    }
+
+    // Parte a recuperar; as que suportam menos falhas adicionais saem primeiro, e entre elas a mais antiga
+    private static class Task implements Comparable<Task> {
+        final PartKey key;
+        final int remaining;
+        final long sequence;
+
+        Task(PartKey key, int remaining, long sequence) {
+            this.key = key;
+            this.remaining = remaining;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (remaining != other.remaining) {
+                return Integer.compare(remaining, other.remaining);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    // Limitador de banda de um DataNode: cada transferência reserva o seu tempo na sequência das anteriores e
+    // aguarda até o início da reserva
+    private static class Throttle {
+        private final double nanosPerByte;
+        private long nextFree = System.nanoTime();
+
+        Throttle(long bytesPerSecond) {
+            this.nanosPerByte = 1e9 / bytesPerSecond;
+        }
+
+        void acquire(long bytes) throws InterruptedException {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(now, nextFree);
+                nextFree = start + (long) (bytes * nanosPerByte);
+                wait = start - now;
+            }
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+
+        // Tempo até o fim das transferências já reservadas
+        synchronized long backlog() {
+            return Math.max(0, nextFree - System.nanoTime());
+        }
+    }
+}
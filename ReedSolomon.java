@@ -0,0 +1,213 @@
+import java.util.Arrays;
+
+// Codificador Reed-Solomon sistemático sobre GF(2^8): k partes de dados geram m partes de paridade,
+// e quaisquer k das k+m partes bastam para reconstruir os dados
+public class ReedSolomon {
+    // Polinômio gerador do corpo GF(2^8): x^8 + x^4 + x^3 + x^2 + 1
+    private static final int FIELD_POLYNOMIAL = 0x11D;
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+    // Tabela completa de multiplicação, evitando consultas a EXP/LOG no laço interno
+    private static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) {
+                x ^= FIELD_POLYNOMIAL;
+            }
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+        for (int a = 0; a < 256; a++) {
+            for (int b = 0; b < 256; b++) {
+                MUL[a][b] = (byte) multiply(a, b);
+            }
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    // Matriz de codificação (k+m) x k; as k primeiras linhas formam a identidade
+    private final int[][] matrix;
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards < 0 || dataShards + parityShards > 256) {
+            throw new IllegalArgumentException("Configuração Reed-Solomon inválida: " + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+
+        // Matriz de Vandermonde multiplicada pela inversa do seu topo, tornando o código sistemático
+        int totalShards = dataShards + parityShards;
+        int[][] vandermonde = new int[totalShards][dataShards];
+        for (int r = 0; r < totalShards; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                vandermonde[r][c] = power(r, c);
+            }
+        }
+        int[][] top = new int[dataShards][];
+        System.arraycopy(vandermonde, 0, top, 0, dataShards);
+        this.matrix = multiply(vandermonde, invert(top));
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    // Calcula as partes de paridade (shards[k..k+m-1]) a partir das partes de dados, no intervalo [0, length)
+    public void encodeParity(byte[][] shards, int length) {
+        for (int p = 0; p < parityShards; p++) {
+            byte[] out = shards[dataShards + p];
+            Arrays.fill(out, 0, length, (byte) 0);
+            for (int d = 0; d < dataShards; d++) {
+                mulAdd(matrix[dataShards + p][d], shards[d], out, length);
+            }
+        }
+    }
+
+    // Reconstrói as partes de dados ausentes a partir de k partes presentes, no intervalo [0, length)
+    public void decodeData(byte[][] shards, boolean[] present, int length) {
+        int[] rows = new int[dataShards];
+        int found = 0;
+        for (int i = 0; i < present.length && found < dataShards; i++) {
+            if (present[i]) {
+                rows[found++] = i;
+            }
+        }
+        if (found < dataShards) {
+            throw new IllegalArgumentException("Partes insuficientes para reconstrução: " + found + " de " + dataShards);
+        }
+
+        boolean missingData = false;
+        for (int d = 0; d < dataShards; d++) {
+            missingData |= !present[d];
+        }
+        if (!missingData) {
+            return;
+        }
+
+        int[][] subMatrix = new int[dataShards][];
+        for (int i = 0; i < dataShards; i++) {
+            subMatrix[i] = matrix[rows[i]];
+        }
+        int[][] decodeMatrix = invert(subMatrix);
+
+        for (int d = 0; d < dataShards; d++) {
+            if (present[d]) {
+                continue;
+            }
+            byte[] out = shards[d];
+            Arrays.fill(out, 0, length, (byte) 0);
+            for (int i = 0; i < dataShards; i++) {
+                mulAdd(decodeMatrix[d][i], shards[rows[i]], out, length);
+            }
+        }
+    }
+
+    // Reconstrói uma única parte (de dados ou de paridade) a partir de k partes presentes
+    public void reconstructShard(byte[][] shards, boolean[] present, int target, int length) {
+        if (target < dataShards) {
+            decodeData(shards, present, length);
+            return;
+        }
+        decodeData(shards, present, length);
+        byte[] out = shards[target];
+        Arrays.fill(out, 0, length, (byte) 0);
+        for (int d = 0; d < dataShards; d++) {
+            mulAdd(matrix[target][d], shards[d], out, length);
+        }
+    }
+
+    // out ^= coef * in, byte a byte
+    private static void mulAdd(int coef, byte[] in, byte[] out, int length) {
+        if (coef == 0) {
+            return;
+        }
+        byte[] row = MUL[coef];
+        for (int b = 0; b < length; b++) {
+            out[b] ^= row[in[b] & 0xFF];
+        }
+    }
+
+    private static int multiply(int a, int b) {
+        if (a == 0 || b == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    private static int power(int base, int exponent) {
+        if (exponent == 0) {
+            return 1;
+        }
+        if (base == 0) {
+            return 0;
+        }
+        return EXP[(LOG[base] * exponent) % 255];
+    }
+
+    private static int[][] multiply(int[][] a, int[][] b) {
+        int[][] result = new int[a.length][b[0].length];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < b[0].length; c++) {
+                int value = 0;
+                for (int i = 0; i < b.length; i++) {
+                    value ^= multiply(a[r][i], b[i][c]);
+                }
+                result[r][c] = value;
+            }
+        }
+        return result;
+    }
+
+    // Inverte uma matriz quadrada em GF(2^8) por eliminação de Gauss-Jordan
+    private static int[][] invert(int[][] source) {
+        int n = source.length;
+        int[][] work = new int[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(source[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && work[pivot][col] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                throw new IllegalArgumentException("Matriz singular");
+            }
+            int[] tmp = work[col];
+            work[col] = work[pivot];
+            work[pivot] = tmp;
+
+            int inverse = EXP[255 - LOG[work[col][col]]];
+            for (int c = 0; c < 2 * n; c++) {
+                work[col][c] = multiply(work[col][c], inverse);
+            }
+            for (int r = 0; r < n; r++) {
+                if (r != col && work[r][col] != 0) {
+                    int factor = work[r][col];
+                    for (int c = 0; c < 2 * n; c++) {
+                        work[r][c] ^= multiply(factor, work[col][c]);
+                    }
+                }
+            }
+        }
+
+        int[][] result = new int[n][n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(work[r], n, result[r], 0, n);
+        }
+        return result;
+    }
+}
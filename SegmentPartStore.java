@@ -0,0 +1,467 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Armazenamento log-structured: as partes são acrescentadas a arquivos de segmento grandes e localizadas por um
+// índice em memória (parte -> segmento, posição e tamanho), evitando um arquivo e uma abertura por parte.
+// Exclusões gravam um registro de remoção (tombstone); segmentos com muito espaço ocupado por dados obsoletos
+// são compactados em segundo plano, copiando as partes ainda válidas para o segmento ativo.
+public class SegmentPartStore implements PartStore {
+    // Tamanho a partir do qual o segmento ativo é fechado e um novo segmento é iniciado
+    static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    // Fração de dados obsoletos a partir da qual um segmento é compactado
+    static final double COMPACTION_RATIO = 0.5;
+    // Tamanho acima do qual uma parte recebida em blocos é mantida em um arquivo temporário em vez de em memória
+    static final int SPILL_THRESHOLD = 4 * 1024 * 1024;
+
+    private static final int MAGIC = 0x5345474D;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int FIXED_HEADER = 4 + 1 + 2; // magic, tipo e tamanho da chave
+
+    private final File directory;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    // Serializa as gravações no segmento ativo e as atualizações do índice que dependem da ordem no log
+    private final Object appendLock = new Object();
+    private volatile Segment active;
+
+    public SegmentPartStore(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        load();
+        active = segments.isEmpty() ? newSegment(1) : segments.lastEntry().getValue();
+    }
+
+    @Override
+    public void write(String imageName, int partNumber, byte[] data) throws IOException {
+        String key = PartStore.key(imageName, partNumber);
+        synchronized (appendLock) {
+            Location location = append(PUT, key, data.length, (channel, position) -> writeFully(channel, ByteBuffer.wrap(data), position));
+            replace(key, location);
+        }
+    }
+
+    // Partes pequenas são acumuladas em memória; as maiores, em um arquivo temporário copiado para o segmento
+    // no commit via transferência entre canais, sem passar pelo heap
+    @Override
+    public Writer openWriter(String imageName, int partNumber) {
+        String key = PartStore.key(imageName, partNumber);
+        return new Writer() {
+            private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            private File spillFile;
+            private FileChannel spill;
+
+            @Override
+            public void write(byte[] chunk) throws IOException {
+                if (spill == null && buffer.size() + chunk.length > SPILL_THRESHOLD) {
+                    spillFile = new File(directory, "upload-" + UUID.randomUUID() + ".tmp");
+                    spill = FileChannel.open(spillFile.toPath(), StandardOpenOption.CREATE_NEW,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    writeFully(spill, ByteBuffer.wrap(buffer.toByteArray()), 0);
+                    buffer.reset();
+                }
+                if (spill != null) {
+                    writeFully(spill, ByteBuffer.wrap(chunk), spill.size());
+                } else {
+                    buffer.write(chunk);
+                }
+            }
+
+            @Override
+            public void commit() throws IOException {
+                try {
+                    synchronized (appendLock) {
+                        Location location;
+                        if (spill != null) {
+                            long length = spill.size();
+                            location = append(PUT, key, length, (channel, position) -> transferFully(spill, 0, length, channel, position));
+                        } else {
+                            byte[] data = buffer.toByteArray();
+                            location = append(PUT, key, data.length, (channel, position) -> writeFully(channel, ByteBuffer.wrap(data), position));
+                        }
+                        replace(key, location);
+                    }
+                } finally {
+                    abort();
+                }
+            }
+
+            @Override
+            public void abort() {
+                buffer.reset();
+                if (spill != null) {
+                    try {
+                        spill.close();
+                    } catch (IOException ignored) {
+                    }
+                    spillFile.delete();
+                    spill = null;
+                }
+            }
+        };
+    }
+
+    // Leitura posicional no canal compartilhado do segmento; o segmento não é removido enquanto houver leitores
+    @Override
+    public Reader openReader(String imageName, int partNumber) {
+        String key = PartStore.key(imageName, partNumber);
+        Location location;
+        do {
+            location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            // Se o segmento acabou de ser compactado, o índice já aponta para a nova posição
+        } while (!location.segment.retain());
+
+        Location found = location;
+        return new Reader() {
+            private long position;
+            private boolean closed;
+
+            @Override
+            public byte[] read(int maxBytes) throws IOException {
+                byte[] chunk = read(position, maxBytes);
+                if (chunk != null) {
+                    position += chunk.length;
+                }
+                return chunk;
+            }
+
+            @Override
+            public byte[] read(long from, int maxBytes) throws IOException {
+                int size = (int) Math.min(maxBytes, found.length - from);
+                if (size <= 0) {
+                    return null;
+                }
+                byte[] chunk = new byte[size];
+                ByteBuffer target = ByteBuffer.wrap(chunk);
+                while (target.hasRemaining()) {
+                    if (found.segment.channel.read(target, found.offset + from + target.position()) < 0) {
+                        throw new IOException("Segmento truncado: " + found.segment.file.getName());
+                    }
+                }
+                return chunk;
+            }
+
+            @Override
+            public long length() {
+                return found.length;
+            }
+
+            @Override
+            public synchronized void close() {
+                if (!closed) {
+                    closed = true;
+                    found.segment.release();
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean delete(String imageName, int partNumber) throws IOException {
+        String key = PartStore.key(imageName, partNumber);
+        synchronized (appendLock) {
+            if (!index.containsKey(key)) {
+                return false;
+            }
+            Location tombstone = append(DELETE, key, 0, (channel, position) -> { });
+            tombstone.segment.garbage.addAndGet(tombstone.recordLength);
+            replace(key, null);
+            return true;
+        }
+    }
+
+    @Override
+    public Map<String, Long> inventory() {
+        Map<String, Long> parts = new HashMap<>();
+        index.forEach((key, location) -> parts.put(key, location.length));
+        return parts;
+    }
+
+    // Compacta os segmentos fechados cuja fração de dados obsoletos ultrapassou o limite
+    @Override
+    public void maintain() {
+        for (Segment segment : segments.values()) {
+            if (segment != active && segment.size > 0 && segment.garbage.get() >= segment.size * COMPACTION_RATIO) {
+                try {
+                    compact(segment);
+                } catch (IOException e) {
+                    Log.error("Erro ao compactar o segmento " + segment.file.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Segment segment : segments.values()) {
+            segment.release();
+        }
+    }
+
+    // Copia as partes ainda válidas do segmento para o segmento ativo e o descarta. Cada registro é copiado sob a
+    // trava de gravação, para que a ordem no log continue refletindo a versão mais recente de cada parte.
+    private void compact(Segment segment) throws IOException {
+        long start = System.currentTimeMillis();
+        long reclaimed = segment.size;
+        int moved = 0;
+        long position = 0;
+        while (position < segment.size) {
+            Header header = readHeader(segment, position);
+            if (header == null) {
+                break;
+            }
+            long dataOffset = position + header.headerLength;
+            synchronized (appendLock) {
+                Location current = index.get(header.key);
+                if (header.type == PUT && current != null && current.segment == segment && current.offset == dataOffset) {
+                    Location copy = append(PUT, header.key, header.dataLength,
+                            (channel, target) -> transferFully(segment.channel, dataOffset, header.dataLength, channel, target));
+                    index.put(header.key, copy);
+                    reclaimed -= copy.recordLength;
+                    moved++;
+                } else if (header.type == DELETE && current == null && segments.firstKey() < segment.id) {
+                    // A remoção ainda é necessária enquanto um segmento mais antigo puder conter a parte
+                    Location tombstone = append(DELETE, header.key, 0, (channel, target) -> { });
+                    tombstone.segment.garbage.addAndGet(tombstone.recordLength);
+                }
+            }
+            position = dataOffset + header.dataLength;
+        }
+
+        segments.remove(segment.id);
+        segment.retire();
+        Log.info("Segmento " + segment.file.getName() + " compactado: " + moved + " partes movidas, "
+                + reclaimed + " bytes liberados em " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    // Acrescenta um registro ao segmento ativo; deve ser chamado com a trava de gravação
+    private Location append(byte type, String key, long dataLength, DataSource data) throws IOException {
+        if (active.size >= SEGMENT_SIZE) {
+            active = newSegment(active.id + 1);
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER + keyBytes.length + 8);
+        header.putInt(MAGIC).put(type).putShort((short) keyBytes.length).put(keyBytes).putLong(dataLength).flip();
+
+        long recordStart = active.size;
+        int headerLength = header.remaining();
+        try {
+            writeFully(active.channel, header, recordStart);
+            data.writeTo(active.channel, recordStart + headerLength);
+        } catch (IOException e) {
+            // Descarta o registro incompleto para não corromper o log
+            active.channel.truncate(recordStart);
+            throw e;
+        }
+        active.size = recordStart + headerLength + dataLength;
+        return new Location(active, recordStart + headerLength, dataLength, headerLength + dataLength);
+    }
+
+    // Atualiza o índice e contabiliza a versão anterior como dado obsoleto; deve ser chamado com a trava de gravação
+    private void replace(String key, Location location) {
+        Location previous = location == null ? index.remove(key) : index.put(key, location);
+        if (previous != null) {
+            previous.segment.garbage.addAndGet(previous.recordLength);
+        }
+    }
+
+    // Reconstrói o índice lendo os cabeçalhos de todos os segmentos em ordem; um registro final incompleto é descartado
+    private void load() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith("upload-") && name.endsWith(".tmp")) {
+                file.delete();
+            } else if (name.startsWith("segment-") && name.endsWith(".dat")) {
+                long id = Long.parseLong(name.substring("segment-".length(), name.length() - ".dat".length()));
+                segments.put(id, openSegment(id, file));
+            }
+        }
+
+        for (Segment segment : segments.values()) {
+            long fileSize = segment.channel.size();
+            segment.size = fileSize;
+            long position = 0;
+            while (position < fileSize) {
+                Header header = readHeader(segment, position);
+                if (header == null || position + header.headerLength + header.dataLength > fileSize) {
+                    Log.warn("Registro incompleto no segmento " + segment.file.getName() + " descartado.");
+                    segment.channel.truncate(position);
+                    break;
+                }
+                long dataOffset = position + header.headerLength;
+                long recordLength = header.headerLength + header.dataLength;
+                if (header.type == PUT) {
+                    replace(header.key, new Location(segment, dataOffset, header.dataLength, recordLength));
+                } else {
+                    replace(header.key, null);
+                    segment.garbage.addAndGet(recordLength);
+                }
+                position = dataOffset + header.dataLength;
+            }
+            segment.size = position;
+        }
+    }
+
+    private Header readHeader(Segment segment, long position) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER);
+        if (!readFully(segment.channel, fixed, position)) {
+            return null;
+        }
+        fixed.flip();
+        if (fixed.getInt() != MAGIC) {
+            return null;
+        }
+        byte type = fixed.get();
+        int keyLength = fixed.getShort() & 0xFFFF;
+        ByteBuffer rest = ByteBuffer.allocate(keyLength + 8);
+        if ((type != PUT && type != DELETE) || !readFully(segment.channel, rest, position + FIXED_HEADER)) {
+            return null;
+        }
+        rest.flip();
+        byte[] key = new byte[keyLength];
+        rest.get(key);
+        long dataLength = rest.getLong();
+        if (dataLength < 0) {
+            return null;
+        }
+        return new Header(type, new String(key, StandardCharsets.UTF_8), FIXED_HEADER + keyLength + 8, dataLength);
+    }
+
+    private Segment newSegment(long id) throws IOException {
+        Segment segment = openSegment(id, new File(directory, String.format("segment-%08d.dat", id)));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static Segment openSegment(long id, File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(id, file, channel);
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+    }
+
+    // Copia bytes entre canais de arquivo; o sistema operacional pode fazer a cópia sem passar pela aplicação
+    private static void transferFully(FileChannel source, long sourcePosition, long length, FileChannel target, long targetPosition)
+            throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            long transferred = source.transferTo(sourcePosition + copied, length - copied, target.position(targetPosition + copied));
+            if (transferred <= 0) {
+                throw new IOException("Falha ao copiar dados entre segmentos");
+            }
+            copied += transferred;
+        }
+    }
+
+    // Origem dos dados de um registro, gravados diretamente no canal do segmento na posição informada
+    private interface DataSource {
+        void writeTo(FileChannel channel, long position) throws IOException;
+    }
+
+    // Arquivo de segmento; a contagem de referências impede que um segmento compactado seja removido durante leituras
+    private static class Segment {
+        final long id;
+        final File file;
+        final FileChannel channel;
+        final AtomicLong garbage = new AtomicLong();
+        final AtomicInteger references = new AtomicInteger(1); // A referência inicial pertence ao próprio armazenamento
+        volatile long size;
+
+        Segment(long id, File file, FileChannel channel) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        boolean retain() {
+            int current;
+            do {
+                current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        // Retira o segmento do armazenamento; o arquivo é removido quando o último leitor terminar
+        void retire() {
+            file.delete();
+            release();
+        }
+    }
+
+    // Posição de uma parte: segmento, início dos dados e tamanho do registro completo (cabeçalho + dados)
+    private static class Location {
+        final Segment segment;
+        final long offset;
+        final long length;
+        final long recordLength;
+
+        Location(Segment segment, long offset, long length, long recordLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.recordLength = recordLength;
+        }
+    }
+
+    private static class Header {
+        final byte type;
+        final String key;
+        final int headerLength;
+        final long dataLength;
+
+        Header(byte type, String key, int headerLength, long dataLength) {
+            this.type = type;
+            this.key = key;
+            this.headerLength = headerLength;
+            this.dataLength = dataLength;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+// Miniatura de uma imagem: versão reduzida em JPEG, com o lado maior de até MAX_SIZE pixels, gerada no upload e
+// guardada no catálogo como uma imagem de uma parte chamada "<imagem>#thumbnail", oculta nas listagens e removida
+// com a imagem. Pré-visualizar uma imagem transfere apenas alguns KB em vez de todas as suas partes.
+final class Thumbnail {
+    static final int MAX_SIZE = 256;
+
+    // Tamanho máximo aceito para uma miniatura enviada pelo cliente
+    static final int MAX_BYTES = 1024 * 1024;
+
+    // Tamanho máximo padrão das imagens cuja miniatura é gerada pelo MasterServer em storeImage
+    static final long DEFAULT_SOURCE_LIMIT = 32L * 1024 * 1024;
+
+    // Sufixo reservado aos nomes das miniaturas no catálogo
+    static final String SUFFIX = "#thumbnail";
+
+    private Thumbnail() {
+    }
+
+    // Nome sob o qual a miniatura da imagem é guardada no catálogo
+    static String recordName(String imageName) {
+        return imageName + SUFFIX;
+    }
+
+    static boolean isRecordName(String name) {
+        return name.endsWith(SUFFIX);
+    }
+
+    // Gera a miniatura dos dados de uma imagem; null se eles não estiverem em um formato suportado pelo ImageIO
+    static byte[] create(byte[] imageData) {
+        return create(new MemoryCacheImageInputStream(new ByteArrayInputStream(imageData)));
+    }
+
+    static byte[] create(File file) {
+        try {
+            return create(new FileImageInputStream(file));
+        } catch (IOException e) {
+            Log.error("Erro ao abrir a imagem para gerar a miniatura: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static byte[] create(ImageInputStream input) {
+        try (input) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                // A imagem é decodificada já subamostrada: a resolução original nunca é carregada inteira em memória
+                int step = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / (2 * MAX_SIZE));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage source = reader.read(0, param);
+
+                double scale = Math.min(1.0, (double) MAX_SIZE / Math.max(source.getWidth(), source.getHeight()));
+                int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+                int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+                BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                Graphics2D graphics = thumbnail.createGraphics();
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(source, 0, 0, width, height, null);
+                graphics.dispose();
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageIO.write(thumbnail, "jpg", out);
+                return out.toByteArray();
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Dados corrompidos ou formato sem suporte completo: a imagem é armazenada sem miniatura
+            Log.warn("Não foi possível gerar a miniatura: " + e.getMessage());
+            return null;
+        }
+    }
+}
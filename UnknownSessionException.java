@@ -0,0 +1,11 @@
+import java.io.IOException;
+
+// Sessão de download desconhecida ou expirada em um DataNode. Não é uma RemoteException: o DataNode respondeu, e quem
+// a recebe pode abrir uma nova sessão em vez de tratar o DataNode como inacessível
+public class UnknownSessionException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public UnknownSessionException(String sessionId) {
+        super("Sessão de download desconhecida ou expirada: " + sessionId);
+    }
+}
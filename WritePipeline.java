@@ -0,0 +1,209 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Pipeline assíncrono de gravação das partes nos DataNodes. Cada DataNode tem uma fila limitada e threads
+// próprias, de modo que as partes destinadas a nós diferentes são gravadas em paralelo e um DataNode lento
+// atrasa apenas a sua fila. Lotes enfileirados para o mesmo nó são enviados juntos em uma única chamada
+// uploadParts. Os bytes em trânsito são limitados por um semáforo, o que bloqueia novos uploads quando os
+// DataNodes não acompanham o ritmo, em vez de acumular imagens no heap do MasterServer.
+class WritePipeline {
+
+    // Número de réplicas de cada parte que precisam confirmar a gravação antes da resposta ao cliente
+    enum AckPolicy {
+        ALL, QUORUM;
+
+        int required(int replicas) {
+            return this == ALL ? replicas : replicas / 2 + 1;
+        }
+    }
+
+    // Lotes aguardando envio em cada DataNode; quando a fila está cheia, quem enfileira é bloqueado
+    private static final int QUEUE_CAPACITY = 64;
+
+    // Espera máxima por espaço na fila de um DataNode; depois disso as réplicas do lote são recusadas, para que
+    // um DataNode travado não bloqueie os uploads que podem ser confirmados pelas demais réplicas
+    private static final long QUEUE_TIMEOUT_MS = 1000;
+
+    // Chamadas uploadParts simultâneas por DataNode
+    private static final int WORKERS_PER_NODE = 4;
+
+    // Limites de uma chamada uploadParts formada pela junção de lotes enfileirados
+    private static final int MAX_MERGED_PARTS = 1024;
+    private static final long MAX_MERGED_BYTES = 16L * 1024 * 1024;
+
+    // Limite padrão de bytes de imagens em trânsito no MasterServer
+    static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 256L * 1024 * 1024;
+
+    // O semáforo conta KB, para que o limite caiba em um int
+    private static final int PERMIT_SIZE = 1024;
+
+    private final Map<String, NodeQueue> queues = new ConcurrentHashMap<>();
+    private final Semaphore inFlight;
+    private final int maxPermits;
+
+    WritePipeline(long maxInFlightBytes) {
+        this.maxPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxInFlightBytes / PERMIT_SIZE));
+        this.inFlight = new Semaphore(maxPermits);
+    }
+
+    // Reserva espaço para bytes em trânsito, bloqueando enquanto o limite estiver esgotado. Um pedido maior
+    // que o limite reserva o limite inteiro. Retorna a quantidade a ser devolvida em release.
+    int acquire(long bytes) throws InterruptedException {
+        int permits = (int) Math.min(maxPermits, Math.max(1, (bytes + PERMIT_SIZE - 1) / PERMIT_SIZE));
+        inFlight.acquire(permits);
+        return permits;
+    }
+
+    void release(int permits) {
+        inFlight.release(permits);
+    }
+
+    // Bytes reservados por gravações em andamento
+    long inFlightBytes() {
+        return (long) (maxPermits - inFlight.availablePermits()) * PERMIT_SIZE;
+    }
+
+    // Lotes aguardando envio, somados entre as filas de todos os DataNodes
+    int queuedTasks() {
+        int queued = 0;
+        for (NodeQueue queue : queues.values()) {
+            queued += queue.tasks.size();
+        }
+        return queued;
+    }
+
+    // Enfileira a gravação de partes em um DataNode. O futuro recebe um resultado por parte ou é concluído
+    // com erro se o DataNode estiver inacessível.
+    CompletableFuture<boolean[]> submit(String dataNodeId, DataNodeInterface dataNode, List<PartData> parts) {
+        Task task = new Task(dataNode, parts);
+        NodeQueue queue = queues.computeIfAbsent(dataNodeId, NodeQueue::new);
+        try {
+            if (!queue.tasks.offer(task, QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.warn("Fila de gravação do DataNode " + dataNodeId + " cheia; " + parts.size() + " réplicas recusadas.");
+                task.done.complete(new boolean[parts.size()]);
+                return task.done;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.done.completeExceptionally(e);
+            return task.done;
+        }
+        if (queue.stopped) {
+            queue.failPending(); // O DataNode foi removido enquanto o lote era enfileirado
+        }
+        return task.done;
+    }
+
+    // Encerra a fila de um DataNode removido; lotes pendentes falham
+    void removeNode(String dataNodeId) {
+        NodeQueue queue = queues.remove(dataNodeId);
+        if (queue != null) {
+            queue.stopped = true;
+            for (Thread worker : queue.workers) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    // Lote de partes destinado a um DataNode
+    private static class Task {
+        final DataNodeInterface dataNode;
+        final List<PartData> parts;
+        final CompletableFuture<boolean[]> done = new CompletableFuture<>();
+
+        Task(DataNodeInterface dataNode, List<PartData> parts) {
+            this.dataNode = dataNode;
+            this.parts = parts;
+        }
+
+        long bytes() {
+            long total = 0;
+            for (PartData part : parts) {
+                total += part.getData().length;
+            }
+            return total;
+        }
+    }
+
+    // Fila e threads de envio de um DataNode
+    private static class NodeQueue {
+        final String dataNodeId;
+        final BlockingQueue<Task> tasks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final Thread[] workers = new Thread[WORKERS_PER_NODE];
+        volatile boolean stopped;
+
+        NodeQueue(String dataNodeId) {
+            this.dataNodeId = dataNodeId;
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Thread(this::run, "WritePipeline-" + dataNodeId + "-" + i);
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+        }
+
+        private void run() {
+            List<Task> merged = new ArrayList<>();
+            while (!stopped) {
+                // Retira um lote e junta os seguintes destinados à mesma referência remota, dentro dos limites
+                // da chamada; as threads do nó retiram lotes uma de cada vez
+                synchronized (this) {
+                    try {
+                        merged.add(tasks.take());
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    int parts = merged.get(0).parts.size();
+                    long bytes = merged.get(0).bytes();
+                    Task next;
+                    while ((next = tasks.peek()) != null && next.dataNode == merged.get(0).dataNode
+                            && parts + next.parts.size() <= MAX_MERGED_PARTS && bytes + next.bytes() <= MAX_MERGED_BYTES) {
+                        merged.add(tasks.poll());
+                        parts += next.parts.size();
+                        bytes += next.bytes();
+                    }
+                }
+                send(merged);
+                merged.clear();
+            }
+            failPending();
+        }
+
+        private void send(List<Task> merged) {
+            List<PartData> parts = new ArrayList<>();
+            for (Task task : merged) {
+                parts.addAll(task.parts);
+            }
+            try {
+                boolean[] results = merged.get(0).dataNode.uploadParts(parts);
+                int offset = 0;
+                for (Task task : merged) {
+                    boolean[] taskResults = new boolean[task.parts.size()];
+                    for (int k = 0; k < taskResults.length && offset + k < results.length; k++) {
+                        taskResults[k] = results[offset + k];
+                    }
+                    offset += taskResults.length;
+                    task.done.complete(taskResults);
+                }
+            } catch (Exception e) {
+                for (Task task : merged) {
+                    task.done.completeExceptionally(e);
+                }
+            }
+        }
+
+        void failPending() {
+            Task task;
+            while ((task = tasks.poll()) != null) {
+                task.done.completeExceptionally(new RemoteException("DataNode " + dataNodeId + " removido do registro"));
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+// Plano de escrita emitido pelo MasterServer: indica ao cliente em quais DataNodes gravar as réplicas de cada parte
+public class WritePlan implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String token; // Identificador do plano, usado para confirmar ou cancelar o upload
+    private final String imageName;
+    private final long[] partOffsets; // Posição inicial de cada parte dentro da imagem
+    private final long[] partLengths; // Tamanho de cada parte em bytes
+    private final DataNodeInterface[][] targets; // DataNodes que devem receber as réplicas de cada parte
+    private final int parityShards; // Número de partes de paridade (0 no modo de replicação)
+    private final long imageSize;
+    private final PartKey[] partKeys; // Nome sob o qual cada parte é gravada (bloco ou versão da imagem); null usa o nome da imagem
+    private final int codec; // Compressão a aplicar nas partes antes do envio (PartCodec)
+
+    public WritePlan(String token, String imageName, long[] partOffsets, long[] partLengths, DataNodeInterface[][] targets) {
+        this(token, imageName, partOffsets, partLengths, targets, 0, Arrays.stream(partLengths).sum());
+    }
+
+    public WritePlan(String token, String imageName, long[] partOffsets, long[] partLengths, DataNodeInterface[][] targets,
+                     int parityShards, long imageSize) {
+        this(token, imageName, partOffsets, partLengths, targets, parityShards, imageSize, null);
+    }
+
+    // Plano de um upload deduplicado: as partes são gravadas como blocos, e as que já estão armazenadas no sistema
+    // não têm DataNodes de destino
+    public WritePlan(String token, String imageName, long[] partOffsets, long[] partLengths, DataNodeInterface[][] targets,
+                     int parityShards, long imageSize, PartKey[] partKeys) {
+        this(token, imageName, partOffsets, partLengths, targets, parityShards, imageSize, partKeys, PartCodec.NONE);
+    }
+
+    public WritePlan(String token, String imageName, long[] partOffsets, long[] partLengths, DataNodeInterface[][] targets,
+                     int parityShards, long imageSize, PartKey[] partKeys, int codec) {
+        this.token = token;
+        this.imageName = imageName;
+        this.partOffsets = partOffsets;
+        this.partLengths = partLengths;
+        this.targets = targets;
+        this.parityShards = parityShards;
+        this.imageSize = imageSize;
+        this.partKeys = partKeys;
+        this.codec = codec;
+    }
+
+    public boolean isErasureCoded() {
+        return parityShards > 0;
+    }
+
+    public int getDataShards() {
+        return partLengths.length - parityShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public long getImageSize() {
+        return imageSize;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getImageName() {
+        return imageName;
+    }
+
+    public int getNumParts() {
+        return partLengths.length;
+    }
+
+    public long getPartOffset(int partNumber) {
+        return partOffsets[partNumber];
+    }
+
+    public long getPartLength(int partNumber) {
+        return partLengths[partNumber];
+    }
+
+    // Nome e número sob os quais a parte deve ser gravada nos DataNodes
+    public PartKey getPartKey(int partNumber) {
+        return partKeys != null ? partKeys[partNumber] : new PartKey(imageName, partNumber);
+    }
+
+    // Compressão que o MasterServer indica para as partes; o cliente a aplica a cada parte em que ela compensa
+    public int getCodec() {
+        return codec;
+    }
+
+    public DataNodeInterface[] getTargets(int partNumber) {
+        return targets[partNumber];
+    }
+}